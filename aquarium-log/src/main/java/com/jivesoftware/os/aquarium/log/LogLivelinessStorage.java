@@ -0,0 +1,125 @@
+package com.jivesoftware.os.aquarium.log;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.jivesoftware.os.aquarium.Member;
+import com.jivesoftware.os.aquarium.RowKey;
+import com.jivesoftware.os.aquarium.interfaces.LivelinessStorage;
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * A durable {@link LivelinessStorage} which serves every read from memory and appends each winning write to a {@link SegmentLog}.
+ */
+public class LogLivelinessStorage implements LivelinessStorage {
+
+    private final SegmentLog log;
+    private final ConcurrentSkipListMap<RowKey<Void>, LogRow> index = new ConcurrentSkipListMap<>();
+    private final ConcurrentSkipListMap<RowKey<Void>, LogRow> unsynced = new ConcurrentSkipListMap<>(); // appended but not yet durable
+    private long versions; // guarded by log
+
+    /**
+     * @param compactor runs checkpoints in the background, or null to run them on the writing thread
+     */
+    public LogLivelinessStorage(File directory, long maxSegmentBytes, boolean fsync, ExecutorService compactor) throws Exception {
+        // unsynced first, so a row which becomes durable while the checkpoint is written is still found in the index
+        this.log = new SegmentLog(directory, maxSegmentBytes, fsync, compactor, stream -> rows(unsynced, stream) && rows(index, stream));
+        synchronized (log) {
+            log.open((root, ack, lifecycleBytes, state, timestamp, version) -> {
+                index.merge(RowKey.liveliness(new Member(root), new Member(ack)), new LogRow(state, timestamp, version), LogRow::winner);
+                versions = Math.max(versions, version);
+                return true;
+            });
+        }
+    }
+
+    @Override
+    public boolean scan(Member rootMember, Member otherMember, LivelinessStream stream) throws Exception {
+        Iterable<Map.Entry<RowKey<Void>, LogRow>> entries = rootMember == null
+            ? index.entrySet()
+            : index.tailMap(RowKey.liveliness(rootMember, otherMember)).entrySet();
+        for (Map.Entry<RowKey<Void>, LogRow> entry : entries) {
+            RowKey<Void> key = entry.getKey();
+            if (rootMember != null && !rootMember.equals(key.rootMember)) {
+                break;
+            }
+            LogRow row = entry.getValue();
+            if (!stream.stream(key.rootMember, key.isSelf, key.ackMember, row.timestamp, row.version)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean update(LivelinessUpdates updates) throws Exception {
+        long[] position = { -1 };
+        List<Map.Entry<RowKey<Void>, LogRow>> appended = Lists.newArrayList();
+        boolean result;
+        boolean durable = false;
+        try {
+            result = updates.updates((rootMember, otherMember, timestamp) -> {
+                RowKey<Void> key = RowKey.liveliness(rootMember, otherMember);
+                synchronized (log) {
+                    LogRow existing = unsynced.get(key);
+                    if (existing == null) {
+                        existing = index.get(key);
+                    }
+                    long version = ++versions;
+                    if (existing == null || existing.loses(timestamp, version)) {
+                        position[0] = log.append(rootMember.getMember(), otherMember.getMember(), RowKey.NO_LIFECYCLE, (byte) 0, timestamp, version);
+                        LogRow row = new LogRow((byte) 0, timestamp, version);
+                        unsynced.put(key, row);
+                        appended.add(Maps.immutableEntry(key, row));
+                    }
+                }
+                return true;
+            });
+            if (position[0] != -1) {
+                log.sync(position[0]);
+            }
+            durable = true;
+        } finally {
+            // reads only see durable rows, and a concurrent update may have made a newer row durable first, while a row
+            // which failed to sync must not shadow later writes
+            for (Map.Entry<RowKey<Void>, LogRow> entry : appended) {
+                if (durable) {
+                    index.merge(entry.getKey(), entry.getValue(), LogRow::winner);
+                }
+                unsynced.remove(entry.getKey(), entry.getValue());
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public long get(Member rootMember, Member otherMember) throws Exception {
+        LogRow row = index.get(RowKey.liveliness(rootMember, otherMember));
+        return row != null ? row.timestamp : -1;
+    }
+
+    /**
+     * Writes a checkpoint of the current rows and drops the log segments it covers.
+     */
+    public void compact() throws Exception {
+        log.compact();
+    }
+
+    public void close() throws Exception {
+        log.close();
+    }
+
+    private static boolean rows(Map<RowKey<Void>, LogRow> rows, SegmentLog.RecordStream stream) throws Exception {
+        for (Map.Entry<RowKey<Void>, LogRow> entry : rows.entrySet()) {
+            RowKey<Void> key = entry.getKey();
+            LogRow row = entry.getValue();
+            if (!stream.stream(key.rootMember.getMember(), key.ackMember.getMember(), RowKey.NO_LIFECYCLE, row.state, row.timestamp, row.version)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,28 @@
+package com.jivesoftware.os.aquarium.log;
+
+/**
+ * The value of a logged row. Immutable so readers never see a torn row.
+ */
+class LogRow {
+
+    final byte state;
+    final long timestamp;
+    final long version;
+
+    LogRow(byte state, long timestamp, long version) {
+        this.state = state;
+        this.timestamp = timestamp;
+        this.version = version;
+    }
+
+    /**
+     * @return true if a write with the given timestamp and version replaces this row
+     */
+    boolean loses(long timestamp, long version) {
+        return this.timestamp < timestamp || (this.timestamp == timestamp && this.version < version);
+    }
+
+    static LogRow winner(LogRow a, LogRow b) {
+        return a.loses(b.timestamp, b.version) ? b : a;
+    }
+}
@@ -0,0 +1,143 @@
+package com.jivesoftware.os.aquarium.log;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.jivesoftware.os.aquarium.Member;
+import com.jivesoftware.os.aquarium.RowKey;
+import com.jivesoftware.os.aquarium.State;
+import com.jivesoftware.os.aquarium.interfaces.AquaBuffer;
+import com.jivesoftware.os.aquarium.interfaces.LifecycleMarshaller;
+import com.jivesoftware.os.aquarium.interfaces.StateStorage;
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * A durable {@link StateStorage} which serves every read from memory and appends each winning write to a {@link SegmentLog}.
+ * Writes which lose to the row already held are never logged. {@link #update} returns once its writes are durable, and
+ * writes from concurrent updates share one fsync.
+ *
+ * @param <T> lifecycle type
+ */
+public class LogStateStorage<T> implements StateStorage<T> {
+
+    private final LifecycleMarshaller<T> lifecycleMarshaller;
+    private final SegmentLog log;
+    private final ConcurrentSkipListMap<RowKey<T>, LogRow> index = new ConcurrentSkipListMap<>();
+    private final ConcurrentSkipListMap<RowKey<T>, LogRow> unsynced = new ConcurrentSkipListMap<>(); // appended but not yet durable
+    private long versions; // guarded by log
+
+    /**
+     * @param compactor runs checkpoints in the background, or null to run them on the writing thread
+     */
+    public LogStateStorage(File directory,
+        LifecycleMarshaller<T> lifecycleMarshaller,
+        long maxSegmentBytes,
+        boolean fsync,
+        ExecutorService compactor) throws Exception {
+
+        this.lifecycleMarshaller = lifecycleMarshaller;
+        // unsynced first, so a row which becomes durable while the checkpoint is written is still found in the index
+        this.log = new SegmentLog(directory, maxSegmentBytes, fsync, compactor, stream -> rows(unsynced, stream) && rows(index, stream));
+        synchronized (log) {
+            log.open((root, ack, lifecycleBytes, state, timestamp, version) -> {
+                RowKey<T> key = new RowKey<>(new Member(root), lifecycleBytes, lifecycleMarshaller.fromBytes(new AquaBuffer(lifecycleBytes)), new Member(ack));
+                index.merge(key, new LogRow(state, timestamp, version), LogRow::winner);
+                versions = Math.max(versions, version);
+                return true;
+            });
+        }
+    }
+
+    @Override
+    public boolean scan(Member rootMember, Member otherMember, T lifecycle, StateStream<T> stream) throws Exception {
+        byte[] lifecycleBytes = lifecycle != null ? lifecycleMarshaller.toBytes(lifecycle) : null;
+        Iterable<Map.Entry<RowKey<T>, LogRow>> entries = rootMember == null
+            ? index.entrySet()
+            : index.tailMap(new RowKey<>(rootMember, lifecycleBytes, null, otherMember)).entrySet();
+        for (Map.Entry<RowKey<T>, LogRow> entry : entries) {
+            RowKey<T> key = entry.getKey();
+            if (rootMember != null && !rootMember.equals(key.rootMember)) {
+                break;
+            }
+            if (lifecycleBytes != null && !key.sameLifecycle(lifecycleBytes)) {
+                if (rootMember != null) {
+                    break;
+                }
+                continue;
+            }
+            LogRow row = entry.getValue();
+            if (!stream.stream(key.rootMember, key.isSelf, key.ackMember, key.lifecycle, State.fromSerializedForm(row.state), row.timestamp, row.version)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean update(StateUpdates<T> updates) throws Exception {
+        long[] position = { -1 };
+        List<Map.Entry<RowKey<T>, LogRow>> appended = Lists.newArrayList();
+        boolean result;
+        boolean durable = false;
+        try {
+            result = updates.updates((rootMember, otherMember, lifecycle, state, timestamp) -> {
+                byte[] lifecycleBytes = lifecycleMarshaller.toBytes(lifecycle);
+                RowKey<T> key = new RowKey<>(rootMember, lifecycleBytes, lifecycle, otherMember);
+                synchronized (log) {
+                    LogRow existing = unsynced.get(key);
+                    if (existing == null) {
+                        existing = index.get(key);
+                    }
+                    long version = ++versions;
+                    if (existing == null || existing.loses(timestamp, version)) {
+                        byte serializedState = state.getSerializedForm();
+                        position[0] = log.append(rootMember.getMember(), otherMember.getMember(), lifecycleBytes, serializedState, timestamp, version);
+                        LogRow row = new LogRow(serializedState, timestamp, version);
+                        unsynced.put(key, row);
+                        appended.add(Maps.immutableEntry(key, row));
+                    }
+                }
+                return true;
+            });
+            if (position[0] != -1) {
+                log.sync(position[0]);
+            }
+            durable = true;
+        } finally {
+            // reads only see durable rows, and a concurrent update may have made a newer row durable first, while a row
+            // which failed to sync must not shadow later writes
+            for (Map.Entry<RowKey<T>, LogRow> entry : appended) {
+                if (durable) {
+                    index.merge(entry.getKey(), entry.getValue(), LogRow::winner);
+                }
+                unsynced.remove(entry.getKey(), entry.getValue());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Writes a checkpoint of the current rows and drops the log segments it covers.
+     */
+    public void compact() throws Exception {
+        log.compact();
+    }
+
+    public void close() throws Exception {
+        log.close();
+    }
+
+    private static <T> boolean rows(Map<RowKey<T>, LogRow> rows, SegmentLog.RecordStream stream) throws Exception {
+        for (Map.Entry<RowKey<T>, LogRow> entry : rows.entrySet()) {
+            RowKey<T> key = entry.getKey();
+            LogRow row = entry.getValue();
+            if (!stream.stream(key.rootMember.getMember(), key.ackMember.getMember(), key.lifecycleBytes, row.state, row.timestamp, row.version)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
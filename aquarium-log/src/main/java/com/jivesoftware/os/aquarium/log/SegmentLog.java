@@ -0,0 +1,363 @@
+package com.jivesoftware.os.aquarium.log;
+
+import com.jivesoftware.os.mlogger.core.MetricLogger;
+import com.jivesoftware.os.mlogger.core.MetricLoggerFactory;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.zip.CRC32;
+
+/**
+ * An append only log of rows split into segment files, plus checkpoints which hold every winning row as of the start of a
+ * segment. Appends are buffered in memory and made durable by {@link #sync}, which writes and forces everything appended so
+ * far, so concurrent writers waiting on the same sync share one fsync. When the active segment is full a new one is started
+ * and a checkpoint is written from the caller's in memory rows, after which every older segment and checkpoint is deleted.
+ * Recovery replays the newest checkpoint and then the segments which follow it.
+ * <p>
+ * Should a sync fail the log is failed: every sync still waiting and every later append or sync throws, since a record torn by
+ * the failure would end replay before anything written after it. Reopen the log to recover its durable records.
+ *
+ * Record layout: body length (4) | crc32 of body (4) | root (2 + n) | ack (2 + n) | lifecycle (2 + n) | state (1)
+ * | timestamp (8) | version (8)
+ */
+class SegmentLog {
+
+    private static final MetricLogger LOG = MetricLoggerFactory.getLogger();
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String CHECKPOINT_PREFIX = "checkpoint-";
+
+    private final File directory;
+    private final long maxSegmentBytes;
+    private final boolean fsync;
+    private final ExecutorService compactor;
+    private final Rows rows;
+
+    private final Object syncLock = new Object();
+    private final Object compactLock = new Object();
+    private final CRC32 appendCrc = new CRC32();
+
+    private ByteBuffer pending = ByteBuffer.allocate(64 * 1024); // guarded by this
+    private ByteBuffer spare = ByteBuffer.allocate(64 * 1024); // guarded by this
+    private long appended; // guarded by this
+    private volatile long durable;
+    private volatile Exception failure;
+
+    private FileChannel segment; // guarded by syncLock
+    private long segmentId; // guarded by syncLock
+    private long segmentBytes; // guarded by syncLock
+
+    /**
+     * @param rows streams every winning row, used to write checkpoints
+     * @param compactor runs checkpoints in the background, or null to run them on the thread which rolled the segment
+     */
+    SegmentLog(File directory, long maxSegmentBytes, boolean fsync, ExecutorService compactor, Rows rows) {
+        this.directory = directory;
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.fsync = fsync;
+        this.compactor = compactor;
+        this.rows = rows;
+    }
+
+    /**
+     * Replays the newest checkpoint and the segments which follow it, then starts a new segment for appends.
+     */
+    void open(RecordStream stream) throws Exception {
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Failed to create " + directory);
+        }
+        long checkpointId = -1;
+        long lastSegmentId = -1;
+        long[] segmentIds = ids(SEGMENT_PREFIX);
+        long[] checkpointIds = ids(CHECKPOINT_PREFIX);
+        if (checkpointIds.length > 0) {
+            checkpointId = checkpointIds[checkpointIds.length - 1];
+            replay(file(CHECKPOINT_PREFIX, checkpointId), stream);
+        }
+        for (long id : segmentIds) {
+            if (id >= checkpointId) {
+                replay(file(SEGMENT_PREFIX, id), stream);
+            }
+            lastSegmentId = id;
+        }
+        synchronized (syncLock) {
+            segmentId = Math.max(lastSegmentId + 1, checkpointId);
+            segment = FileChannel.open(file(SEGMENT_PREFIX, segmentId).toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            segmentBytes = 0;
+        }
+        deleteBefore(checkpointId);
+    }
+
+    /**
+     * Buffers a record. The caller serializes appends by holding this log's monitor and must {@link #sync} the returned
+     * position before reporting the write as durable.
+     */
+    synchronized long append(byte[] root, byte[] ack, byte[] lifecycle, byte state, long timestamp, long version) {
+        if (failure != null) {
+            throw new IllegalStateException("Log " + directory + " has failed", failure);
+        }
+        int length = recordLength(root, ack, lifecycle); // validates before anything is buffered
+        if (pending.remaining() < length) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + length));
+            pending.flip();
+            grown.put(pending);
+            pending = grown;
+        }
+        writeRecord(pending, appendCrc, root, ack, lifecycle, state, timestamp, version);
+        appended += length;
+        return appended;
+    }
+
+    /**
+     * Blocks until everything appended up to the given position has been written, and forced if this log fsyncs.
+     *
+     * @throws IOException if the log has failed before the position was durable
+     */
+    void sync(long position) throws Exception {
+        if (durable >= position) {
+            return;
+        }
+        synchronized (syncLock) {
+            if (durable >= position) {
+                return;
+            }
+            if (failure != null) {
+                throw new IOException("Log " + directory + " has failed", failure);
+            }
+            ByteBuffer flushing;
+            long target;
+            synchronized (this) {
+                flushing = pending;
+                pending = spare;
+                target = appended;
+            }
+            try {
+                flushing.flip();
+                if (segmentBytes > 0 && segmentBytes + flushing.remaining() > maxSegmentBytes) {
+                    long keepFrom = roll();
+                    if (compactor != null) {
+                        compactor.submit(() -> {
+                            try {
+                                checkpoint(keepFrom);
+                            } catch (Exception x) {
+                                LOG.error("Failed to checkpoint {} before segment {}", new Object[] { directory, keepFrom }, x);
+                            }
+                        });
+                    } else {
+                        checkpoint(keepFrom);
+                    }
+                }
+                segmentBytes += flushing.remaining();
+                while (flushing.hasRemaining()) {
+                    segment.write(flushing);
+                }
+                if (fsync) {
+                    segment.force(false);
+                }
+            } catch (Exception x) {
+                failure = x;
+                throw x;
+            } finally {
+                flushing.clear();
+                synchronized (this) {
+                    spare = flushing;
+                }
+            }
+            durable = target;
+        }
+    }
+
+    void close() throws Exception {
+        long position;
+        synchronized (this) {
+            position = appended;
+        }
+        try {
+            if (failure == null) { // a failed log already failed everything it held
+                sync(position);
+            }
+        } finally {
+            synchronized (syncLock) {
+                if (segment.isOpen()) {
+                    if (failure == null) {
+                        segment.force(true);
+                    }
+                    segment.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes a checkpoint holding every winning row and deletes the segments it covers. Rows appended to the active segment
+     * while the checkpoint is written may or may not be included; either way they are replayed again from the segment.
+     */
+    void compact() throws Exception {
+        long keepFrom;
+        synchronized (syncLock) {
+            keepFrom = roll();
+        }
+        checkpoint(keepFrom);
+    }
+
+    /**
+     * Starts a new segment. Every row in the older segments was applied in memory before it was appended, so a checkpoint
+     * taken from now on covers them.
+     */
+    private long roll() throws IOException {
+        segment.force(true);
+        segment.close();
+        segmentId++;
+        segment = FileChannel.open(file(SEGMENT_PREFIX, segmentId).toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        segmentBytes = 0;
+        return segmentId;
+    }
+
+    private void checkpoint(long keepFrom) throws Exception {
+        synchronized (compactLock) {
+            File checkpoint = file(CHECKPOINT_PREFIX, keepFrom);
+            if (checkpoint.exists()) {
+                return;
+            }
+            File tmp = new File(directory, checkpoint.getName() + ".tmp");
+            try (FileChannel channel = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+                CRC32 crc = new CRC32();
+                ByteBuffer[] holder = { buffer };
+                rows.rows((root, ack, lifecycle, state, timestamp, version) -> {
+                    int length = recordLength(root, ack, lifecycle);
+                    if (holder[0].remaining() < length) {
+                        drain(channel, holder[0]);
+                        if (holder[0].capacity() < length) {
+                            holder[0] = ByteBuffer.allocate(length);
+                        }
+                    }
+                    writeRecord(holder[0], crc, root, ack, lifecycle, state, timestamp, version);
+                    return true;
+                });
+                drain(channel, holder[0]);
+                channel.force(true);
+            }
+            Files.move(tmp.toPath(), checkpoint.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            deleteBefore(keepFrom);
+        }
+    }
+
+    private void deleteBefore(long id) throws IOException {
+        for (long segmentIdToDelete : ids(SEGMENT_PREFIX)) {
+            if (segmentIdToDelete < id) {
+                Files.deleteIfExists(file(SEGMENT_PREFIX, segmentIdToDelete).toPath());
+            }
+        }
+        for (long checkpointId : ids(CHECKPOINT_PREFIX)) {
+            if (checkpointId < id) {
+                Files.deleteIfExists(file(CHECKPOINT_PREFIX, checkpointId).toPath());
+            }
+        }
+    }
+
+    private File file(String prefix, long id) {
+        return new File(directory, prefix + id);
+    }
+
+    private long[] ids(String prefix) {
+        String[] names = directory.list();
+        if (names == null) {
+            return new long[0];
+        }
+        return Arrays.stream(names)
+            .filter(name -> name.startsWith(prefix) && !name.endsWith(".tmp"))
+            .mapToLong(name -> Long.parseLong(name.substring(prefix.length())))
+            .sorted()
+            .toArray();
+    }
+
+    /**
+     * Streams every intact record of the given file. A torn or corrupt record ends the file, since nothing after it was
+     * acknowledged as durable.
+     */
+    private static void replay(File file, RecordStream stream) throws Exception {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+        CRC32 crc = new CRC32();
+        while (buffer.remaining() >= 8) {
+            int length = buffer.getInt();
+            int checksum = buffer.getInt();
+            if (length < 0 || length > buffer.remaining()) {
+                break;
+            }
+            crc.reset();
+            crc.update(buffer.array(), buffer.position(), length);
+            if ((int) crc.getValue() != checksum) {
+                LOG.warn("Ignoring corrupt tail of {} at {}", file, buffer.position() - 8);
+                break;
+            }
+            byte[] root = readBytes(buffer);
+            byte[] ack = readBytes(buffer);
+            byte[] lifecycle = readBytes(buffer);
+            byte state = buffer.get();
+            long timestamp = buffer.getLong();
+            long version = buffer.getLong();
+            stream.stream(root, ack, lifecycle, state, timestamp, version);
+        }
+    }
+
+    private static void drain(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private static int recordLength(byte[] root, byte[] ack, byte[] lifecycle) {
+        if (root.length > 0xFFFF || ack.length > 0xFFFF || lifecycle.length > 0xFFFF) {
+            throw new IllegalArgumentException("Members and lifecycles are limited to " + 0xFFFF + " bytes");
+        }
+        return 8 + 2 + root.length + 2 + ack.length + 2 + lifecycle.length + 1 + 8 + 8;
+    }
+
+    private static void writeRecord(ByteBuffer buffer, CRC32 crc, byte[] root, byte[] ack, byte[] lifecycle, byte state, long timestamp,
+        long version) {
+        int start = buffer.position();
+        buffer.position(start + 8);
+        writeBytes(buffer, root);
+        writeBytes(buffer, ack);
+        writeBytes(buffer, lifecycle);
+        buffer.put(state);
+        buffer.putLong(timestamp);
+        buffer.putLong(version);
+        int length = buffer.position() - start - 8;
+        crc.reset();
+        crc.update(buffer.array(), start + 8, length);
+        buffer.putInt(start, length);
+        buffer.putInt(start + 4, (int) crc.getValue());
+    }
+
+    private static void writeBytes(ByteBuffer buffer, byte[] bytes) {
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static byte[] readBytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    interface RecordStream {
+
+        boolean stream(byte[] root, byte[] ack, byte[] lifecycle, byte state, long timestamp, long version) throws Exception;
+    }
+
+    interface Rows {
+
+        boolean rows(RecordStream stream) throws Exception;
+    }
+}
@@ -0,0 +1,122 @@
+package com.jivesoftware.os.aquarium.log;
+
+import com.google.common.collect.Lists;
+import com.google.common.primitives.Ints;
+import com.jivesoftware.os.aquarium.Member;
+import com.jivesoftware.os.aquarium.State;
+import com.jivesoftware.os.aquarium.StorageTestUtil;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ *
+ */
+public class LogStorageNGTest {
+
+    private final Member a = new Member(Ints.toByteArray(1));
+    private final Member b = new Member(Ints.toByteArray(2));
+
+    @Test
+    public void testStateStorageRecovers() throws Exception {
+        File directory = Files.createTempDirectory("log").toFile();
+        LogStateStorage<Integer> storage = new LogStateStorage<>(directory, StorageTestUtil.LIFECYCLE_MARSHALLER, 1024 * 1024, true, null);
+        storage.update(setState -> {
+            setState.set(b, a, 1, State.follower, 10);
+            setState.set(b, b, 1, State.follower, 10);
+            setState.set(a, a, 2, State.nominated, 20);
+            setState.set(a, a, 1, State.leader, 10);
+            return true;
+        });
+        storage.update(setState -> {
+            setState.set(a, a, 1, State.follower, 9); // older timestamp loses
+            setState.set(b, a, 1, State.leader, 10); // same timestamp, newer version wins
+            return true;
+        });
+        List<String> expected = Lists.newArrayList("1:true:1:2:nominated:20",
+            "1:true:1:1:leader:10",
+            "2:true:2:1:follower:10",
+            "2:false:1:1:leader:10");
+        Assert.assertEquals(StorageTestUtil.scan(storage, null, null), expected);
+        Assert.assertEquals(StorageTestUtil.scan(storage, a, 1), expected.subList(1, 2));
+        storage.close();
+
+        // a torn write at the tail is ignored on recovery
+        File[] segments = directory.listFiles((dir, name) -> name.startsWith("segment-"));
+        Arrays.sort(segments);
+        try (FileOutputStream out = new FileOutputStream(segments[segments.length - 1], true)) {
+            out.write(new byte[] { 0, 0, 0, 42, 1, 2, 3 });
+        }
+
+        LogStateStorage<Integer> reopened = new LogStateStorage<>(directory, StorageTestUtil.LIFECYCLE_MARSHALLER, 1024 * 1024, true, null);
+        Assert.assertEquals(StorageTestUtil.scan(reopened, null, null), expected);
+        reopened.update(setState -> setState.set(b, b, 1, State.leader, 10)); // versions resume above the recovered rows
+        Assert.assertEquals(StorageTestUtil.scan(reopened, b, 1).get(0), "2:true:2:1:leader:10");
+        reopened.close();
+    }
+
+    @Test
+    public void testCompaction() throws Exception {
+        File directory = Files.createTempDirectory("log").toFile();
+        LogLivelinessStorage storage = new LogLivelinessStorage(directory, 256, false, null);
+        for (int i = 0; i < 100; i++) {
+            long timestamp = i;
+            storage.update(setLiveliness -> {
+                setLiveliness.set(a, a, timestamp);
+                setLiveliness.set(a, b, timestamp);
+                return true;
+            });
+        }
+        storage.compact();
+        storage.close();
+
+        Assert.assertEquals(directory.list((dir, name) -> name.startsWith("checkpoint-")).length, 1);
+        Assert.assertTrue(directory.list((dir, name) -> name.startsWith("segment-")).length <= 2);
+
+        LogLivelinessStorage reopened = new LogLivelinessStorage(directory, 256, false, null);
+        Assert.assertEquals(reopened.get(a, a), 99);
+        Assert.assertEquals(reopened.get(a, b), 99);
+        Assert.assertEquals(reopened.get(b, a), -1);
+        reopened.close();
+    }
+
+    @Test
+    public void testFailedSyncFailsTheLog() throws Exception {
+        File directory = Files.createTempDirectory("log").toFile();
+        LogStateStorage<Integer> storage = new LogStateStorage<>(directory, StorageTestUtil.LIFECYCLE_MARSHALLER, 1, true, null);
+        storage.update(setState -> setState.set(a, a, 1, State.follower, 10));
+
+        // the next sync rolls the segment, which fails to open while the directory is gone
+        File moved = new File(directory.getParentFile(), directory.getName() + "-moved");
+        Assert.assertTrue(directory.renameTo(moved));
+        try {
+            storage.update(setState -> setState.set(a, a, 1, State.leader, 20));
+            Assert.fail();
+        } catch (IOException x) {
+            // expected
+        }
+        Assert.assertTrue(moved.renameTo(directory));
+        Assert.assertEquals(StorageTestUtil.scan(storage, null, null), Arrays.asList("1:true:1:1:follower:10"), "a failed write is never visible");
+
+        try {
+            storage.update(setState -> setState.set(a, a, 1, State.nominated, 15));
+            Assert.fail();
+        } catch (IllegalStateException x) {
+            // expected, the failed log refuses writes until reopened
+        }
+        Assert.assertEquals(StorageTestUtil.scan(storage, null, null), Arrays.asList("1:true:1:1:follower:10"));
+        storage.close();
+
+        LogStateStorage<Integer> reopened = new LogStateStorage<>(directory, StorageTestUtil.LIFECYCLE_MARSHALLER, 1, true, null);
+        Assert.assertEquals(StorageTestUtil.scan(reopened, null, null), Arrays.asList("1:true:1:1:follower:10"));
+        reopened.update(setState -> setState.set(a, a, 1, State.nominated, 15));
+        Assert.assertEquals(StorageTestUtil.scan(reopened, null, null), Arrays.asList("1:true:1:1:nominated:15"),
+            "the failed write does not shadow a later one");
+        reopened.close();
+    }
+}
@@ -0,0 +1,153 @@
+package com.jivesoftware.os.aquarium.mmap;
+
+import com.jivesoftware.os.aquarium.Member;
+import com.jivesoftware.os.aquarium.RowKey;
+import com.jivesoftware.os.aquarium.interfaces.LivelinessStorage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link LivelinessStorage} whose rows live off heap in a memory mapped file, one fixed width slot per (root, ack).
+ *
+ * Slot layout: committed (1) | root (2 + maxMemberLength) | ack (2 + maxMemberLength) | timestamp (8) | version (8)
+ */
+public class MmapLivelinessStorage implements LivelinessStorage {
+
+    private final MmapSlots slots;
+    private final int maxMemberLength;
+    private final int ackOffset;
+    private final int timestampOffset;
+    private final int versionOffset;
+
+    private final ConcurrentSkipListMap<RowKey<Void>, Integer> index = new ConcurrentSkipListMap<>();
+    private final AtomicLong versions = new AtomicLong();
+
+    public MmapLivelinessStorage(File file, int maxMemberLength, int slotsPerSegment) throws IOException {
+        if (maxMemberLength > 0xFFFF) {
+            throw new IllegalArgumentException("Member lengths are limited to " + 0xFFFF + " bytes");
+        }
+        this.maxMemberLength = maxMemberLength;
+        this.ackOffset = 1 + MmapSlots.bytesLength(maxMemberLength);
+        this.timestampOffset = ackOffset + MmapSlots.bytesLength(maxMemberLength);
+        this.versionOffset = timestampOffset + 8;
+        this.slots = new MmapSlots(file, versionOffset + 8, slotsPerSegment);
+
+        long maxVersion = 0;
+        for (int slot = 0; slot < slots.count(); slot++) {
+            ByteBuffer buffer = slots.buffer(slot);
+            int offset = slots.offset(slot);
+            index.put(RowKey.liveliness(MmapSlots.getMember(buffer, offset + 1), MmapSlots.getMember(buffer, offset + ackOffset)), slot);
+            maxVersion = Math.max(maxVersion, buffer.getLong(offset + versionOffset));
+        }
+        versions.set(maxVersion);
+    }
+
+    @Override
+    public boolean scan(Member rootMember, Member otherMember, LivelinessStream stream) throws Exception {
+        Iterable<Map.Entry<RowKey<Void>, Integer>> entries = rootMember == null
+            ? index.entrySet()
+            : index.tailMap(RowKey.liveliness(rootMember, otherMember)).entrySet();
+        for (Map.Entry<RowKey<Void>, Integer> entry : entries) {
+            RowKey<Void> key = entry.getKey();
+            if (rootMember != null && !rootMember.equals(key.rootMember)) {
+                break;
+            }
+
+            int slot = entry.getValue();
+            ByteBuffer buffer = slots.buffer(slot);
+            int offset = slots.offset(slot);
+            long timestamp;
+            long version;
+            long seq;
+            do {
+                seq = slots.beginRead(slot);
+                timestamp = buffer.getLong(offset + timestampOffset);
+                version = buffer.getLong(offset + versionOffset);
+            } while (!slots.validate(slot, seq));
+
+            if (!stream.stream(key.rootMember, key.isSelf, key.ackMember, timestamp, version)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean update(LivelinessUpdates updates) throws Exception {
+        return updates.updates((rootMember, otherMember, timestamp) -> {
+            RowKey<Void> key = RowKey.liveliness(rootMember, otherMember);
+            long version = versions.incrementAndGet();
+            Integer slot = index.get(key);
+            if (slot == null && (slot = allocate(key, timestamp, version)) == null) {
+                return true;
+            }
+
+            ByteBuffer buffer = slots.buffer(slot);
+            int offset = slots.offset(slot);
+            long seq = slots.beginWrite(slot);
+            try {
+                long existingTimestamp = buffer.getLong(offset + timestampOffset);
+                long existingVersion = buffer.getLong(offset + versionOffset);
+                if (existingTimestamp < timestamp || (existingTimestamp == timestamp && existingVersion < version)) {
+                    buffer.putLong(offset + timestampOffset, timestamp);
+                    buffer.putLong(offset + versionOffset, version);
+                }
+            } finally {
+                slots.endWrite(slot, seq);
+            }
+            return true;
+        });
+    }
+
+    @Override
+    public long get(Member rootMember, Member otherMember) throws Exception {
+        Integer slot = index.get(RowKey.liveliness(rootMember, otherMember));
+        if (slot == null) {
+            return -1;
+        }
+        ByteBuffer buffer = slots.buffer(slot);
+        int offset = slots.offset(slot);
+        long timestamp;
+        long seq;
+        do {
+            seq = slots.beginRead(slot);
+            timestamp = buffer.getLong(offset + timestampOffset);
+        } while (!slots.validate(slot, seq));
+        return timestamp;
+    }
+
+    public void flush() {
+        slots.flush();
+    }
+
+    public void close() throws IOException {
+        slots.close();
+    }
+
+    /**
+     * @return null if the slot was allocated and written with the given row, otherwise the slot a concurrent writer allocated
+     */
+    private synchronized Integer allocate(RowKey<Void> key, long timestamp, long version) throws IOException {
+        Integer existing = index.get(key);
+        if (existing != null) {
+            return existing;
+        }
+        // validate before allocating so a failed write cannot leave an uncommitted slot behind
+        MmapSlots.checkLength(key.rootMember.getMember(), maxMemberLength);
+        MmapSlots.checkLength(key.ackMember.getMember(), maxMemberLength);
+        int slot = slots.allocate();
+        ByteBuffer buffer = slots.buffer(slot);
+        int offset = slots.offset(slot);
+        MmapSlots.putMember(buffer, offset + 1, key.rootMember, maxMemberLength);
+        MmapSlots.putMember(buffer, offset + ackOffset, key.ackMember, maxMemberLength);
+        buffer.putLong(offset + timestampOffset, timestamp);
+        buffer.putLong(offset + versionOffset, version);
+        slots.commit(slot);
+        index.put(key, slot);
+        return null;
+    }
+}
@@ -0,0 +1,173 @@
+package com.jivesoftware.os.aquarium.mmap;
+
+import com.jivesoftware.os.aquarium.Member;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A file of fixed width slots mapped in fixed size segments. The first byte of every slot is its committed flag, which is
+ * written last when a slot is allocated so a reopened file only sees fully written slots. Each slot is guarded by a sequence
+ * lock held on heap: writers CAS the sequence odd while they write and even again when done, and readers retry until they
+ * read the same even sequence before and after.
+ */
+class MmapSlots {
+
+    private static final byte COMMITTED = 1;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final int slotBytes;
+    private final int slotsPerSegment;
+
+    private volatile MappedByteBuffer[] segments;
+    private volatile AtomicLongArray[] sequences;
+    private volatile int count;
+
+    MmapSlots(File file, int slotBytes, int slotsPerSegment) throws IOException {
+        if ((long) slotBytes * slotsPerSegment > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Segment of " + slotsPerSegment + " slots of " + slotBytes + " bytes is too large");
+        }
+        this.file = new RandomAccessFile(file, "rw");
+        this.channel = this.file.getChannel();
+        this.slotBytes = slotBytes;
+        this.slotsPerSegment = slotsPerSegment;
+
+        long segmentBytes = (long) slotBytes * slotsPerSegment;
+        int existing = (int) ((channel.size() + segmentBytes - 1) / segmentBytes);
+        this.segments = new MappedByteBuffer[0];
+        this.sequences = new AtomicLongArray[0];
+        for (int i = 0; i < existing; i++) {
+            grow();
+        }
+
+        int committed = 0;
+        while (committed < existing * slotsPerSegment && buffer(committed).get(offset(committed)) == COMMITTED) {
+            committed++;
+        }
+        this.count = committed;
+    }
+
+    int count() {
+        return count;
+    }
+
+    /**
+     * Allocates the next slot. The caller writes the slot and then calls {@link #commit} before publishing it to readers.
+     */
+    synchronized int allocate() throws IOException {
+        int slot = count;
+        if (slot / slotsPerSegment >= segments.length) {
+            grow();
+        }
+        count = slot + 1;
+        return slot;
+    }
+
+    void commit(int slot) {
+        buffer(slot).put(offset(slot), COMMITTED);
+    }
+
+    ByteBuffer buffer(int slot) {
+        return segments[slot / slotsPerSegment];
+    }
+
+    int offset(int slot) {
+        return (slot % slotsPerSegment) * slotBytes;
+    }
+
+    long beginWrite(int slot) {
+        AtomicLongArray sequence = sequences[slot / slotsPerSegment];
+        int i = slot % slotsPerSegment;
+        while (true) {
+            long seq = sequence.get(i);
+            if ((seq & 1) == 0 && sequence.compareAndSet(i, seq, seq + 1)) {
+                return seq + 1;
+            }
+            Thread.yield();
+        }
+    }
+
+    void endWrite(int slot, long seq) {
+        sequences[slot / slotsPerSegment].set(slot % slotsPerSegment, seq + 1);
+    }
+
+    long beginRead(int slot) {
+        AtomicLongArray sequence = sequences[slot / slotsPerSegment];
+        int i = slot % slotsPerSegment;
+        while (true) {
+            long seq = sequence.get(i);
+            if ((seq & 1) == 0) {
+                return seq;
+            }
+            Thread.yield();
+        }
+    }
+
+    boolean validate(int slot, long seq) {
+        return sequences[slot / slotsPerSegment].get(slot % slotsPerSegment) == seq;
+    }
+
+    void flush() {
+        for (MappedByteBuffer segment : segments) {
+            segment.force();
+        }
+    }
+
+    void close() throws IOException {
+        flush();
+        channel.close();
+        file.close();
+    }
+
+    private void grow() throws IOException {
+        int index = segments.length;
+        long segmentBytes = (long) slotBytes * slotsPerSegment;
+        MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_WRITE, index * segmentBytes, segmentBytes);
+        MappedByteBuffer[] grownSegments = Arrays.copyOf(segments, index + 1);
+        grownSegments[index] = segment;
+        AtomicLongArray[] grownSequences = Arrays.copyOf(sequences, index + 1);
+        grownSequences[index] = new AtomicLongArray(slotsPerSegment);
+        sequences = grownSequences;
+        segments = grownSegments;
+    }
+
+    static int bytesLength(int maxLength) {
+        return 2 + maxLength;
+    }
+
+    static void checkLength(byte[] bytes, int maxLength) {
+        if (bytes.length > maxLength) {
+            throw new IllegalArgumentException("Length " + bytes.length + " exceeds the configured maximum of " + maxLength);
+        }
+    }
+
+    static void putBytes(ByteBuffer buffer, int offset, byte[] bytes, int maxLength) {
+        checkLength(bytes, maxLength);
+        buffer.putShort(offset, (short) bytes.length);
+        for (int i = 0; i < bytes.length; i++) {
+            buffer.put(offset + 2 + i, bytes[i]);
+        }
+    }
+
+    static byte[] getBytes(ByteBuffer buffer, int offset) {
+        byte[] bytes = new byte[buffer.getShort(offset) & 0xFFFF];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(offset + 2 + i);
+        }
+        return bytes;
+    }
+
+    static void putMember(ByteBuffer buffer, int offset, Member member, int maxLength) {
+        putBytes(buffer, offset, member.getMember(), maxLength);
+    }
+
+    static Member getMember(ByteBuffer buffer, int offset) {
+        return new Member(getBytes(buffer, offset));
+    }
+}
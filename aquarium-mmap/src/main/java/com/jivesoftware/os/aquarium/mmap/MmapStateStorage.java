@@ -0,0 +1,176 @@
+package com.jivesoftware.os.aquarium.mmap;
+
+import com.jivesoftware.os.aquarium.Member;
+import com.jivesoftware.os.aquarium.RowKey;
+import com.jivesoftware.os.aquarium.State;
+import com.jivesoftware.os.aquarium.interfaces.AquaBuffer;
+import com.jivesoftware.os.aquarium.interfaces.LifecycleMarshaller;
+import com.jivesoftware.os.aquarium.interfaces.StateStorage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link StateStorage} whose rows live off heap in a memory mapped file, one fixed width slot per (root, lifecycle, ack).
+ * Only the sorted slot keys are kept on heap; state, timestamp and version are read and written in place under the slot's
+ * sequence lock, so no row is copied onto the heap. Each update, and each scan filtered by lifecycle, still marshals the
+ * lifecycle and allocates a key to look up its slot.
+ *
+ * Slot layout: committed (1) | root (2 + maxMemberLength) | ack (2 + maxMemberLength) | lifecycle (2 + maxLifecycleLength)
+ * | state (1) | timestamp (8) | version (8)
+ *
+ * @param <T> lifecycle type
+ */
+public class MmapStateStorage<T> implements StateStorage<T> {
+
+    private final MmapSlots slots;
+    private final LifecycleMarshaller<T> lifecycleMarshaller;
+    private final int maxMemberLength;
+    private final int maxLifecycleLength;
+    private final int ackOffset;
+    private final int lifecycleOffset;
+    private final int stateOffset;
+    private final int timestampOffset;
+    private final int versionOffset;
+
+    private final ConcurrentSkipListMap<RowKey<T>, Integer> index = new ConcurrentSkipListMap<>();
+    private final AtomicLong versions = new AtomicLong();
+
+    public MmapStateStorage(File file,
+        LifecycleMarshaller<T> lifecycleMarshaller,
+        int maxMemberLength,
+        int maxLifecycleLength,
+        int slotsPerSegment) throws Exception {
+
+        if (maxMemberLength > 0xFFFF || maxLifecycleLength > 0xFFFF) {
+            throw new IllegalArgumentException("Member and lifecycle lengths are limited to " + 0xFFFF + " bytes");
+        }
+        this.lifecycleMarshaller = lifecycleMarshaller;
+        this.maxMemberLength = maxMemberLength;
+        this.maxLifecycleLength = maxLifecycleLength;
+        this.ackOffset = 1 + MmapSlots.bytesLength(maxMemberLength);
+        this.lifecycleOffset = ackOffset + MmapSlots.bytesLength(maxMemberLength);
+        this.stateOffset = lifecycleOffset + MmapSlots.bytesLength(maxLifecycleLength);
+        this.timestampOffset = stateOffset + 1;
+        this.versionOffset = timestampOffset + 8;
+        this.slots = new MmapSlots(file, versionOffset + 8, slotsPerSegment);
+
+        long maxVersion = 0;
+        for (int slot = 0; slot < slots.count(); slot++) {
+            ByteBuffer buffer = slots.buffer(slot);
+            int offset = slots.offset(slot);
+            byte[] lifecycleBytes = MmapSlots.getBytes(buffer, offset + lifecycleOffset);
+            index.put(new RowKey<>(MmapSlots.getMember(buffer, offset + 1),
+                lifecycleBytes,
+                lifecycleMarshaller.fromBytes(new AquaBuffer(lifecycleBytes)),
+                MmapSlots.getMember(buffer, offset + ackOffset)), slot);
+            maxVersion = Math.max(maxVersion, buffer.getLong(offset + versionOffset));
+        }
+        versions.set(maxVersion);
+    }
+
+    @Override
+    public boolean scan(Member rootMember, Member otherMember, T lifecycle, StateStream<T> stream) throws Exception {
+        byte[] lifecycleBytes = lifecycle != null ? lifecycleMarshaller.toBytes(lifecycle) : null;
+        Iterable<Map.Entry<RowKey<T>, Integer>> entries = rootMember == null
+            ? index.entrySet()
+            : index.tailMap(new RowKey<>(rootMember, lifecycleBytes, null, otherMember)).entrySet();
+        for (Map.Entry<RowKey<T>, Integer> entry : entries) {
+            RowKey<T> key = entry.getKey();
+            if (rootMember != null && !rootMember.equals(key.rootMember)) {
+                break;
+            }
+            if (lifecycleBytes != null && !key.sameLifecycle(lifecycleBytes)) {
+                if (rootMember != null) {
+                    break;
+                }
+                continue;
+            }
+
+            int slot = entry.getValue();
+            ByteBuffer buffer = slots.buffer(slot);
+            int offset = slots.offset(slot);
+            byte state;
+            long timestamp;
+            long version;
+            long seq;
+            do {
+                seq = slots.beginRead(slot);
+                state = buffer.get(offset + stateOffset);
+                timestamp = buffer.getLong(offset + timestampOffset);
+                version = buffer.getLong(offset + versionOffset);
+            } while (!slots.validate(slot, seq));
+
+            if (!stream.stream(key.rootMember, key.isSelf, key.ackMember, key.lifecycle, State.fromSerializedForm(state), timestamp, version)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean update(StateUpdates<T> updates) throws Exception {
+        return updates.updates((rootMember, otherMember, lifecycle, state, timestamp) -> {
+            byte[] lifecycleBytes = lifecycleMarshaller.toBytes(lifecycle);
+            RowKey<T> key = new RowKey<>(rootMember, lifecycleBytes, lifecycle, otherMember);
+            long version = versions.incrementAndGet();
+            Integer slot = index.get(key);
+            if (slot == null && (slot = allocate(key, state, timestamp, version)) == null) {
+                return true;
+            }
+
+            ByteBuffer buffer = slots.buffer(slot);
+            int offset = slots.offset(slot);
+            long seq = slots.beginWrite(slot);
+            try {
+                long existingTimestamp = buffer.getLong(offset + timestampOffset);
+                long existingVersion = buffer.getLong(offset + versionOffset);
+                if (existingTimestamp < timestamp || (existingTimestamp == timestamp && existingVersion < version)) {
+                    buffer.put(offset + stateOffset, state.getSerializedForm());
+                    buffer.putLong(offset + timestampOffset, timestamp);
+                    buffer.putLong(offset + versionOffset, version);
+                }
+            } finally {
+                slots.endWrite(slot, seq);
+            }
+            return true;
+        });
+    }
+
+    public void flush() {
+        slots.flush();
+    }
+
+    public void close() throws IOException {
+        slots.close();
+    }
+
+    /**
+     * @return null if the slot was allocated and written with the given row, otherwise the slot a concurrent writer allocated
+     */
+    private synchronized Integer allocate(RowKey<T> key, State state, long timestamp, long version) throws IOException {
+        Integer existing = index.get(key);
+        if (existing != null) {
+            return existing;
+        }
+        // validate before allocating so a failed write cannot leave an uncommitted slot behind
+        MmapSlots.checkLength(key.rootMember.getMember(), maxMemberLength);
+        MmapSlots.checkLength(key.ackMember.getMember(), maxMemberLength);
+        MmapSlots.checkLength(key.lifecycleBytes, maxLifecycleLength);
+        int slot = slots.allocate();
+        ByteBuffer buffer = slots.buffer(slot);
+        int offset = slots.offset(slot);
+        MmapSlots.putMember(buffer, offset + 1, key.rootMember, maxMemberLength);
+        MmapSlots.putMember(buffer, offset + ackOffset, key.ackMember, maxMemberLength);
+        MmapSlots.putBytes(buffer, offset + lifecycleOffset, key.lifecycleBytes, maxLifecycleLength);
+        buffer.put(offset + stateOffset, state.getSerializedForm());
+        buffer.putLong(offset + timestampOffset, timestamp);
+        buffer.putLong(offset + versionOffset, version);
+        slots.commit(slot);
+        index.put(key, slot);
+        return null;
+    }
+}
@@ -0,0 +1,164 @@
+package com.jivesoftware.os.aquarium.mmap;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.primitives.Ints;
+import com.jivesoftware.os.aquarium.Member;
+import com.jivesoftware.os.aquarium.State;
+import com.jivesoftware.os.aquarium.StorageTestUtil;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ *
+ */
+public class MmapStorageNGTest {
+
+    private final Member a = new Member(Ints.toByteArray(1));
+    private final Member b = new Member(Ints.toByteArray(2));
+    private final Member c = new Member(Ints.toByteArray(3));
+
+    @Test
+    public void testStateStorage() throws Exception {
+        File file = new File(Files.createTempDirectory("mmap").toFile(), "state");
+        MmapStateStorage<Integer> storage = new MmapStateStorage<>(file, StorageTestUtil.LIFECYCLE_MARSHALLER, 4, 4, 2);
+        storage.update(setState -> {
+            setState.set(b, a, 1, State.follower, 10);
+            setState.set(b, b, 1, State.follower, 10);
+            setState.set(a, c, 1, State.leader, 10);
+            setState.set(a, a, 1, State.leader, 10);
+            setState.set(a, a, 2, State.nominated, 20);
+            return true;
+        });
+        storage.update(setState -> {
+            setState.set(a, a, 1, State.follower, 9); // older timestamp loses
+            setState.set(b, a, 1, State.leader, 10); // same timestamp, newer version wins
+            return true;
+        });
+
+        List<String> expected = Lists.newArrayList("1:true:1:2:nominated:20",
+            "1:true:1:1:leader:10",
+            "1:false:3:1:leader:10",
+            "2:true:2:1:follower:10",
+            "2:false:1:1:leader:10");
+        Assert.assertEquals(StorageTestUtil.scan(storage, null, null), expected);
+        Assert.assertEquals(StorageTestUtil.scan(storage, a, 1), expected.subList(1, 3));
+        Assert.assertEquals(StorageTestUtil.scan(storage, b, null), expected.subList(3, 5));
+        storage.close();
+
+        MmapStateStorage<Integer> reopened = new MmapStateStorage<>(file, StorageTestUtil.LIFECYCLE_MARSHALLER, 4, 4, 2);
+        Assert.assertEquals(StorageTestUtil.scan(reopened, null, null), expected);
+        reopened.update(setState -> setState.set(c, c, 1, State.bootstrap, 30));
+        Assert.assertEquals(StorageTestUtil.scan(reopened, c, null), Lists.newArrayList("3:true:3:1:bootstrap:30"));
+        reopened.close();
+    }
+
+    @Test
+    public void testConcurrentWritersAndReaders() throws Exception {
+        File file = new File(Files.createTempDirectory("mmap").toFile(), "state");
+        MmapStateStorage<Integer> storage = new MmapStateStorage<>(file, StorageTestUtil.LIFECYCLE_MARSHALLER, 4, 4, 2);
+        Member[] ackMembers = { a, b, c };
+        int writers = 4;
+        long maxTimestamp = 40_000;
+        AtomicBoolean writing = new AtomicBoolean(true);
+        ExecutorService executor = Executors.newFixedThreadPool(writers + 4);
+        try {
+            List<Future<?>> writes = Lists.newArrayList();
+            for (int w = 0; w < writers; w++) {
+                long first = w + 1;
+                writes.add(executor.submit(() -> {
+                    // writers interleave timestamps and write each a second time, so equal timestamps race on version
+                    for (long timestamp = first; timestamp <= maxTimestamp; timestamp += writers) {
+                        long rowTimestamp = timestamp;
+                        for (int i = 0; i < 2; i++) {
+                            storage.update(setState -> {
+                                for (Member ackMember : ackMembers) {
+                                    setState.set(a, ackMember, 1, state(rowTimestamp), rowTimestamp);
+                                }
+                                return true;
+                            });
+                        }
+                    }
+                    return null;
+                }));
+            }
+            List<Future<?>> reads = Lists.newArrayList();
+            for (int r = 0; r < 4; r++) {
+                reads.add(executor.submit(() -> {
+                    Map<Member, long[]> seen = Maps.newHashMap();
+                    while (writing.get()) {
+                        storage.scan(a, null, 1, (rootMember, isSelf, ackMember, lifecycle, state, timestamp, version) -> {
+                            Assert.assertEquals(state, state(timestamp), "state, timestamp and version of one row");
+                            long[] last = seen.computeIfAbsent(ackMember, key -> new long[] { -1, -1 });
+                            Assert.assertTrue(timestamp > last[0] || (timestamp == last[0] && version >= last[1]),
+                                "a row only moves to a newer timestamp, or a newer version of the same timestamp");
+                            last[0] = timestamp;
+                            last[1] = version;
+                            return true;
+                        });
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : writes) {
+                future.get();
+            }
+            writing.set(false);
+            for (Future<?> future : reads) {
+                future.get();
+            }
+        } finally {
+            writing.set(false);
+            executor.shutdownNow();
+        }
+
+        List<String> rows = StorageTestUtil.scan(storage, a, 1);
+        Assert.assertEquals(rows, Lists.newArrayList("1:true:1:1:" + state(maxTimestamp) + ":" + maxTimestamp,
+            "1:false:2:1:" + state(maxTimestamp) + ":" + maxTimestamp,
+            "1:false:3:1:" + state(maxTimestamp) + ":" + maxTimestamp), "the newest timestamp wins");
+        storage.close();
+    }
+
+    @Test
+    public void testLivelinessStorage() throws Exception {
+        File file = new File(Files.createTempDirectory("mmap").toFile(), "liveliness");
+        MmapLivelinessStorage storage = new MmapLivelinessStorage(file, 4, 2);
+        storage.update(setLiveliness -> {
+            setLiveliness.set(b, a, 10);
+            setLiveliness.set(b, b, 11);
+            setLiveliness.set(a, a, 12);
+            return true;
+        });
+        storage.update(setLiveliness -> {
+            setLiveliness.set(b, b, 5);
+            setLiveliness.set(b, a, 13);
+            return true;
+        });
+
+        Assert.assertEquals(storage.get(b, b), 11);
+        Assert.assertEquals(storage.get(b, a), 13);
+        Assert.assertEquals(storage.get(a, b), -1);
+        storage.close();
+
+        MmapLivelinessStorage reopened = new MmapLivelinessStorage(file, 4, 2);
+        List<String> rows = Lists.newArrayList();
+        reopened.scan(b, null, (rootMember, isSelf, ackMember, timestamp, version) -> {
+            rows.add(Ints.fromByteArray(rootMember.getMember()) + ":" + isSelf + ":" + Ints.fromByteArray(ackMember.getMember()) + ":" + timestamp);
+            return true;
+        });
+        Assert.assertEquals(rows, Lists.newArrayList("2:true:2:11", "2:false:1:13"));
+        reopened.close();
+    }
+
+    private static State state(long timestamp) {
+        return (timestamp % 2 == 0) ? State.leader : State.follower;
+    }
+}
@@ -0,0 +1,130 @@
+package com.jivesoftware.os.aquarium;
+
+import com.google.common.collect.Lists;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * One member's view of every root it has acknowledged: per root and lifecycle, the state and timestamp it saw. The entry whose
+ * root is the owning member is that member's own state, i.e. its self row. Entries are kept in root member order, so one root's
+ * entries are found without walking the whole vector.
+ *
+ * @param <T> lifecycle type
+ */
+public class AckVector<T> {
+
+    private static final AckVector<?> EMPTY = new AckVector<>(Collections.emptyList());
+
+    private final List<Entry<T>> entries;
+
+    public AckVector(List<Entry<T>> entries) {
+        this.entries = entries;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <T> AckVector<T> empty() {
+        return (AckVector<T>) EMPTY;
+    }
+
+    public List<Entry<T>> getEntries() {
+        return entries;
+    }
+
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    /**
+     * @return the entries of the given root, one per lifecycle
+     */
+    List<Entry<T>> getEntries(Member rootMember) {
+        int from = firstIndex(entries, rootMember);
+        int to = from;
+        while (to < entries.size() && entries.get(to).rootMember.equals(rootMember)) {
+            to++;
+        }
+        return entries.subList(from, to);
+    }
+
+    /**
+     * @return a vector holding the given entries in place of those with the same root and lifecycle, unless the existing entry
+     * has a newer timestamp
+     */
+    AckVector<T> with(List<Entry<T>> updates) {
+        List<Entry<T>> merged = Lists.newArrayList(entries);
+        for (Entry<T> update : updates) {
+            int index = firstIndex(merged, update.rootMember);
+            while (index < merged.size() && merged.get(index).rootMember.equals(update.rootMember)
+                && !Objects.equals(merged.get(index).lifecycle, update.lifecycle)) {
+                index++;
+            }
+            if (index == merged.size() || !merged.get(index).rootMember.equals(update.rootMember)) {
+                merged.add(index, update); // after the root's other lifecycles
+            } else if (merged.get(index).timestamp <= update.timestamp) {
+                merged.set(index, update);
+            }
+        }
+        return new AckVector<>(merged);
+    }
+
+    private static <T> int firstIndex(List<Entry<T>> entries, Member rootMember) {
+        int low = 0;
+        int high = entries.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (entries.get(mid).rootMember.compareTo(rootMember) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    @Override
+    public String toString() {
+        return "AckVector{" + "entries=" + entries + '}';
+    }
+
+    public static class Entry<T> {
+
+        private final Member rootMember;
+        private final T lifecycle;
+        private final State state;
+        private final long timestamp;
+
+        public Entry(Member rootMember, T lifecycle, State state, long timestamp) {
+            this.rootMember = rootMember;
+            this.lifecycle = lifecycle;
+            this.state = state;
+            this.timestamp = timestamp;
+        }
+
+        public Member getRootMember() {
+            return rootMember;
+        }
+
+        public T getLifecycle() {
+            return lifecycle;
+        }
+
+        public State getState() {
+            return state;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        @Override
+        public String toString() {
+            return "Entry{"
+                + "rootMember=" + rootMember
+                + ", lifecycle=" + lifecycle
+                + ", state=" + state
+                + ", timestamp=" + timestamp
+                + '}';
+        }
+    }
+}
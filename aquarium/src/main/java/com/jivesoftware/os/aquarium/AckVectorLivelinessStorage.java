@@ -0,0 +1,56 @@
+package com.jivesoftware.os.aquarium;
+
+import com.google.common.collect.Lists;
+import com.jivesoftware.os.aquarium.interfaces.AckVectorStorage;
+import com.jivesoftware.os.aquarium.interfaces.LivelinessStorage;
+import java.util.List;
+
+/**
+ * Presents an {@link AckVectorStorage} as a {@link LivelinessStorage}, see {@link AckVectorStateStorage}. Liveliness vector
+ * entries carry a heartbeat timestamp but neither lifecycle nor state.
+ */
+public class AckVectorLivelinessStorage implements LivelinessStorage {
+
+    private final AckVectorStateStorage<Void> stateStorage;
+
+    public AckVectorLivelinessStorage(AckVectorStorage<Void> ackVectorStorage) {
+        this.stateStorage = new AckVectorStateStorage<>(ackVectorStorage);
+    }
+
+    @Override
+    public boolean scan(Member rootMember, Member otherMember, LivelinessStream stream) throws Exception {
+        return stateStorage.scan(rootMember, otherMember, null,
+            (root, isSelf, ackMember, lifecycle, state, timestamp, version) -> stream.stream(root, isSelf, ackMember, timestamp, version));
+    }
+
+    @Override
+    public boolean update(LivelinessUpdates updates) throws Exception {
+        return stateStorage.update(setState -> updates.updates((rootMember, otherMember, timestamp) -> {
+            return setState.set(rootMember, otherMember, null, null, timestamp);
+        }));
+    }
+
+    @Override
+    public long get(Member rootMember, Member otherMember) throws Exception {
+        return stateStorage.timestamp(rootMember, otherMember);
+    }
+
+    @Override
+    public boolean remove(LivelinessRemovals removals) throws Exception {
+        List<Member[]> removed = Lists.newArrayList();
+        removals.removals((rootMember, ackMember) -> removed.add(new Member[] { rootMember, ackMember }));
+        return stateStorage.removeEntries((ackMember, entry) -> {
+            for (Member[] rootAndAck : removed) {
+                if (rootAndAck[0].equals(entry.getRootMember()) && (rootAndAck[1] == null || rootAndAck[1].equals(ackMember))) {
+                    return true;
+                }
+            }
+            return false;
+        });
+    }
+
+    @Override
+    public boolean watch(LivelinessWatcher watcher) throws Exception {
+        return stateStorage.getAckVectorStorage().watch(ackMember -> watcher.changed(null, ackMember));
+    }
+}
@@ -0,0 +1,215 @@
+package com.jivesoftware.os.aquarium;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.jivesoftware.os.aquarium.interfaces.AckVectorStorage;
+import com.jivesoftware.os.aquarium.interfaces.StateStorage;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Presents an {@link AckVectorStorage} as a {@link StateStorage}. Updates are grouped by acknowledging member so that each
+ * rewrites one vector per member, however many roots it acknowledges, and scans pivot the vectors back into the rows every
+ * reader expects: per root, each lifecycle's self row followed by its acknowledgements. A scan of one root only looks up that
+ * root's entries in each vector.
+ * <p>
+ * Vectors are rewritten by compare and set on the version they were read at, and a set which lost a race is read and merged
+ * again, so concurrent writers of one member's vector never drop each other's entries.
+ *
+ * @param <T> lifecycle type
+ */
+public class AckVectorStateStorage<T> implements StateStorage<T> {
+
+    private final AckVectorStorage<T> ackVectorStorage;
+
+    public AckVectorStateStorage(AckVectorStorage<T> ackVectorStorage) {
+        this.ackVectorStorage = ackVectorStorage;
+    }
+
+    public AckVectorStorage<T> getAckVectorStorage() {
+        return ackVectorStorage;
+    }
+
+    @Override
+    public boolean scan(Member rootMember, Member otherMember, T lifecycle, StateStream<T> stream) throws Exception {
+        NavigableMap<Member, Map<T, List<Row<T>>>> roots = new TreeMap<>();
+        ackVectorStorage.scan(otherMember, (ackMember, vector, version) -> {
+            for (AckVector.Entry<T> entry : (rootMember == null) ? vector.getEntries() : vector.getEntries(rootMember)) {
+                if (lifecycle == null || lifecycle.equals(entry.getLifecycle())) {
+                    Member entryRoot = entry.getRootMember();
+                    List<Row<T>> rows = roots.computeIfAbsent(entryRoot, key -> Maps.newLinkedHashMap())
+                        .computeIfAbsent(entry.getLifecycle(), key -> Lists.newArrayList());
+                    if (ackMember.equals(entryRoot)) {
+                        rows.add(0, new Row<>(ackMember, entry, version));
+                    } else {
+                        rows.add(new Row<>(ackMember, entry, version));
+                    }
+                }
+            }
+            return true;
+        });
+
+        for (Map.Entry<Member, Map<T, List<Row<T>>>> root : roots.entrySet()) {
+            Member entryRoot = root.getKey();
+            for (List<Row<T>> rows : root.getValue().values()) {
+                for (Row<T> row : rows) {
+                    AckVector.Entry<T> entry = row.entry;
+                    if (!stream.stream(entryRoot, row.ackMember.equals(entryRoot), row.ackMember, entry.getLifecycle(), entry.getState(),
+                        entry.getTimestamp(), row.version)) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean update(StateUpdates<T> updates) throws Exception {
+        Map<Member, List<AckVector.Entry<T>>> byAckMember = Maps.newLinkedHashMap();
+        boolean updated = updates.updates((rootMember, otherMember, lifecycle, state, timestamp) -> {
+            byAckMember.computeIfAbsent(otherMember, key -> Lists.newArrayList()).add(new AckVector.Entry<>(rootMember, lifecycle, state, timestamp));
+            return true;
+        });
+        if (byAckMember.isEmpty()) {
+            return updated;
+        }
+        while (true) {
+            Map<Member, Versioned<T>> read = Maps.newLinkedHashMap();
+            for (Member ackMember : byAckMember.keySet()) {
+                read.put(ackMember, read(ackMember));
+            }
+            boolean set = ackVectorStorage.update(setAckVector -> {
+                for (Map.Entry<Member, Versioned<T>> ack : read.entrySet()) {
+                    Versioned<T> existing = ack.getValue();
+                    if (!setAckVector.set(ack.getKey(), existing.vector.with(byAckMember.get(ack.getKey())), existing.version)) {
+                        return false;
+                    }
+                    byAckMember.remove(ack.getKey());
+                }
+                return true;
+            });
+            if (set) {
+                return updated;
+            }
+            read.keySet().retainAll(byAckMember.keySet());
+            if (!changedSince(read)) {
+                return false; // rejected rather than raced
+            }
+        }
+    }
+
+    /**
+     * @return the timestamp of the first entry the ack member holds for the root, or -1
+     */
+    long timestamp(Member rootMember, Member ackMember) throws Exception {
+        List<AckVector.Entry<T>> entries = read(ackMember).vector.getEntries(rootMember);
+        return entries.isEmpty() ? -1 : entries.get(0).getTimestamp();
+    }
+
+    @Override
+    public boolean remove(StateRemovals<T> removals) throws Exception {
+        Map<Member, List<T>> removed = Maps.newHashMap();
+        removals.removals((rootMember, lifecycle) -> removed.computeIfAbsent(rootMember, key -> Lists.newArrayList()).add(lifecycle));
+        return removeEntries((ackMember, entry) -> {
+            List<T> lifecycles = removed.get(entry.getRootMember());
+            return lifecycles != null && lifecycles.contains(entry.getLifecycle());
+        });
+    }
+
+    @Override
+    public boolean watch(StateWatcher<T> watcher) throws Exception {
+        // one vector holds acknowledgements of every root
+        return ackVectorStorage.watch(ackMember -> watcher.changed(null, ackMember, null));
+    }
+
+    /**
+     * Rewrites every vector holding an entry the filter matches without that entry, reading again any vector written meanwhile.
+     */
+    boolean removeEntries(EntryFilter<T> filter) throws Exception {
+        while (true) {
+            Map<Member, Versioned<T>> rewritten = Maps.newLinkedHashMap();
+            ackVectorStorage.scan(null, (ackMember, vector, version) -> {
+                List<AckVector.Entry<T>> kept = Lists.newArrayList();
+                for (AckVector.Entry<T> entry : vector.getEntries()) {
+                    if (!filter.matches(ackMember, entry)) {
+                        kept.add(entry);
+                    }
+                }
+                if (kept.size() != vector.getEntries().size()) {
+                    rewritten.put(ackMember, new Versioned<>(kept.isEmpty() ? AckVector.empty() : new AckVector<>(kept), version));
+                }
+                return true;
+            });
+            if (rewritten.isEmpty()) {
+                return true;
+            }
+            List<Member> written = Lists.newArrayList();
+            boolean set = ackVectorStorage.update(setAckVector -> {
+                for (Map.Entry<Member, Versioned<T>> vector : rewritten.entrySet()) {
+                    if (!setAckVector.set(vector.getKey(), vector.getValue().vector, vector.getValue().version)) {
+                        return false;
+                    }
+                    written.add(vector.getKey());
+                }
+                return true;
+            });
+            if (set) {
+                return true;
+            }
+            rewritten.keySet().removeAll(written);
+            if (!changedSince(rewritten)) {
+                return false; // rejected rather than raced
+            }
+        }
+    }
+
+    private Versioned<T> read(Member ackMember) throws Exception {
+        List<Versioned<T>> found = Lists.newArrayListWithCapacity(1);
+        ackVectorStorage.scan(ackMember, (otherMember, vector, version) -> found.add(new Versioned<>(vector, version)));
+        return found.isEmpty() ? new Versioned<>(AckVector.empty(), -1) : found.get(0);
+    }
+
+    /**
+     * @return true if any of the vectors is no longer at the version it was read at
+     */
+    private boolean changedSince(Map<Member, Versioned<T>> read) throws Exception {
+        for (Map.Entry<Member, Versioned<T>> ack : read.entrySet()) {
+            if (read(ack.getKey()).version != ack.getValue().version) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    interface EntryFilter<T> {
+
+        boolean matches(Member ackMember, AckVector.Entry<T> entry) throws Exception;
+    }
+
+    private static class Versioned<T> {
+
+        private final AckVector<T> vector;
+        private final long version;
+
+        private Versioned(AckVector<T> vector, long version) {
+            this.vector = vector;
+            this.version = version;
+        }
+    }
+
+    private static class Row<T> {
+
+        private final Member ackMember;
+        private final AckVector.Entry<T> entry;
+        private final long version;
+
+        private Row(Member ackMember, AckVector.Entry<T> entry, long version) {
+            this.ackMember = ackMember;
+            this.entry = entry;
+            this.version = version;
+        }
+    }
+}
@@ -3,16 +3,32 @@ package com.jivesoftware.os.aquarium;
 import com.jivesoftware.os.aquarium.interfaces.AtQuorum;
 import com.jivesoftware.os.aquarium.interfaces.AwaitLivelyEndState;
 import com.jivesoftware.os.aquarium.interfaces.CurrentMembers;
+import com.jivesoftware.os.aquarium.interfaces.DualStateStorage;
+import com.jivesoftware.os.aquarium.interfaces.LivelyEndStateListener;
 import com.jivesoftware.os.aquarium.interfaces.MemberLifecycle;
 import com.jivesoftware.os.aquarium.interfaces.StateStorage;
 import com.jivesoftware.os.aquarium.interfaces.TransitionQuorum;
 import com.jivesoftware.os.jive.utils.ordered.id.OrderIdProvider;
+import com.jivesoftware.os.mlogger.core.MetricLogger;
+import com.jivesoftware.os.mlogger.core.MetricLoggerFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @author jonathan.colt
  */
 public class Aquarium {
 
+    private static final MetricLogger LOG = MetricLoggerFactory.getLogger();
+
     private final AquariumStats aquariumStats;
     private final OrderIdProvider versionProvider;
     private final TransitionQuorum transitionCurrent;
@@ -20,13 +36,47 @@ public class Aquarium {
     private final Liveliness liveliness;
     private final Member member;
     private final AwaitLivelyEndState awaitLivelyEndState;
+    private final CurrentMembers currentMembers;
+
+    private final StateStorage<?> currentStateStorage;
+    private final StateStorage<?> desiredStateStorage;
+    private final AtomicLong transitions = new AtomicLong();
+    private volatile PublishedEndState publishedEndState; // written under tapTheGlassLock
+    private final List<LivelyEndStateListener> listeners = new CopyOnWriteArrayList<>();
+    private final List<Runnable> watchers = new CopyOnWriteArrayList<>();
+    private Boolean storageWatched; // guarded by watchers
+    private LivelyEndState tappedEndState; // guarded by tapTheGlassLock
+    private State tappedRole; // guarded by tapTheGlassLock, null while offline
 
     private final ReadWaterline readCurrent;
     private final ReadWaterline readDesired;
+    private final DualReadWaterline<?> readBoth;
+    private final CachedMemberLifecycle<?> memberLifecycle;
 
     private final WriteWaterline writeCurrent;
     private final WriteWaterline writeDesired;
+    private final WaterlineReaper<?> reaper;
+
+    public <T> Aquarium(AquariumStats aquariumStats,
+        OrderIdProvider versionProvider,
+        StateStorage<T> currentStateStorage,
+        StateStorage<T> desiredStateStorage,
+        TransitionQuorum current,
+        TransitionQuorum desired,
+        Liveliness liveliness,
+        MemberLifecycle<T> memberLifecycle,
+        Class<T> lifecycleClass,
+        AtQuorum atQuorum,
+        CurrentMembers currentMembers,
+        Member member,
+        AwaitLivelyEndState awaitLivelyEndState) {
+        this(aquariumStats, versionProvider, currentStateStorage, desiredStateStorage, current, desired, liveliness, memberLifecycle,
+            lifecycleClass, atQuorum, currentMembers, new MemberRegistry(), member, awaitLivelyEndState);
+    }
 
+    /**
+     * For aquariums which share one {@link MemberRegistry}, e.g. every partition hosted by an {@link AquariumHost}.
+     */
     public <T> Aquarium(AquariumStats aquariumStats,
         OrderIdProvider versionProvider,
         StateStorage<T> currentStateStorage,
@@ -38,14 +88,57 @@ public class Aquarium {
         Class<T> lifecycleClass,
         AtQuorum atQuorum,
         CurrentMembers currentMembers,
+        MemberRegistry memberRegistry,
         Member member,
         AwaitLivelyEndState awaitLivelyEndState) {
+        this(aquariumStats, versionProvider, null, currentStateStorage, desiredStateStorage, current, desired, liveliness, memberLifecycle,
+            lifecycleClass, atQuorum, currentMembers, memberRegistry, member, awaitLivelyEndState);
+    }
 
+    /**
+     * For current and desired state which share a backend, so that both are scanned together.
+     */
+    public <T> Aquarium(AquariumStats aquariumStats,
+        OrderIdProvider versionProvider,
+        DualStateStorage<T> stateStorage,
+        TransitionQuorum current,
+        TransitionQuorum desired,
+        Liveliness liveliness,
+        MemberLifecycle<T> memberLifecycle,
+        Class<T> lifecycleClass,
+        AtQuorum atQuorum,
+        CurrentMembers currentMembers,
+        MemberRegistry memberRegistry,
+        Member member,
+        AwaitLivelyEndState awaitLivelyEndState) throws Exception {
+        this(aquariumStats, versionProvider, stateStorage, stateStorage.current(), stateStorage.desired(), current, desired, liveliness,
+            memberLifecycle, lifecycleClass, atQuorum, currentMembers, memberRegistry, member, awaitLivelyEndState);
+    }
+
+    private <T> Aquarium(AquariumStats aquariumStats,
+        OrderIdProvider versionProvider,
+        DualStateStorage<T> dualStateStorage,
+        StateStorage<T> currentStateStorage,
+        StateStorage<T> desiredStateStorage,
+        TransitionQuorum current,
+        TransitionQuorum desired,
+        Liveliness liveliness,
+        MemberLifecycle<T> lifecycle,
+        Class<T> lifecycleClass,
+        AtQuorum atQuorum,
+        CurrentMembers currentMembers,
+        MemberRegistry memberRegistry,
+        Member member,
+        AwaitLivelyEndState awaitLivelyEndState) {
+
+        CachedMemberLifecycle<T> memberLifecycle = new CachedMemberLifecycle<>(lifecycle);
+        this.memberLifecycle = memberLifecycle;
         this.aquariumStats = aquariumStats;
         this.versionProvider = versionProvider;
         this.transitionCurrent = (existing, nextTimestamp, nextState, readCurrent, readDesired, writeCurrent, writeDesired) -> {
             boolean transitioned = current.transition(existing, nextTimestamp, nextState, readCurrent, readDesired, writeCurrent, writeDesired);
             if (transitioned) {
+                transitions.incrementAndGet();
                 if (existing != null && existing.getState() != null) {
                     if (existing.getState() != State.bootstrap) {
                         aquariumStats.currentState.get(existing.getState()).decrement();
@@ -60,6 +153,7 @@ public class Aquarium {
         this.transitionDesired = (existing, nextTimestamp, nextState, readCurrent, readDesired, writeCurrent, writeDesired) -> {
             boolean transitioned = desired.transition(existing, nextTimestamp, nextState, readCurrent, readDesired, writeCurrent, writeDesired);
             if (transitioned) {
+                transitions.incrementAndGet();
                 if (existing != null && existing.getState() != null) {
                     if (existing.getState() != State.bootstrap) {
                         aquariumStats.desiredState.get(existing.getState()).decrement();
@@ -74,29 +168,57 @@ public class Aquarium {
         this.liveliness = liveliness;
         this.member = member;
         this.awaitLivelyEndState = awaitLivelyEndState;
+        this.currentMembers = currentMembers;
+        this.currentStateStorage = currentStateStorage;
+        this.desiredStateStorage = desiredStateStorage;
+
+        WaterlineIndex<T> currentIndex = new WaterlineIndex<>(currentStateStorage, memberRegistry);
+        WaterlineIndex<T> desiredIndex = new WaterlineIndex<>(desiredStateStorage, memberRegistry);
 
-        this.readCurrent = new ReadWaterline<>(
+        ReadWaterline<T> readCurrent = new ReadWaterline<>(
             aquariumStats.getMyCurrentWaterline,
             aquariumStats.getOthersCurrentWaterline,
+            aquariumStats.snapshotCurrentWaterline,
             aquariumStats.acknowledgeCurrentOther,
             currentStateStorage,
+            currentIndex,
             memberLifecycle,
             atQuorum,
             currentMembers,
+            memberRegistry,
             lifecycleClass);
 
-        this.readDesired = new ReadWaterline<>(
+        ReadWaterline<T> readDesired = new ReadWaterline<>(
             aquariumStats.getMyDesiredWaterline,
             aquariumStats.getOthersDesiredWaterline,
+            aquariumStats.snapshotDesiredWaterline,
             aquariumStats.acknowledgeDesiredOther,
             desiredStateStorage,
+            desiredIndex,
             memberLifecycle,
             atQuorum,
             currentMembers,
+            memberRegistry,
             lifecycleClass);
 
-        this.writeCurrent = new WriteWaterline<>(currentStateStorage, memberLifecycle);
-        this.writeDesired = new WriteWaterline<>(desiredStateStorage, memberLifecycle);
+        this.readCurrent = readCurrent;
+        this.readDesired = readDesired;
+        this.readBoth = new DualReadWaterline<>(dualStateStorage, readCurrent, readDesired);
+
+        WriteWaterline<T> writeCurrent = new WriteWaterline<>(currentStateStorage, currentIndex, memberLifecycle);
+        WriteWaterline<T> writeDesired = new WriteWaterline<>(desiredStateStorage, desiredIndex, memberLifecycle);
+        this.writeCurrent = writeCurrent;
+        this.writeDesired = writeDesired;
+        this.reaper = new WaterlineReaper<>(currentStateStorage,
+            desiredStateStorage,
+            writeCurrent,
+            writeDesired,
+            memberLifecycle,
+            atQuorum,
+            currentMembers,
+            memberRegistry,
+            liveliness,
+            member);
     }
 
     public interface Tx<R> {
@@ -105,52 +227,277 @@ public class Aquarium {
     }
 
     public <R> R tx(Tx<R> tx) throws Exception {
-        return tx.tx(readCurrent, readDesired, writeCurrent, writeDesired);
+        long writes = writeCurrent.writes() + writeDesired.writes();
+        R result = tx.tx(readCurrent, readDesired, writeCurrent, writeDesired);
+        if (writeCurrent.writes() + writeDesired.writes() != writes) {
+            unpublish();
+        }
+        return result;
+    }
+
+    /**
+     * Runs a pass over storage with each member's lifecycle looked up, and the current members snapshotted, at most once.
+     */
+    private <R> R scoped(Callable<R> callable) throws Exception {
+        return memberLifecycle.scoped(() -> CurrentMembersSnapshot.scoped(callable));
     }
 
     public void acknowledgeOther() throws Exception {
         aquariumStats.acknowledgeOther.increment();
-        readCurrent.acknowledgeOther(member);
-        readDesired.acknowledgeOther(member);
+        scoped(() -> {
+            readBoth.acknowledgeOther(member);
+            return null;
+        });
+    }
+
+    /**
+     * Deletes this aquarium's superseded lifecycles and long expunged members from storage. Meant to be run in the background,
+     * see {@link WaterlineReaper}.
+     *
+     * @param expungedGraceMillis how long an expunged member must have been seen dead before its rows are deleted
+     * @return the number of member lifecycles deleted
+     */
+    public int reap(long expungedGraceMillis) throws Exception {
+        aquariumStats.reap.increment();
+        int reaped = scoped(() -> reaper.reap(expungedGraceMillis));
+        if (reaped > 0) {
+            aquariumStats.reaped.add(reaped);
+            unpublish();
+        }
+        return reaped;
+    }
+
+    /**
+     * Registers a callback which is run whenever another member writes this aquarium's current or desired state. The callback
+     * runs on the storage's thread so it should only schedule a tap. Storage is only watched once, however many callbacks
+     * are registered, and {@link #unwatch} stops a callback from running.
+     *
+     * @return false if either storage cannot watch for external writes, in which case callers must keep polling
+     */
+    public boolean watch(Runnable changed) throws Exception {
+        synchronized (watchers) {
+            if (storageWatched == null) {
+                boolean watchingCurrent = currentStateStorage.watch((rootMember, ackMember, lifecycle) -> stateChanged());
+                boolean watchingDesired = desiredStateStorage.watch((rootMember, ackMember, lifecycle) -> stateChanged());
+                storageWatched = watchingCurrent && watchingDesired;
+            }
+            watchers.add(changed);
+            return storageWatched;
+        }
+    }
+
+    public void unwatch(Runnable changed) {
+        watchers.remove(changed);
+    }
+
+    private void stateChanged() {
+        for (Runnable watcher : watchers) {
+            watcher.run();
+        }
+    }
+
+    /**
+     * @return a count which moves whenever this member transitions its current or desired state
+     */
+    long transitions() {
+        return transitions.get();
+    }
+
+    CurrentMembers currentMembers() {
+        return currentMembers;
     }
 
     private final Object tapTheGlassLock = new Object();
+    private final AtomicBoolean tapping = new AtomicBoolean();
+    private final AtomicBoolean tapRequested = new AtomicBoolean();
+    private final Queue<CompletableFuture<Void>> tapFutures = new ConcurrentLinkedQueue<>();
 
+    /**
+     * Taps unless a tap is already running, in which case the running tap is asked to go around once more and this call returns
+     * straight away. Concurrent callers therefore share one pass over storage instead of queueing to repeat it. Should a pass
+     * fail, the requests made while it ran still get their own pass before the first failure is thrown.
+     */
     public void tapTheGlass() throws Exception {
         aquariumStats.tapTheGlass.increment();
-        awaitLivelyEndState.notifyChange(() -> {
+        tapRequested.set(true);
+        Exception failure = null;
+        // a request made while we hold tapping is seen by the check which follows our release
+        while (tapRequested.get() && tapping.compareAndSet(false, true)) {
+            List<CompletableFuture<Void>> tapped = new ArrayList<>();
+            Exception tapFailure = null;
+            try {
+                tapRequested.set(false);
+                for (CompletableFuture<Void> future = tapFutures.poll(); future != null; future = tapFutures.poll()) {
+                    tapped.add(future);
+                }
+                tap();
+            } catch (Exception x) {
+                tapFailure = x;
+            } finally {
+                tapping.set(false);
+            }
+            for (CompletableFuture<Void> future : tapped) {
+                if (tapFailure != null) {
+                    future.completeExceptionally(tapFailure);
+                } else {
+                    future.complete(null);
+                }
+            }
+            if (failure == null) {
+                failure = tapFailure;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Like {@link #tapTheGlass()}, but returns a future which completes once a tap which started after this call has finished,
+     * whichever thread ran it.
+     */
+    public CompletableFuture<Void> tapTheGlassAsync() {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        tapFutures.add(future);
+        try {
+            tapTheGlass();
+        } catch (Exception x) {
+            future.completeExceptionally(x);
+        }
+        return future;
+    }
+
+    private void tap() throws Exception {
+        awaitLivelyEndState.notifyChange(this, () -> {
             aquariumStats.tapTheGlassNotified.increment();
             synchronized (tapTheGlassLock) {
-                while (true) {
-                    Waterline currentWaterline = readCurrent.get(member);
-                    if (currentWaterline == null) {
-                        currentWaterline = new Waterline(member, State.bootstrap, versionProvider.nextId(), -1L, true);
-                    }
-                    Waterline desiredWaterline = readDesired.get(member);
-                    
-                    boolean advanced = currentWaterline.getState().transistor.advance(liveliness,
-                        currentWaterline,
-                        readCurrent,
-                        writeCurrent,
-                        transitionCurrent,
-                        desiredWaterline,
-                        readDesired,
-                        writeDesired,
-                        transitionDesired);
-                    if (!advanced) {
-                        break;
-                    }
-                }
-                return captureEndState(member, readCurrent, readDesired) != null;
+                return scoped(this::tapLocked);
             }
         });
     }
 
+    /**
+     * Runs under the tap lock with each member's lifecycle looked up, and the current members snapshotted, at most once for the
+     * whole tap.
+     */
+    private boolean tapLocked() throws Exception {
+        while (true) {
+            QuorumSnapshot[] snapshots = readBoth.snapshot();
+            QuorumSnapshot currentSnapshot = snapshots[0];
+            QuorumSnapshot desiredSnapshot = snapshots[1];
+
+            Waterline currentWaterline = currentSnapshot.get(member);
+            if (currentWaterline == null) {
+                currentWaterline = new Waterline(member, State.bootstrap, versionProvider.nextId(), -1L, true);
+            }
+            Waterline desiredWaterline = desiredSnapshot.get(member);
+
+            // transistors decide from the snapshots, so an iteration's puts can be committed together before the next one reads
+            WriteWaterline<?> batchCurrent = writeCurrent.batch();
+            WriteWaterline<?> batchDesired = writeDesired.batch();
+            boolean advanced = currentWaterline.getState().transistor.advance(liveliness,
+                currentWaterline,
+                readCurrent,
+                currentSnapshot,
+                batchCurrent,
+                transitionCurrent,
+                desiredWaterline,
+                readDesired,
+                desiredSnapshot,
+                batchDesired,
+                transitionDesired);
+            // a rejected write would only be decided again from the same snapshot
+            if (!batchCurrent.commit(batchDesired) || !advanced) {
+                break;
+            }
+        }
+        long livelyChanges = liveliness.livelyChanges();
+        LivelyEndState livelyEndState = readLivelyEndState();
+        publishedEndState = publish(livelyChanges, livelyEndState);
+        // the role is kept as of this tap, since the previous end state would be judged alive against the current clock
+        State role = LivelyEndStateChange.onlineRole(livelyEndState);
+        if (!listeners.isEmpty()) {
+            LivelyEndState previous = tappedEndState;
+            LivelyEndStateChange.changes(tappedRole, role, previous, livelyEndState, change -> notifyListeners(change, previous, livelyEndState));
+        }
+        tappedEndState = livelyEndState;
+        tappedRole = role;
+        return captureEndState(member, readCurrent, readDesired) != null;
+    }
+
+    /**
+     * Subscribes to the changes each tap sees in this member's end state. A new listener hears about the first change after it
+     * subscribes, so callers which need the starting point should read {@link #livelyEndStateAsync} after subscribing. Listeners
+     * run while the tapping thread holds this aquarium's tap lock, so they must not block or tap this aquarium.
+     */
+    public void addListener(LivelyEndStateListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(LivelyEndStateListener listener) {
+        listeners.remove(listener);
+    }
+
+    private void notifyListeners(LivelyEndStateChange change, LivelyEndState previous, LivelyEndState current) {
+        for (LivelyEndStateListener listener : listeners) {
+            try {
+                listener.changed(change, previous, current);
+            } catch (Exception x) {
+                LOG.error("Listener failed to handle {}", new Object[] { change }, x);
+            }
+        }
+    }
+
     /**
      * @return null, leader or follower
      */
     public LivelyEndState livelyEndState() throws Exception {
         aquariumStats.getLivelyEndState.increment();
+        return cachedLivelyEndState();
+    }
+
+    /**
+     * The end state published by the last tap stays valid until liveliness changes or either this member or the leader it
+     * names could expire, so the request path pays a volatile load and a clock compare instead of storage reads. Anything
+     * else that changes the end state is written by a tap, by another member and then seen by a tap, or locally through
+     * {@link #tx} or {@link #suggestState}, which unpublish it.
+     */
+    private LivelyEndState cachedLivelyEndState() throws Exception {
+        PublishedEndState published = publishedEndState;
+        if (published != null
+            && published.livelyChanges == liveliness.livelyChanges()
+            && liveliness.currentTimeMillis() <= published.validUntil) {
+            return published.livelyEndState;
+        }
+        return readLivelyEndState();
+    }
+
+    /**
+     * Called after a write made outside of a tap. A tap which read before the write has published by the time we hold the lock.
+     */
+    private void unpublish() {
+        synchronized (tapTheGlassLock) {
+            publishedEndState = null;
+        }
+    }
+
+    private PublishedEndState publish(long livelyChanges, LivelyEndState livelyEndState) throws Exception {
+        long now = liveliness.currentTimeMillis();
+        long validUntil = horizon(now, member);
+        Waterline leader = livelyEndState.getLeaderWaterline();
+        if (leader != null) {
+            validUntil = Math.min(validUntil, horizon(now, leader.getMember()));
+        }
+        return new PublishedEndState(livelyEndState, livelyChanges, validUntil);
+    }
+
+    private long horizon(long now, Member asMember) throws Exception {
+        // a dead member can only come back when acknowledging others moves livelyChanges
+        long aliveUntil = liveliness.aliveUntilTimestamp(asMember);
+        return (now <= aliveUntil) ? aliveUntil : Long.MAX_VALUE;
+    }
+
+    private LivelyEndState readLivelyEndState() throws Exception {
         Waterline current = readCurrent.get(member);
         Waterline desired = readDesired.get(member);
         return new LivelyEndState(liveliness,
@@ -159,6 +506,20 @@ public class Aquarium {
             State.highest(member, State.leader, readDesired, desired));
     }
 
+    /**
+     * Completes with the end state published by the last tap, reading storage only if nothing has been published yet.
+     */
+    public CompletableFuture<LivelyEndState> livelyEndStateAsync() {
+        aquariumStats.getLivelyEndState.increment();
+        CompletableFuture<LivelyEndState> future = new CompletableFuture<>();
+        try {
+            future.complete(cachedLivelyEndState());
+        } catch (Exception x) {
+            future.completeExceptionally(x);
+        }
+        return future;
+    }
+
     private Waterline captureEndState(Member asMember, ReadWaterline current, ReadWaterline desired) throws Exception {
         aquariumStats.captureEndState.increment();
         Waterline currentWaterline = current.get(asMember);
@@ -178,16 +539,41 @@ public class Aquarium {
 
     public Waterline getLeader() throws Exception {
         aquariumStats.getLeader.increment();
-        return State.highest(member, State.leader, readDesired, readDesired.get(member));
+        return cachedLivelyEndState().getLeaderWaterline();
+    }
+
+    /**
+     * The lease expires a safety margin ahead of this member's alive-until timestamp. When liveliness never expires, i.e.
+     * deadAfterMillis is not positive, neither does the lease, and only the fencing token guards against a newer term.
+     *
+     * @param safetyMarginMillis how far ahead of this member's alive-until timestamp the lease expires, to cover clock drift
+     *     between members and the time a caller takes to act on the lease
+     * @return a lease if this member is currently the lively leader, otherwise null
+     */
+    public LeaderLease acquireLeaderLease(long safetyMarginMillis) throws Exception {
+        LivelyEndState livelyEndState = cachedLivelyEndState();
+        Waterline current = livelyEndState.getCurrentWaterline();
+        if (current == null || current.getState() != State.leader || !livelyEndState.isOnline()) {
+            return null;
+        }
+        long aliveUntil = liveliness.aliveUntilTimestamp(member);
+        long expiresAt = (aliveUntil == Long.MAX_VALUE) ? Long.MAX_VALUE : aliveUntil - safetyMarginMillis;
+        LeaderLease lease = new LeaderLease(current, expiresAt, liveliness::currentTimeMillis);
+        return lease.isValid() ? lease : null;
+    }
+
+    /**
+     * Completes with the leader published by the last tap, reading storage only if nothing has been published yet.
+     */
+    public CompletableFuture<Waterline> getLeaderAsync() {
+        aquariumStats.getLeader.increment();
+        return livelyEndStateAsync().thenApply(LivelyEndState::getLeaderWaterline);
     }
 
     public LivelyEndState awaitOnline(long timeoutMillis) throws Exception {
         try {
             aquariumStats.awaitOnline.increment();
-            LivelyEndState endState = awaitLivelyEndState.awaitChange(() -> {
-                LivelyEndState livelyEndState = livelyEndState();
-                return livelyEndState.isOnline() ? livelyEndState : null;
-            }, timeoutMillis);
+            LivelyEndState endState = awaitLivelyEndState.awaitChange(this, this::publishedOnline, timeoutMillis);
 
             return endState;
         } catch (Exception x) {
@@ -196,15 +582,37 @@ public class Aquarium {
         }
     }
 
+    /**
+     * Completes once a tap leaves this member online, without holding a thread while it waits. The future may be completed by the
+     * tapping thread, so dependents which do real work should be attached with an async variant.
+     */
+    public CompletableFuture<LivelyEndState> awaitOnlineAsync(long timeoutMillis) {
+        aquariumStats.awaitOnline.increment();
+        return awaitLivelyEndState.awaitChangeAsync(this, this::publishedOnline, timeoutMillis).whenComplete((livelyEndState, x) -> {
+            if (x != null) {
+                aquariumStats.awaitTimedOut.increment();
+            }
+        });
+    }
+
+    private LivelyEndState publishedOnline() throws Exception {
+        // the end state published by the last tap spares every waiter a storage read
+        PublishedEndState published = publishedEndState;
+        LivelyEndState livelyEndState = (published != null) ? published.livelyEndState : livelyEndState();
+        return livelyEndState.isOnline() ? livelyEndState : null;
+    }
+
     public boolean suggestState(State state) throws Exception {
         aquariumStats.suggestState.increment();
-        return transitionDesired.transition(readDesired.get(member),
+        boolean suggested = transitionDesired.transition(readDesired.get(member),
             versionProvider.nextId(),
             state,
             readCurrent,
             readDesired,
             writeCurrent,
             writeDesired);
+        unpublish();
+        return suggested;
     }
 
     public Waterline getState(Member asMember) throws Exception {
@@ -218,12 +626,73 @@ public class Aquarium {
         if (!liveliness.isAlive(asMember)) {
             return false;
         }
-        Waterline waterline = getState(asMember);
-        return waterline.getState() == state && waterline.isAtQuorum();
+        Waterline waterline = member.equals(asMember) ? cachedLivelyEndState().getCurrentWaterline() : getState(asMember);
+        return waterline != null && waterline.getState() == state && waterline.isAtQuorum();
     }
 
     public boolean isLivelyEndState(Member asMember) throws Exception {
         aquariumStats.isLivelyEndStateForMember.increment();
+        if (member.equals(asMember)) {
+            return cachedLivelyEndState().isOnline();
+        }
         return captureEndState(asMember, readCurrent, readDesired) != null;
     }
+
+    /**
+     * Reads the current state of every given member in one pass over current storage.
+     */
+    public MemberStates getStates(Collection<Member> asMembers) throws Exception {
+        aquariumStats.getStateForMember.add(asMembers.size());
+        return memberStates(asMembers, false);
+    }
+
+    /**
+     * Reads the current and desired state of every given member, and the leader, in one pass over each storage.
+     */
+    public MemberStates livelyEndStates(Collection<Member> asMembers) throws Exception {
+        aquariumStats.isLivelyEndStateForMember.add(asMembers.size());
+        return memberStates(asMembers, true);
+    }
+
+    private MemberStates memberStates(Collection<Member> asMembers, boolean readDesiredState) throws Exception {
+        return scoped(() -> scopedMemberStates(asMembers, readDesiredState));
+    }
+
+    private MemberStates scopedMemberStates(Collection<Member> asMembers, boolean readDesiredState) throws Exception {
+        Member[] members = asMembers.toArray(new Member[asMembers.size()]);
+        Waterline[] currentWaterlines = waterlines(members, readCurrent.snapshot());
+        Waterline[] desiredWaterlines = null;
+        Waterline leaderWaterline = null;
+        if (readDesiredState) {
+            QuorumSnapshot desiredSnapshot = readDesired.snapshot();
+            desiredWaterlines = waterlines(members, desiredSnapshot);
+            leaderWaterline = State.highest(member, State.leader, desiredSnapshot, desiredSnapshot.get(member));
+        }
+        boolean[] alive = new boolean[members.length];
+        for (int i = 0; i < members.length; i++) {
+            alive[i] = liveliness.isAlive(members[i]);
+        }
+        return new MemberStates(liveliness, members, currentWaterlines, desiredWaterlines, leaderWaterline, alive);
+    }
+
+    private static Waterline[] waterlines(Member[] members, QuorumSnapshot snapshot) {
+        Waterline[] waterlines = new Waterline[members.length];
+        for (int i = 0; i < members.length; i++) {
+            waterlines[i] = snapshot.get(members[i]);
+        }
+        return waterlines;
+    }
+
+    private static class PublishedEndState {
+
+        private final LivelyEndState livelyEndState;
+        private final long livelyChanges;
+        private final long validUntil;
+
+        private PublishedEndState(LivelyEndState livelyEndState, long livelyChanges, long validUntil) {
+            this.livelyEndState = livelyEndState;
+            this.livelyChanges = livelyChanges;
+            this.validUntil = validUntil;
+        }
+    }
 }
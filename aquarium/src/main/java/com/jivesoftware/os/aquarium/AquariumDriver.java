@@ -0,0 +1,236 @@
+package com.jivesoftware.os.aquarium;
+
+import com.jivesoftware.os.aquarium.interfaces.CurrentTimeMillis;
+import com.jivesoftware.os.mlogger.core.MetricLogger;
+import com.jivesoftware.os.mlogger.core.MetricLoggerFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Drives an {@link AquariumHost} from storage and liveliness changes instead of a fixed delay. A partition is acknowledged and
+ * tapped only when another member writes its state, when a member comes to life or dies, or when the caller says it changed,
+ * so failover latency is bounded by storage propagation rather than a polling interval. The fish are still fed every
+ * feed interval, and partitions whose storage cannot {@link Aquarium#watch watch} fall back to being tapped every rescan interval.
+ *
+ * @param <P> partition type
+ */
+public class AquariumDriver<P> implements Runnable {
+
+    private static final MetricLogger LOG = MetricLoggerFactory.getLogger();
+
+    private final AquariumHost<P, ?> host;
+    private final CurrentTimeMillis currentTimeMillis;
+    private final long feedIntervalMillis;
+    private final long rescanIntervalMillis;
+    private final long reapIntervalMillis;
+    private final long expungedGraceMillis;
+
+    private final Set<P> changed = ConcurrentHashMap.newKeySet();
+    private final Object signal = new Object();
+    private boolean signaled; // guarded by signal
+    private volatile boolean livelinessChanged;
+    private volatile boolean running = true;
+
+    // only touched by the tending thread
+    private final Map<P, Aquarium> known = new HashMap<>();
+    private final Map<P, Runnable> watchers = new HashMap<>();
+    private final Set<P> unwatched = new HashSet<>();
+    private final Set<P> failed = new HashSet<>();
+    private boolean livelinessWatched;
+    private long knownPartitionsVersion = -1;
+    private long knownLivelyChanges = -1;
+    private long nextFeed;
+    private long nextRescan;
+    private long nextReap;
+    private long nextDeadline = Long.MAX_VALUE;
+
+    public AquariumDriver(AquariumHost<P, ?> host, CurrentTimeMillis currentTimeMillis, long feedIntervalMillis, long rescanIntervalMillis) {
+        this(host, currentTimeMillis, feedIntervalMillis, rescanIntervalMillis, -1, -1);
+    }
+
+    /**
+     * Also {@link AquariumHost#reapTheSchool reaps} and {@link AquariumHost#pruneTheSchool prunes} every reap interval, unless the
+     * interval is negative. Departed members get the same grace as expunged ones.
+     */
+    public AquariumDriver(AquariumHost<P, ?> host,
+        CurrentTimeMillis currentTimeMillis,
+        long feedIntervalMillis,
+        long rescanIntervalMillis,
+        long reapIntervalMillis,
+        long expungedGraceMillis) {
+        this.host = host;
+        this.currentTimeMillis = currentTimeMillis;
+        this.feedIntervalMillis = feedIntervalMillis;
+        this.rescanIntervalMillis = rescanIntervalMillis;
+        this.reapIntervalMillis = reapIntervalMillis;
+        this.expungedGraceMillis = expungedGraceMillis;
+        this.nextReap = reapIntervalMillis < 0 ? Long.MAX_VALUE : 0;
+    }
+
+    /**
+     * Tends the school until {@link #stop()} is called.
+     */
+    @Override
+    public void run() {
+        while (running) {
+            long waitMillis;
+            try {
+                waitMillis = tend();
+            } catch (Exception x) {
+                LOG.error("Failed to tend the school", x);
+                waitMillis = rescanIntervalMillis;
+            }
+            try {
+                synchronized (signal) {
+                    if (!signaled && running && waitMillis > 0) {
+                        signal.wait(waitMillis);
+                    }
+                    signaled = false;
+                }
+            } catch (InterruptedException x) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    public void stop() {
+        running = false;
+        wake();
+    }
+
+    /**
+     * Schedules a tap for a partition which changed locally, e.g. after {@link Aquarium#suggestState}.
+     */
+    public void changed(P partition) {
+        changed.add(partition);
+        wake();
+    }
+
+    /**
+     * One pass over whatever changed since the last pass.
+     *
+     * @return how long to wait for a change before the next pass is due anyway
+     */
+    long tend() throws Exception {
+        Liveliness liveliness = host.liveliness();
+        if (!livelinessWatched) {
+            livelinessWatched = liveliness.watch((rootMember, ackMember) -> {
+                livelinessChanged = true;
+                wake();
+            });
+        }
+        watchPartitions();
+
+        long now = currentTimeMillis.get();
+        if (now >= nextFeed) {
+            livelinessChanged = false;
+            host.feedTheFish();
+            nextFeed = now + feedIntervalMillis;
+        } else if (livelinessChanged) {
+            livelinessChanged = false;
+            liveliness.acknowledgeOther();
+        }
+
+        long livelyChanges = liveliness.livelyChanges();
+        if (livelyChanges != knownLivelyChanges || now >= nextDeadline) {
+            knownLivelyChanges = livelyChanges;
+            changed.addAll(known.keySet());
+        }
+        if (now >= nextRescan) {
+            changed.addAll(unwatched);
+            changed.addAll(failed);
+            failed.clear();
+            nextRescan = now + rescanIntervalMillis;
+        }
+
+        // drained first, as a tap may schedule its partition again
+        List<P> tending = new ArrayList<>(changed);
+        changed.removeAll(tending);
+        for (P partition : tending) {
+            Aquarium aquarium = host.get(partition);
+            if (aquarium != null) {
+                try {
+                    long transitions = aquarium.transitions();
+                    aquarium.acknowledgeOther();
+                    aquarium.tapTheGlass();
+                    if (aquarium.transitions() != transitions) {
+                        // a tap may stop to await a quorum its own write already satisfied
+                        changed.add(partition);
+                    }
+                } catch (Exception x) {
+                    LOG.error("Failed to tend partition {}", new Object[] { partition }, x);
+                    failed.add(partition);
+                }
+            }
+        }
+
+        now = currentTimeMillis.get();
+        if (now >= nextReap) {
+            host.reapTheSchool(expungedGraceMillis);
+            try {
+                host.pruneTheSchool(expungedGraceMillis);
+            } catch (Exception x) {
+                LOG.error("Failed to prune liveliness", x);
+            }
+            nextReap = now + reapIntervalMillis;
+        }
+
+        nextDeadline = liveliness.nextDeadline(now);
+        long next = Math.min(Math.min(nextFeed, nextDeadline), nextReap);
+        if (!unwatched.isEmpty() || !failed.isEmpty()) {
+            next = Math.min(next, nextRescan);
+        }
+        return changed.isEmpty() ? Math.max(0, next - now) : 0;
+    }
+
+    private void watchPartitions() throws Exception {
+        long partitionsVersion = host.partitionsVersion();
+        if (partitionsVersion == knownPartitionsVersion) {
+            return;
+        }
+        knownPartitionsVersion = partitionsVersion;
+
+        Set<P> partitions = host.partitions();
+        for (Iterator<Map.Entry<P, Aquarium>> iterator = known.entrySet().iterator(); iterator.hasNext();) {
+            Map.Entry<P, Aquarium> entry = iterator.next();
+            if (!partitions.contains(entry.getKey())) {
+                entry.getValue().unwatch(watchers.remove(entry.getKey()));
+                iterator.remove();
+            }
+        }
+        unwatched.retainAll(partitions);
+        failed.retainAll(partitions);
+        for (P partition : partitions) {
+            Aquarium aquarium = host.get(partition);
+            Aquarium replaced = known.get(partition);
+            if (aquarium != null && replaced != aquarium) {
+                if (replaced != null) {
+                    replaced.unwatch(watchers.get(partition));
+                }
+                known.put(partition, aquarium);
+                Runnable watcher = () -> changed(partition);
+                watchers.put(partition, watcher);
+                if (aquarium.watch(watcher)) {
+                    unwatched.remove(partition);
+                } else {
+                    unwatched.add(partition);
+                }
+                changed.add(partition);
+            }
+        }
+    }
+
+    private void wake() {
+        synchronized (signal) {
+            signaled = true;
+            signal.notifyAll();
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package com.jivesoftware.os.aquarium;
+
+import com.google.common.collect.Sets;
+import com.jivesoftware.os.aquarium.interfaces.AtQuorum;
+import com.jivesoftware.os.aquarium.interfaces.AwaitLivelyEndState;
+import com.jivesoftware.os.aquarium.interfaces.CurrentMembers;
+import com.jivesoftware.os.aquarium.interfaces.DualStateStorage;
+import com.jivesoftware.os.aquarium.interfaces.MemberLifecycle;
+import com.jivesoftware.os.aquarium.interfaces.PartitionedStateStorage;
+import com.jivesoftware.os.aquarium.interfaces.TransitionQuorum;
+import com.jivesoftware.os.jive.utils.ordered.id.OrderIdProvider;
+import com.jivesoftware.os.mlogger.core.MetricLogger;
+import com.jivesoftware.os.mlogger.core.MetricLoggerFactory;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hosts one member's aquariums for many partitions. Every aquarium shares the host's {@link Liveliness}, {@link MemberRegistry}
+ * and storage, so the member is fed once per pass no matter how many partitions it serves, and acknowledge and tap work runs
+ * in one pass over all partitions instead of a polling loop per partition.
+ *
+ * @param <P> partition type
+ * @param <T> lifecycle type
+ */
+public class AquariumHost<P, T> {
+
+    private static final MetricLogger LOG = MetricLoggerFactory.getLogger();
+
+    private final AquariumStats aquariumStats;
+    private final OrderIdProvider versionProvider;
+    private final PartitionedStateStorage<P, T> stateStorage;
+    private final TransitionQuorum transitionCurrent;
+    private final TransitionQuorum transitionDesired;
+    private final Liveliness liveliness;
+    private final MemberRegistry memberRegistry;
+    private final Class<T> lifecycleClass;
+    private final Member member;
+
+    private final Map<P, Aquarium> aquariums = new ConcurrentHashMap<>();
+    private final AtomicLong partitionsVersion = new AtomicLong();
+
+    public AquariumHost(AquariumStats aquariumStats,
+        OrderIdProvider versionProvider,
+        PartitionedStateStorage<P, T> stateStorage,
+        TransitionQuorum transitionCurrent,
+        TransitionQuorum transitionDesired,
+        Liveliness liveliness,
+        MemberRegistry memberRegistry,
+        Class<T> lifecycleClass,
+        Member member) {
+        this.aquariumStats = aquariumStats;
+        this.versionProvider = versionProvider;
+        this.stateStorage = stateStorage;
+        this.transitionCurrent = transitionCurrent;
+        this.transitionDesired = transitionDesired;
+        this.liveliness = liveliness;
+        this.memberRegistry = memberRegistry;
+        this.lifecycleClass = lifecycleClass;
+        this.member = memberRegistry.intern(member);
+    }
+
+    public Aquarium getOrCreate(P partition,
+        MemberLifecycle<T> memberLifecycle,
+        AtQuorum atQuorum,
+        CurrentMembers currentMembers,
+        AwaitLivelyEndState awaitLivelyEndState) throws Exception {
+
+        Aquarium aquarium = aquariums.get(partition);
+        if (aquarium == null) {
+            DualStateStorage<T> dualStateStorage = stateStorage.dual(partition);
+            if (dualStateStorage != null) {
+                aquarium = new Aquarium(aquariumStats,
+                    versionProvider,
+                    dualStateStorage,
+                    transitionCurrent,
+                    transitionDesired,
+                    liveliness,
+                    memberLifecycle,
+                    lifecycleClass,
+                    atQuorum,
+                    currentMembers,
+                    memberRegistry,
+                    member,
+                    awaitLivelyEndState);
+            } else {
+                aquarium = new Aquarium(aquariumStats,
+                    versionProvider,
+                    stateStorage.current(partition),
+                    stateStorage.desired(partition),
+                    transitionCurrent,
+                    transitionDesired,
+                    liveliness,
+                    memberLifecycle,
+                    lifecycleClass,
+                    atQuorum,
+                    currentMembers,
+                    memberRegistry,
+                    member,
+                    awaitLivelyEndState);
+            }
+            Aquarium existing = aquariums.putIfAbsent(partition, aquarium);
+            if (existing != null) {
+                aquarium = existing;
+            } else {
+                partitionsVersion.incrementAndGet();
+            }
+        }
+        return aquarium;
+    }
+
+    public Aquarium get(P partition) {
+        return aquariums.get(partition);
+    }
+
+    public Aquarium remove(P partition) {
+        Aquarium removed = aquariums.remove(partition);
+        if (removed != null) {
+            partitionsVersion.incrementAndGet();
+        }
+        return removed;
+    }
+
+    public Set<P> partitions() {
+        return aquariums.keySet();
+    }
+
+    /**
+     * @return a count which moves whenever a partition is added or removed
+     */
+    long partitionsVersion() {
+        return partitionsVersion.get();
+    }
+
+    Liveliness liveliness() {
+        return liveliness;
+    }
+
+    /**
+     * One pass of the work each aquarium would otherwise do on its own schedule: feed the shared liveliness once, then
+     * acknowledge and tap every partition. A partition which fails is logged and skipped so it cannot stall the others.
+     */
+    public void tendTheSchool() throws Exception {
+        feedTheFish();
+        acknowledgeOther();
+        tapTheGlass();
+    }
+
+    public void feedTheFish() throws Exception {
+        liveliness.feedTheFish();
+    }
+
+    public void acknowledgeOther() {
+        for (Map.Entry<P, Aquarium> entry : aquariums.entrySet()) {
+            try {
+                entry.getValue().acknowledgeOther();
+            } catch (Exception x) {
+                LOG.error("Failed to acknowledge others for partition {}", new Object[] { entry.getKey() }, x);
+            }
+        }
+    }
+
+    public void tapTheGlass() {
+        for (Map.Entry<P, Aquarium> entry : aquariums.entrySet()) {
+            try {
+                entry.getValue().tapTheGlass();
+            } catch (Exception x) {
+                LOG.error("Failed to tap the glass for partition {}", new Object[] { entry.getKey() }, x);
+            }
+        }
+    }
+
+    /**
+     * Reaps every partition, see {@link Aquarium#reap}.
+     *
+     * @return the number of member lifecycles deleted
+     */
+    public int reapTheSchool(long expungedGraceMillis) {
+        int reaped = 0;
+        for (Map.Entry<P, Aquarium> entry : aquariums.entrySet()) {
+            try {
+                reaped += entry.getValue().reap(expungedGraceMillis);
+            } catch (Exception x) {
+                LOG.error("Failed to reap partition {}", new Object[] { entry.getKey() }, x);
+            }
+        }
+        return reaped;
+    }
+
+    /**
+     * Prunes members which have left the ring of every partition from the shared liveliness, see {@link Liveliness#prune}.
+     *
+     * @return the number of departed members pruned
+     */
+    public int pruneTheSchool(long departedAfterMillis) throws Exception {
+        if (aquariums.isEmpty()) {
+            return 0; // without a partition we cannot tell who is in the ring
+        }
+        Set<Member> current = Sets.newHashSet();
+        for (Aquarium aquarium : aquariums.values()) {
+            current.addAll(aquarium.currentMembers().getCurrent());
+        }
+        return liveliness.prune(() -> current, departedAfterMillis);
+    }
+}
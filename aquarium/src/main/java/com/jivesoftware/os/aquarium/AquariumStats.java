@@ -14,6 +14,10 @@ public class AquariumStats {
     public final LongAdder tapTheGlass = new LongAdder();
     public final LongAdder tapTheGlassNotified = new LongAdder();
     public final LongAdder captureEndState = new LongAdder();
+    public final LongAdder reap = new LongAdder();
+    public final LongAdder reaped = new LongAdder();
+    public final LongAdder pruneLiveliness = new LongAdder();
+    public final LongAdder prunedLiveliness = new LongAdder();
 
     public final LongAdder getLivelyEndState = new LongAdder();
     public final LongAdder suggestState = new LongAdder();
@@ -28,10 +32,12 @@ public class AquariumStats {
 
     public final LongAdder getMyDesiredWaterline = new LongAdder();
     public final LongAdder getOthersDesiredWaterline = new LongAdder();
+    public final LongAdder snapshotDesiredWaterline = new LongAdder();
     public final LongAdder acknowledgeDesiredOther = new LongAdder();
 
     public final LongAdder getMyCurrentWaterline = new LongAdder();
     public final LongAdder getOthersCurrentWaterline = new LongAdder();
+    public final LongAdder snapshotCurrentWaterline = new LongAdder();
     public final LongAdder acknowledgeCurrentOther = new LongAdder();
 
     public final EnumMap<State, LongAdder> desiredState = new EnumMap<>(State.class);
@@ -0,0 +1,92 @@
+package com.jivesoftware.os.aquarium;
+
+import com.jivesoftware.os.aquarium.interfaces.MemberLifecycle;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Caches another {@link MemberLifecycle}. Lifecycles are kept until the delegate's {@link MemberLifecycle#epoch epoch} moves, and
+ * inside {@link #scoped} every lifecycle looked up by the calling thread is kept until the scope ends, so a pass over storage looks
+ * each member up at most once even when the delegate has no epoch.
+ *
+ * @param <T> lifecycle type
+ */
+class CachedMemberLifecycle<T> implements MemberLifecycle<T> {
+
+    private final MemberLifecycle<T> memberLifecycle;
+    private final ThreadLocal<Map<Member, T>> scope = new ThreadLocal<>();
+    private volatile Epoch<T> epoch = new Epoch<>(-1);
+
+    CachedMemberLifecycle(MemberLifecycle<T> memberLifecycle) {
+        this.memberLifecycle = memberLifecycle;
+    }
+
+    @Override
+    public T get(Member member) throws Exception {
+        Map<Member, T> scoped = scope.get();
+        if (scoped == null) {
+            return load(member);
+        }
+        T lifecycle = scoped.get(member);
+        if (lifecycle == null) {
+            lifecycle = load(member);
+            if (lifecycle != null) {
+                scoped.put(member, lifecycle);
+            }
+        }
+        return lifecycle;
+    }
+
+    @Override
+    public long epoch() throws Exception {
+        return memberLifecycle.epoch();
+    }
+
+    /**
+     * Runs the callable with the lifecycles it looks up held until it returns. Nested scopes share the outermost scope.
+     */
+    <R> R scoped(Callable<R> callable) throws Exception {
+        if (scope.get() != null) {
+            return callable.call();
+        }
+        scope.set(new HashMap<>());
+        try {
+            return callable.call();
+        } finally {
+            scope.remove();
+        }
+    }
+
+    private T load(Member member) throws Exception {
+        long current = memberLifecycle.epoch();
+        if (current == -1) {
+            return memberLifecycle.get(member);
+        }
+        Epoch<T> cached = epoch;
+        if (cached.epoch != current) {
+            cached = new Epoch<>(current);
+            epoch = cached;
+        }
+        T lifecycle = cached.lifecycles.get(member);
+        if (lifecycle == null) {
+            // loaded after reading the epoch, so it is at least as new as the epoch it is cached under
+            lifecycle = memberLifecycle.get(member);
+            if (lifecycle != null) {
+                cached.lifecycles.put(member, lifecycle);
+            }
+        }
+        return lifecycle;
+    }
+
+    private static class Epoch<T> {
+
+        private final long epoch;
+        private final Map<Member, T> lifecycles = new ConcurrentHashMap<>();
+
+        private Epoch(long epoch) {
+            this.epoch = epoch;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.jivesoftware.os.aquarium;
+
+import com.google.common.collect.ImmutableSet;
+import com.jivesoftware.os.aquarium.interfaces.AtQuorum;
+import com.jivesoftware.os.aquarium.interfaces.CurrentMembers;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+/**
+ * The current members as of one {@link CurrentMembers#epoch epoch}: sorted, so that rows which arrive in member order are matched
+ * by walking forward instead of hashing, with their registry ids as a mask, and with the quorum answer for each ack count
+ * remembered once asked. Members without an epoch are snapshotted afresh on every read, except inside {@link #scoped}, where the
+ * first snapshot taken of them is kept until the scope ends.
+ */
+class CurrentMembersSnapshot {
+
+    private static final byte UNKNOWN = 0;
+    private static final byte NOT_QUORUM = 1;
+    private static final byte QUORUM = 2;
+
+    private final long epoch;
+    private final Set<Member> members;
+    private final Member[] sorted;
+    private final MemberBitSet bits;
+    private final AtQuorum atQuorum;
+    private final byte[] quorum; // indexed by ack count, up to every current member having acked
+
+    private static final ThreadLocal<Map<CurrentMembers, CurrentMembersSnapshot>> SCOPE = new ThreadLocal<>();
+
+    private CurrentMembersSnapshot(long epoch, Set<Member> members, MemberRegistry memberRegistry, AtQuorum atQuorum) {
+        this.epoch = epoch;
+        this.members = ImmutableSet.copyOf(members);
+        this.sorted = members.toArray(new Member[members.size()]);
+        Arrays.sort(sorted);
+        this.bits = memberRegistry.bitSet(members);
+        this.atQuorum = atQuorum;
+        this.quorum = new byte[sorted.length + 1];
+    }
+
+    /**
+     * @return the previous snapshot if the members' epoch has not moved, the scope's snapshot if they have no epoch, otherwise a
+     *     new one
+     */
+    static CurrentMembersSnapshot of(CurrentMembersSnapshot previous,
+        CurrentMembers currentMembers,
+        MemberRegistry memberRegistry,
+        AtQuorum atQuorum) throws Exception {
+        long epoch = currentMembers.epoch();
+        if (previous != null && epoch != -1 && previous.epoch == epoch) {
+            return previous;
+        }
+        Map<CurrentMembers, CurrentMembersSnapshot> scoped = (epoch == -1) ? SCOPE.get() : null;
+        if (scoped == null) {
+            return new CurrentMembersSnapshot(epoch, currentMembers.getCurrent(), memberRegistry, atQuorum);
+        }
+        CurrentMembersSnapshot snapshot = scoped.get(currentMembers);
+        if (snapshot == null) {
+            snapshot = new CurrentMembersSnapshot(epoch, currentMembers.getCurrent(), memberRegistry, atQuorum);
+            scoped.put(currentMembers, snapshot);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Runs the callable with members which have no epoch snapshotted at most once, e.g. for a whole tap. Nested scopes share the
+     * outermost scope.
+     */
+    static <R> R scoped(Callable<R> callable) throws Exception {
+        if (SCOPE.get() != null) {
+            return callable.call();
+        }
+        SCOPE.set(new IdentityHashMap<>());
+        try {
+            return callable.call();
+        } finally {
+            SCOPE.remove();
+        }
+    }
+
+    Set<Member> members() {
+        return members;
+    }
+
+    Member[] sorted() {
+        return sorted;
+    }
+
+    MemberBitSet bits() {
+        return bits;
+    }
+
+    boolean contains(Member member) {
+        return Arrays.binarySearch(sorted, member) >= 0;
+    }
+
+    boolean isQuorum(int count) throws Exception {
+        if (count < 0 || count >= quorum.length) {
+            return atQuorum.is(count); // acks from members which are no longer current
+        }
+        byte is = quorum[count];
+        if (is == UNKNOWN) {
+            is = atQuorum.is(count) ? QUORUM : NOT_QUORUM;
+            quorum[count] = is;
+        }
+        return is == QUORUM;
+    }
+
+    Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Matches members which arrive in ascending order by walking forward through the sorted members. A member which arrives out
+     * of order is still matched, by a binary search.
+     */
+    class Cursor {
+
+        private int index;
+
+        boolean contains(Member member) {
+            while (index < sorted.length) {
+                int c = member.compareTo(sorted[index]);
+                if (c == 0) {
+                    return true;
+                } else if (c < 0) {
+                    if (index == 0 || member.compareTo(sorted[index - 1]) > 0) {
+                        return false;
+                    }
+                    break; // out of order
+                }
+                index++;
+            }
+            int found = Arrays.binarySearch(sorted, member);
+            if (found >= 0) {
+                index = found;
+                return true;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.jivesoftware.os.aquarium;
+
+import com.google.common.collect.Lists;
+import com.jivesoftware.os.aquarium.interfaces.DualStateStorage;
+import com.jivesoftware.os.aquarium.interfaces.StateStorage;
+import java.util.List;
+
+/**
+ * Reads current and desired waterlines together. When both live in a {@link DualStateStorage} and both readers would otherwise
+ * fully scan their storage, one combined scan feeds both, and both sets of acknowledgements are written in one transaction where
+ * the storage allows. Otherwise each reader goes its own way.
+ *
+ * @param <T> lifecycle type
+ */
+class DualReadWaterline<T> {
+
+    private final DualStateStorage<T> dualStateStorage; // null when current and desired are unrelated
+    private final ReadWaterline<T> readCurrent;
+    private final ReadWaterline<T> readDesired;
+
+    DualReadWaterline(DualStateStorage<T> dualStateStorage, ReadWaterline<T> readCurrent, ReadWaterline<T> readDesired) {
+        this.dualStateStorage = dualStateStorage;
+        this.readCurrent = readCurrent;
+        this.readDesired = readDesired;
+    }
+
+    /**
+     * @return the current snapshot followed by the desired snapshot
+     */
+    QuorumSnapshot[] snapshot() throws Exception {
+        if (dualStateStorage == null || !readCurrent.isScanned() || !readDesired.isScanned()) {
+            return new QuorumSnapshot[] { readCurrent.snapshot(), readDesired.snapshot() };
+        }
+
+        ReadWaterline<T>.SnapshotScan currentScan = readCurrent.snapshotScan();
+        ReadWaterline<T>.SnapshotScan desiredScan = readDesired.snapshotScan();
+        dualStateStorage.scan((desired, rootMember, isSelf, ackMember, lifecycle, state, timestamp, version) -> {
+            return (desired ? desiredScan : currentScan).stream(rootMember, isSelf, ackMember, lifecycle, state, timestamp, version);
+        });
+        return new QuorumSnapshot[] { currentScan.snapshot(), desiredScan.snapshot() };
+    }
+
+    void acknowledgeOther(Member member) throws Exception {
+        if (dualStateStorage == null || !readCurrent.acknowledgesByScan() || !readDesired.acknowledgesByScan()) {
+            readCurrent.acknowledgeOther(member);
+            readDesired.acknowledgeOther(member);
+            return;
+        }
+
+        List<Acknowledgement<T>> currentAcks = Lists.newArrayList();
+        List<Acknowledgement<T>> desiredAcks = Lists.newArrayList();
+        ReadWaterline<T>.AcknowledgeScan currentScan = readCurrent.acknowledgeScan(member, (rootMember, otherMember, lifecycle, state, timestamp) -> {
+            return currentAcks.add(new Acknowledgement<>(rootMember, otherMember, lifecycle, state, timestamp));
+        });
+        ReadWaterline<T>.AcknowledgeScan desiredScan = readDesired.acknowledgeScan(member, (rootMember, otherMember, lifecycle, state, timestamp) -> {
+            return desiredAcks.add(new Acknowledgement<>(rootMember, otherMember, lifecycle, state, timestamp));
+        });
+        dualStateStorage.scan((desired, rootMember, isSelf, ackMember, lifecycle, state, timestamp, version) -> {
+            return (desired ? desiredScan : currentScan).stream(rootMember, isSelf, ackMember, lifecycle, state, timestamp, version);
+        });
+        currentScan.done();
+        desiredScan.done();
+
+        StateStorage<T> currentStorage = dualStateStorage.current();
+        StateStorage<T> desiredStorage = dualStateStorage.desired();
+        StateStorage.StateUpdates<T> currentUpdates = updates(currentAcks);
+        StateStorage.StateUpdates<T> desiredUpdates = updates(desiredAcks);
+        if (currentAcks.isEmpty()) {
+            if (!desiredAcks.isEmpty()) {
+                desiredStorage.update(desiredUpdates);
+            }
+        } else if (desiredAcks.isEmpty()) {
+            currentStorage.update(currentUpdates);
+        } else if (!currentStorage.updateWith(desiredStorage, currentUpdates, desiredUpdates)) {
+            currentStorage.update(currentUpdates);
+            desiredStorage.update(desiredUpdates);
+        }
+    }
+
+    private static <T> StateStorage.StateUpdates<T> updates(List<Acknowledgement<T>> acks) {
+        return setState -> {
+            for (Acknowledgement<T> ack : acks) {
+                if (!setState.set(ack.rootMember, ack.ackMember, ack.lifecycle, ack.state, ack.timestamp)) {
+                    return false;
+                }
+            }
+            return true;
+        };
+    }
+
+    private static class Acknowledgement<T> {
+
+        private final Member rootMember;
+        private final Member ackMember;
+        private final T lifecycle;
+        private final State state;
+        private final long timestamp;
+
+        private Acknowledgement(Member rootMember, Member ackMember, T lifecycle, State state, long timestamp) {
+            this.rootMember = rootMember;
+            this.ackMember = ackMember;
+            this.lifecycle = lifecycle;
+            this.state = state;
+            this.timestamp = timestamp;
+        }
+    }
+}
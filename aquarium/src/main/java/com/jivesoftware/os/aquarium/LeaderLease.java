@@ -0,0 +1,50 @@
+package com.jivesoftware.os.aquarium;
+
+import com.jivesoftware.os.aquarium.interfaces.CurrentTimeMillis;
+
+/**
+ * Proof that this member was the lively leader when the lease was acquired. Other members cannot consider this member dead, and
+ * so cannot elect a new leader on their own, before this member's alive-until timestamp, so the lease expires a safety margin
+ * ahead of it and checking it is a clock comparison. A leader can still be demoted by a forced desired state before the lease
+ * expires, which is what the fencing token is for: storage which remembers the highest token it has seen can reject writes
+ * from an older term.
+ */
+public class LeaderLease {
+
+    private final Waterline leader;
+    private final long expiresAtTimestamp;
+    private final CurrentTimeMillis currentTimeMillis;
+
+    LeaderLease(Waterline leader, long expiresAtTimestamp, CurrentTimeMillis currentTimeMillis) {
+        this.leader = leader;
+        this.expiresAtTimestamp = expiresAtTimestamp;
+        this.currentTimeMillis = currentTimeMillis;
+    }
+
+    public boolean isValid() {
+        return currentTimeMillis.get() < expiresAtTimestamp;
+    }
+
+    /**
+     * @return the leader waterline's timestamp, which increases with every term
+     */
+    public long getFencingToken() {
+        return leader.getTimestamp();
+    }
+
+    public Waterline getLeader() {
+        return leader;
+    }
+
+    public long getExpiresAtTimestamp() {
+        return expiresAtTimestamp;
+    }
+
+    @Override
+    public String toString() {
+        return "LeaderLease{"
+            + "leader=" + leader
+            + ", expiresAtTimestamp=" + expiresAtTimestamp
+            + '}';
+    }
+}
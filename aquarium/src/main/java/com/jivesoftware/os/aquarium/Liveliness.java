@@ -1,10 +1,18 @@
 package com.jivesoftware.os.aquarium;
 
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.jivesoftware.os.aquarium.interfaces.AtQuorum;
+import com.jivesoftware.os.aquarium.interfaces.CurrentMembers;
 import com.jivesoftware.os.aquarium.interfaces.CurrentTimeMillis;
 import com.jivesoftware.os.aquarium.interfaces.IsMemberAlive;
 import com.jivesoftware.os.aquarium.interfaces.LivelinessStorage;
+import com.jivesoftware.os.aquarium.interfaces.LivelinessStorage.LivelinessStream;
+import com.jivesoftware.os.aquarium.interfaces.LivelinessStorage.LivelinessWatcher;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
@@ -14,9 +22,15 @@ import java.util.concurrent.atomic.AtomicLong;
  */
 public class Liveliness implements IsMemberAlive {
 
+    /**
+     * Every this many delta passes a full pass is made instead, which rewrites any acknowledgement that was lost since.
+     */
+    static final int DELTA_PASSES_PER_FULL_PASS = 100;
+
     private final AquariumStats aquariumStats;
     private final CurrentTimeMillis currentTimeMillis;
     private final LivelinessStorage livelinessStorage;
+    private final MemberRegistry memberRegistry;
     private final Member member;
     private final AtQuorum atQuorum;
     private final long deadAfterMillis;
@@ -24,10 +38,24 @@ public class Liveliness implements IsMemberAlive {
 
     private final AtomicLong myAliveUntilTimestamp = new AtomicLong(-1);
     private final ConcurrentHashMap<Member, Long> otherAliveUntilTimestamp = new ConcurrentHashMap<>();
+    private volatile long acknowledgedSinceVersion = -1;
+    private volatile int deltaPasses;
+    private final AtomicLong livelyChanges = new AtomicLong();
+
+    public Liveliness(AquariumStats aquariumStats,
+        CurrentTimeMillis currentTimeMillis,
+        LivelinessStorage livelinessStorage,
+        Member member,
+        AtQuorum atQuorum,
+        long deadAfterMillis,
+        AtomicLong firstLivelinessTimestamp) {
+        this(aquariumStats, currentTimeMillis, livelinessStorage, new MemberRegistry(), member, atQuorum, deadAfterMillis, firstLivelinessTimestamp);
+    }
 
     public Liveliness(AquariumStats aquariumStats,
         CurrentTimeMillis currentTimeMillis,
         LivelinessStorage livelinessStorage,
+        MemberRegistry memberRegistry,
         Member member,
         AtQuorum atQuorum,
         long deadAfterMillis,
@@ -36,9 +64,11 @@ public class Liveliness implements IsMemberAlive {
         this.aquariumStats = aquariumStats;
         this.currentTimeMillis = currentTimeMillis;
         this.livelinessStorage = livelinessStorage;
+        this.memberRegistry = memberRegistry;
         this.atQuorum = atQuorum;
         this.member = member;
-        this.deadAfterMillis = deadAfterMillis;
+        // both a heartbeat and its acknowledgement may wait out the storage's write lag before anyone reads them
+        this.deadAfterMillis = deadAfterMillis > 0 ? deadAfterMillis + 2 * livelinessStorage.maxWriteLagMillis() : deadAfterMillis;
         this.firstLivelinessTimestamp = firstLivelinessTimestamp;
     }
 
@@ -52,81 +82,235 @@ public class Liveliness implements IsMemberAlive {
         /*LOG.info("Blowing bubbles...");*/
         long timestamp = currentTimeMillis.get();
         livelinessStorage.update(setLiveliness -> setLiveliness.set(member, member, timestamp));
-        firstLivelinessTimestamp.compareAndSet(-1, timestamp);
+        if (firstLivelinessTimestamp.compareAndSet(-1, timestamp)) {
+            livelyChanges.incrementAndGet(); // members we have not heard from stop being alive forever
+        }
         /*LOG.info("Blew bubbles in {}", (currentTimeMillis.get() - timestamp));*/
     }
 
-    private void acknowledgeOther() throws Exception {
+    /**
+     * Acknowledges other members' heartbeats without blowing a bubble of our own.
+     */
+    public void acknowledgeOther() throws Exception {
         /*LOG.info("Acknowledging others...");
         long start = currentTimeMillis.get();*/
 
+        long now = currentTimeMillis.get();
         long[] myAliveCurrentTimestamp = {-1L};
         long[] myAliveLatestAck = {-1};
-        Set<Member> myAliveAcked = Sets.newHashSet();
-
-        livelinessStorage.update(setLiveliness -> {
-            LivelinessEntry[] ackOtherE = new LivelinessEntry[1];
-            boolean[] ackOtherColdstart = {true};
-
-            //byte[] fromKey = stateKey(versionedPartitionName.getPartitionName(), context, versionedPartitionName.getPartitionVersion(), null, null);
-            livelinessStorage.scan(null, null, (rootMember, isSelf, ackMember, timestamp, version) -> {
-                if (ackOtherE[0] != null && !ackOtherE[0].rootMember.equals(rootMember)) {
-                    if (ackOtherColdstart[0]) {
-                        setLiveliness.set(ackOtherE[0].rootMember, member, ackOtherE[0].timestamp);
+        MemberBitSet myAliveAcked = memberRegistry.bitSet();
+        LivelinessStream myAlive = (rootMember, isSelf, ackMember, timestamp, version) -> {
+            if (rootMember.equals(member)) {
+                if (myAliveCurrentTimestamp[0] == -1L && isSelf) {
+                    myAliveCurrentTimestamp[0] = timestamp;
+                    myAliveAcked.set(memberRegistry.id(ackMember));
+                } else if (myAliveCurrentTimestamp[0] != -1L) {
+                    if (timestamp >= (myAliveCurrentTimestamp[0] - deadAfterMillis)) {
+                        myAliveLatestAck[0] = Math.max(myAliveLatestAck[0], timestamp);
+                        myAliveAcked.set(memberRegistry.id(ackMember));
                     }
-                    ackOtherE[0] = null;
-                    ackOtherColdstart[0] = true;
                 }
 
-                if (ackOtherE[0] == null && isSelf && !member.equals(rootMember)) {
-                    ackOtherE[0] = new LivelinessEntry(rootMember, timestamp);
-                }
-                if (ackOtherE[0] != null && member.equals(ackMember)) {
-                    ackOtherColdstart[0] = false;
-                    if (timestamp != ackOtherE[0].timestamp) {
-                        setLiveliness.set(ackOtherE[0].rootMember, member, ackOtherE[0].timestamp);
+                if (!isSelf) {
+                    long aliveUntil = timestamp + deadAfterMillis;
+                    Long previous = otherAliveUntilTimestamp.put(ackMember, aliveUntil);
+                    if (previous == null || (previous >= now) != (aliveUntil >= now)) {
+                        livelyChanges.incrementAndGet();
                     }
                 }
+            }
+            return true;
+        };
 
-                if (rootMember.equals(member)) {
-                    if (myAliveCurrentTimestamp[0] == -1L && isSelf) {
-                        myAliveCurrentTimestamp[0] = timestamp;
-                        myAliveAcked.add(ackMember);
-                    } else if (myAliveCurrentTimestamp[0] != -1L) {
-                        if (timestamp >= (myAliveCurrentTimestamp[0] - deadAfterMillis)) {
-                            myAliveLatestAck[0] = Math.max(myAliveLatestAck[0], timestamp);
-                            myAliveAcked.add(ackMember);
+        boolean scanSince = livelinessStorage.supportsScanSince();
+        long sinceVersion = acknowledgedSinceVersion;
+        long[] highwater = {sinceVersion};
+        boolean updated;
+        if (scanSince && sinceVersion != -1 && deltaPasses < DELTA_PASSES_PER_FULL_PASS) {
+            // only self rows which changed since the last pass can need a new acknowledgement
+            updated = livelinessStorage.update(setLiveliness -> livelinessStorage.scanSince(sinceVersion,
+                (rootMember, isSelf, ackMember, timestamp, version) -> {
+                    highwater[0] = Math.max(highwater[0], version);
+                    if (isSelf && !member.equals(rootMember)) {
+                        setLiveliness.set(rootMember, member, timestamp);
+                    }
+                    return true;
+                }));
+            livelinessStorage.scan(member, null, myAlive);
+            if (updated) {
+                deltaPasses++;
+            } else {
+                highwater[0] = sinceVersion;
+            }
+        } else {
+            updated = livelinessStorage.update(setLiveliness -> {
+                LivelinessEntry[] ackOtherE = new LivelinessEntry[1];
+                boolean[] ackOtherColdstart = {true};
+
+                //byte[] fromKey = stateKey(versionedPartitionName.getPartitionName(), context, versionedPartitionName.getPartitionVersion(), null, null);
+                livelinessStorage.scan(null, null, (rootMember, isSelf, ackMember, timestamp, version) -> {
+                    highwater[0] = Math.max(highwater[0], version);
+                    if (ackOtherE[0] != null && !ackOtherE[0].rootMember.equals(rootMember)) {
+                        if (ackOtherColdstart[0]) {
+                            setLiveliness.set(ackOtherE[0].rootMember, member, ackOtherE[0].timestamp);
                         }
+                        ackOtherE[0] = null;
+                        ackOtherColdstart[0] = true;
                     }
 
-                    if (!isSelf) {
-                        otherAliveUntilTimestamp.put(ackMember, timestamp + deadAfterMillis);
+                    if (ackOtherE[0] == null && isSelf && !member.equals(rootMember)) {
+                        ackOtherE[0] = new LivelinessEntry(rootMember, timestamp);
                     }
-                }
+                    if (ackOtherE[0] != null && member.equals(ackMember)) {
+                        ackOtherColdstart[0] = false;
+                        if (timestamp != ackOtherE[0].timestamp) {
+                            setLiveliness.set(ackOtherE[0].rootMember, member, ackOtherE[0].timestamp);
+                        }
+                    }
+
+                    return myAlive.stream(rootMember, isSelf, ackMember, timestamp, version);
+                });
 
+                if (ackOtherE[0] != null && ackOtherColdstart[0]) {
+                    setLiveliness.set(ackOtherE[0].rootMember, member, ackOtherE[0].timestamp);
+                }
                 return true;
             });
-
-            if (ackOtherE[0] != null && ackOtherColdstart[0]) {
-                setLiveliness.set(ackOtherE[0].rootMember, member, ackOtherE[0].timestamp);
+            deltaPasses = 0;
+            if (!updated) {
+                highwater[0] = -1; // a rejected full pass is followed by another
             }
-            return true;
-        });
+        }
+        if (scanSince) {
+            // only a committed acknowledgement may stop the next pass from writing it again
+            acknowledgedSinceVersion = highwater[0];
+        }
 
-        if (myAliveCurrentTimestamp[0] != -1L && atQuorum.is(myAliveAcked.size())) {
+        long myAliveUntil;
+        if (myAliveCurrentTimestamp[0] != -1L && atQuorum.is(myAliveAcked.cardinality())) {
             if (myAliveLatestAck[0] < 0) {
                 // only member of the aquarium
-                myAliveUntilTimestamp.set(myAliveCurrentTimestamp[0] + deadAfterMillis);
+                myAliveUntil = myAliveCurrentTimestamp[0] + deadAfterMillis;
             } else {
-                myAliveUntilTimestamp.set(myAliveLatestAck[0] + deadAfterMillis);
+                myAliveUntil = myAliveLatestAck[0] + deadAfterMillis;
             }
         } else {
-            myAliveUntilTimestamp.set(-1);
+            myAliveUntil = -1;
+        }
+        long previous = myAliveUntilTimestamp.getAndSet(myAliveUntil);
+        if ((previous >= now) != (myAliveUntil >= now)) {
+            livelyChanges.incrementAndGet();
         }
 
         /*LOG.info("Acknowledged others in {}", (currentTimeMillis.get() - start));*/
     }
 
+    /**
+     * Deletes the rows of members which have left the ring and forgets them, so that acknowledging others costs the live ring
+     * rather than every member ever seen. A departed member is only pruned once it has not blown a bubble for the given time and
+     * is no longer alive. Nothing is forgotten unless its rows were deleted, since rows read again would bring it back.
+     *
+     * @return the number of departed members pruned, 0 if the storage did not delete them
+     */
+    public int prune(CurrentMembers currentMembers, long departedAfterMillis) throws Exception {
+        aquariumStats.pruneLiveliness.increment();
+        long now = currentTimeMillis.get();
+        long firstTimestamp = firstLivelinessTimestamp.get();
+        if (firstTimestamp < 0 || (deadAfterMillis > 0 && now <= firstTimestamp + deadAfterMillis)) {
+            // members we have not heard from are still presumed alive, and would be presumed alive again once forgotten
+            return 0;
+        }
+
+        Set<Member> current = currentMembers.getCurrent();
+        Map<Member, Long> heartbeats = Maps.newHashMap();
+        Map<Member, List<Member>> departedAcks = Maps.newHashMap();
+        livelinessStorage.scan(null, null, (rootMember, isSelf, ackMember, timestamp, version) -> {
+            if (!current.contains(rootMember) && !member.equals(rootMember)) {
+                heartbeats.merge(rootMember, isSelf ? timestamp : -1L, Math::max);
+            }
+            if (!isSelf && !current.contains(ackMember) && !member.equals(ackMember)) {
+                heartbeats.merge(ackMember, -1L, Math::max);
+                departedAcks.computeIfAbsent(ackMember, key -> Lists.newArrayList()).add(rootMember);
+            }
+            return true;
+        });
+
+        Set<Member> departed = Sets.newHashSet();
+        for (Map.Entry<Member, Long> heartbeat : heartbeats.entrySet()) {
+            Member other = heartbeat.getKey();
+            if (heartbeat.getValue() < now - departedAfterMillis && otherAliveUntilTimestamp.getOrDefault(other, -1L) < now) {
+                departed.add(other);
+            }
+        }
+        if (departed.isEmpty()) {
+            return 0;
+        }
+
+        boolean removed = livelinessStorage.remove(removeLiveliness -> {
+            for (Member other : departed) {
+                if (!removeLiveliness.remove(other, null)) {
+                    return false;
+                }
+                for (Member rootMember : departedAcks.getOrDefault(other, Collections.emptyList())) {
+                    if (!departed.contains(rootMember) && !removeLiveliness.remove(rootMember, other)) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        });
+        if (!removed) {
+            return 0;
+        }
+        otherAliveUntilTimestamp.keySet().removeAll(departed);
+        aquariumStats.prunedLiveliness.add(departed.size());
+        return departed.size();
+    }
+
+    /**
+     * Registers a watcher for heartbeats and acknowledgements written by other members.
+     *
+     * @return false if the storage cannot watch, in which case others are only acknowledged when the fish are fed
+     */
+    public boolean watch(LivelinessWatcher watcher) throws Exception {
+        return livelinessStorage.watch(watcher);
+    }
+
+    /**
+     * @return a count which moves whenever acknowledging others brought a member to life or killed it before its time
+     */
+    public long livelyChanges() {
+        return livelyChanges.get();
+    }
+
+    /**
+     * @return the earliest time after the given timestamp at which a member we know of stops being alive, or Long.MAX_VALUE
+     */
+    public long nextDeadline(long afterTimestamp) {
+        if (deadAfterMillis <= 0) {
+            return Long.MAX_VALUE;
+        }
+        long deadline = Long.MAX_VALUE;
+        long firstTimestamp = firstLivelinessTimestamp.get();
+        if (firstTimestamp >= 0) {
+            deadline = earliest(deadline, afterTimestamp, firstTimestamp + deadAfterMillis);
+        }
+        deadline = earliest(deadline, afterTimestamp, myAliveUntilTimestamp.get());
+        for (long aliveUntilTimestamp : otherAliveUntilTimestamp.values()) {
+            deadline = earliest(deadline, afterTimestamp, aliveUntilTimestamp);
+        }
+        return deadline;
+    }
+
+    private static long earliest(long deadline, long afterTimestamp, long aliveUntilTimestamp) {
+        // alive through aliveUntilTimestamp inclusive, so the change is observable one millisecond later
+        return (aliveUntilTimestamp >= afterTimestamp) ? Math.min(deadline, aliveUntilTimestamp + 1) : deadline;
+    }
+
+    long currentTimeMillis() {
+        return currentTimeMillis.get();
+    }
+
     public long aliveUntilTimestamp(Member asMember) throws Exception {
         if (member.equals(asMember)) {
             return myAliveUntilTimestamp();
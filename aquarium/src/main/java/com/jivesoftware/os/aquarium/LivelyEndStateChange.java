@@ -0,0 +1,64 @@
+package com.jivesoftware.os.aquarium;
+
+/**
+ * Transitions of a member's {@link LivelyEndState} as seen by the tap loop.
+ */
+public enum LivelyEndStateChange {
+
+    /**
+     * This member came online as the leader.
+     */
+    becameLeader,
+    /**
+     * This member came online as a follower.
+     */
+    becameFollower,
+    /**
+     * This member was online and no longer is.
+     */
+    wentOffline,
+    /**
+     * The leader this member sees is a different member, a new term of the same member, or gone.
+     */
+    leaderChanged;
+
+    /**
+     * @param previousRole the {@link #onlineRole} recorded when the previous end state was tapped
+     */
+    static void changes(State previousRole, State currentRole, LivelyEndState previous, LivelyEndState current, Emit emit) throws Exception {
+        if (previousRole != currentRole) {
+            if (currentRole == State.leader) {
+                emit.emit(becameLeader);
+            } else if (currentRole == State.follower) {
+                emit.emit(becameFollower);
+            } else {
+                emit.emit(wentOffline);
+            }
+        }
+
+        Waterline previousLeader = previous != null ? previous.getLeaderWaterline() : null;
+        Waterline currentLeader = current != null ? current.getLeaderWaterline() : null;
+        if (!sameLeader(previousLeader, currentLeader)) {
+            emit.emit(leaderChanged);
+        }
+    }
+
+    /**
+     * @return the current state if online, otherwise null
+     */
+    static State onlineRole(LivelyEndState livelyEndState) throws Exception {
+        return livelyEndState != null && livelyEndState.isOnline() ? livelyEndState.getCurrentState() : null;
+    }
+
+    private static boolean sameLeader(Waterline a, Waterline b) {
+        if (a == null || b == null) {
+            return a == b;
+        }
+        return a.getMember().equals(b.getMember()) && a.getTimestamp() == b.getTimestamp();
+    }
+
+    interface Emit {
+
+        void emit(LivelyEndStateChange change) throws Exception;
+    }
+}
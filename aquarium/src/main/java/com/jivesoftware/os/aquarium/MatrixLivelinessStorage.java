@@ -0,0 +1,46 @@
+package com.jivesoftware.os.aquarium;
+
+import com.jivesoftware.os.aquarium.interfaces.LivelinessStorage;
+
+/**
+ * In-memory {@link LivelinessStorage} over a {@link MatrixStateStorage} whose rows carry a heartbeat timestamp but neither
+ * lifecycle nor state.
+ */
+public class MatrixLivelinessStorage implements LivelinessStorage {
+
+    private final MatrixStateStorage<Void> stateStorage;
+
+    public MatrixLivelinessStorage(MemberRegistry memberRegistry) {
+        this.stateStorage = new MatrixStateStorage<>(memberRegistry);
+    }
+
+    @Override
+    public boolean scan(Member rootMember, Member otherMember, LivelinessStream stream) throws Exception {
+        return stateStorage.scan(rootMember, otherMember, null,
+            (root, isSelf, ackMember, lifecycle, state, timestamp, version) -> stream.stream(root, isSelf, ackMember, timestamp, version));
+    }
+
+    @Override
+    public boolean update(LivelinessUpdates updates) throws Exception {
+        return stateStorage.update(setState -> updates.updates((rootMember, otherMember, timestamp) -> {
+            return setState.set(rootMember, otherMember, null, null, timestamp);
+        }));
+    }
+
+    @Override
+    public long get(Member rootMember, Member otherMember) throws Exception {
+        return stateStorage.timestamp(rootMember, otherMember, null);
+    }
+
+    @Override
+    public boolean remove(LivelinessRemovals removals) throws Exception {
+        return removals.removals((rootMember, ackMember) -> {
+            if (ackMember == null) {
+                stateStorage.removeRoot(rootMember);
+            } else {
+                stateStorage.removeColumn(rootMember, ackMember);
+            }
+            return true;
+        });
+    }
+}
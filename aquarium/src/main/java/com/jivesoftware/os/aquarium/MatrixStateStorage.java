@@ -0,0 +1,411 @@
+package com.jivesoftware.os.aquarium;
+
+import com.jivesoftware.os.aquarium.interfaces.StateStorage;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * In-memory {@link StateStorage} for single process and embedded deployments, laid out as primitive matrices indexed by
+ * {@link MemberRegistry} ids. Each root member has one row per lifecycle holding a state, timestamp and version column per
+ * acknowledging member, so writes allocate nothing once a row has grown to the ring's size.
+ * <p>
+ * Rows are guarded by striped {@link StampedLock}s used as seqlocks: writers take the stripe's write lock, readers copy a root's
+ * rows into a reused per thread scratch under an optimistic read and fall back to the read lock only if writes keep overlapping.
+ * The stream is fed from the copy, so it may write to this storage. A full scan is a linear sweep over the matrices which streams
+ * roots in id order rather than member order.
+ *
+ * @param <T> lifecycle type
+ */
+public class MatrixStateStorage<T> implements StateStorage<T> {
+
+    private static final int STRIPES = 64;
+    private static final int OPTIMISTIC_ATTEMPTS = 3;
+    private static final byte ABSENT = 0;
+    private static final byte NO_STATE = -1;
+
+    private final MemberRegistry memberRegistry;
+    private final StampedLock[] stripes = new StampedLock[STRIPES];
+    private final AtomicLong versions = new AtomicLong();
+    private final ThreadLocal<Scratch> scratches = ThreadLocal.withInitial(Scratch::new);
+    private volatile Root[] roots = new Root[16];
+
+    public MatrixStateStorage(MemberRegistry memberRegistry) {
+        this.memberRegistry = memberRegistry;
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new StampedLock();
+        }
+    }
+
+    @Override
+    public boolean scan(Member rootMember, Member otherMember, T lifecycle, StateStream<T> stream) throws Exception {
+        int ackId = -1;
+        if (otherMember != null) {
+            ackId = memberRegistry.existingId(otherMember);
+            if (ackId == -1) {
+                return true;
+            }
+        }
+
+        Scratch scratch = scratch();
+        try {
+            if (rootMember != null) {
+                int rootId = memberRegistry.existingId(rootMember);
+                return rootId == -1 || scan(rootId, ackId, lifecycle, scratch, stream);
+            }
+            int count = roots.length;
+            for (int rootId = 0; rootId < count; rootId++) {
+                if (!scan(rootId, ackId, lifecycle, scratch, stream)) {
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            scratch.inUse = false;
+        }
+    }
+
+    @Override
+    public boolean update(StateUpdates<T> updates) throws Exception {
+        return updates.updates((rootMember, otherMember, lifecycle, state, timestamp) -> {
+            set(rootMember, otherMember, lifecycle, state != null ? state.getSerializedForm() : NO_STATE, timestamp);
+            return true;
+        });
+    }
+
+    @Override
+    public boolean remove(StateRemovals<T> removals) throws Exception {
+        return removals.removals((rootMember, lifecycle) -> {
+            Root root = existingRoot(rootMember);
+            if (root != null) {
+                StampedLock lock = stripe(root.id);
+                long stamp = lock.writeLock();
+                try {
+                    Row[] rows = root.rows;
+                    int kept = 0;
+                    Row[] remaining = new Row[rows.length];
+                    for (Row row : rows) {
+                        if (!Objects.equals(row.lifecycle, lifecycle)) {
+                            remaining[kept++] = row;
+                        }
+                    }
+                    root.rows = Arrays.copyOf(remaining, kept);
+                } finally {
+                    lock.unlockWrite(stamp);
+                }
+            }
+            return true;
+        });
+    }
+
+    /**
+     * @return the timestamp of the given row, or -1 if there is none
+     */
+    long timestamp(Member rootMember, Member ackMember, T lifecycle) {
+        Root root = existingRoot(rootMember);
+        int ackId = memberRegistry.existingId(ackMember);
+        if (root == null || ackId == -1) {
+            return -1;
+        }
+        StampedLock lock = stripe(root.id);
+        for (int attempt = 0; attempt < OPTIMISTIC_ATTEMPTS; attempt++) {
+            long stamp = lock.tryOptimisticRead();
+            if (stamp != 0) {
+                long timestamp = timestamp(root, ackId, lifecycle);
+                if (lock.validate(stamp)) {
+                    return timestamp;
+                }
+            }
+        }
+        long stamp = lock.readLock();
+        try {
+            return timestamp(root, ackId, lifecycle);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Deletes every row of the given root member.
+     */
+    void removeRoot(Member rootMember) {
+        Root root = existingRoot(rootMember);
+        if (root != null) {
+            StampedLock lock = stripe(root.id);
+            long stamp = lock.writeLock();
+            try {
+                root.rows = new Row[0];
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+    }
+
+    /**
+     * Deletes the given member's acknowledgements of the given root member in every lifecycle.
+     */
+    void removeColumn(Member rootMember, Member ackMember) {
+        Root root = existingRoot(rootMember);
+        int ackId = memberRegistry.existingId(ackMember);
+        if (root != null && ackId != -1) {
+            StampedLock lock = stripe(root.id);
+            long stamp = lock.writeLock();
+            try {
+                for (Row row : root.rows) {
+                    if (ackId < row.columns.states.length) {
+                        row.columns.states[ackId] = ABSENT;
+                    }
+                }
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+    }
+
+    private boolean scan(int rootId, int ackId, T lifecycle, Scratch scratch, StateStream<T> stream) throws Exception {
+        Root[] roots = this.roots;
+        Root root = rootId < roots.length ? roots[rootId] : null;
+        if (root == null) {
+            return true;
+        }
+
+        StampedLock lock = stripe(rootId);
+        boolean copied = false;
+        for (int attempt = 0; attempt < OPTIMISTIC_ATTEMPTS && !copied; attempt++) {
+            long stamp = lock.tryOptimisticRead();
+            if (stamp != 0) {
+                copy(root, ackId, lifecycle, scratch);
+                copied = lock.validate(stamp);
+            }
+        }
+        if (!copied) {
+            long stamp = lock.readLock();
+            try {
+                copy(root, ackId, lifecycle, scratch);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        for (int i = 0; i < scratch.size; i++) {
+            @SuppressWarnings("unchecked")
+            T rowLifecycle = (T) scratch.lifecycles[i];
+            int id = scratch.ackIds[i];
+            byte state = scratch.states[i];
+            if (!stream.stream(root.member,
+                id == rootId,
+                memberRegistry.member(id),
+                rowLifecycle,
+                state == NO_STATE ? null : State.fromSerializedForm(state),
+                scratch.timestamps[i],
+                scratch.versions[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Copies a root's matching rows, each self row first. Under an optimistic read the rows may be torn by a concurrent write, in
+     * which case the copy is discarded, so it only has to avoid failing.
+     */
+    private void copy(Root root, int ackId, T lifecycle, Scratch scratch) {
+        scratch.size = 0;
+        Row[] rows = root.rows;
+        if (rows == null) {
+            return;
+        }
+        for (Row row : rows) {
+            if (row == null || lifecycle != null && !lifecycle.equals(row.lifecycle)) {
+                continue;
+            }
+            Columns columns = row.columns;
+            if (columns == null) {
+                continue;
+            }
+            int length = columns.states.length;
+            if (ackId != -1) {
+                if (ackId < length) {
+                    scratch.add(row.lifecycle, ackId, columns);
+                }
+                continue;
+            }
+            if (root.id < length) {
+                scratch.add(row.lifecycle, root.id, columns);
+            }
+            for (int id = 0; id < length; id++) {
+                if (id != root.id) {
+                    scratch.add(row.lifecycle, id, columns);
+                }
+            }
+        }
+    }
+
+    private long timestamp(Root root, int ackId, T lifecycle) {
+        Row[] rows = root.rows;
+        if (rows != null) {
+            for (Row row : rows) {
+                Columns columns = row != null ? row.columns : null;
+                if (columns != null && Objects.equals(row.lifecycle, lifecycle) && ackId < columns.states.length
+                    && columns.states[ackId] != ABSENT) {
+                    return columns.timestamps[ackId];
+                }
+            }
+        }
+        return -1;
+    }
+
+    private void set(Member rootMember, Member ackMember, Object lifecycle, byte state, long timestamp) {
+        int rootId = memberRegistry.id(rootMember);
+        int ackId = memberRegistry.id(ackMember);
+        Root root = root(rootId);
+        StampedLock lock = stripe(rootId);
+        long stamp = lock.writeLock();
+        try {
+            Row row = null;
+            for (Row existing : root.rows) {
+                if (Objects.equals(existing.lifecycle, lifecycle)) {
+                    row = existing;
+                    break;
+                }
+            }
+            if (row == null) {
+                row = new Row(lifecycle, new Columns(Math.max(16, memberRegistry.size())));
+                Row[] rows = Arrays.copyOf(root.rows, root.rows.length + 1);
+                rows[rows.length - 1] = row;
+                root.rows = rows;
+            }
+            Columns columns = row.columns;
+            if (ackId >= columns.states.length) {
+                columns = columns.grow(Math.max(ackId + 1, columns.states.length * 2));
+                row.columns = columns;
+            }
+            if (columns.states[ackId] == ABSENT || columns.timestamps[ackId] <= timestamp) {
+                columns.states[ackId] = state;
+                columns.timestamps[ackId] = timestamp;
+                columns.versions[ackId] = versions.incrementAndGet();
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private Root root(int rootId) {
+        Root[] roots = this.roots;
+        Root root = rootId < roots.length ? roots[rootId] : null;
+        if (root == null) {
+            synchronized (this) {
+                roots = this.roots;
+                if (rootId >= roots.length) {
+                    roots = Arrays.copyOf(roots, Math.max(rootId + 1, roots.length * 2));
+                }
+                root = roots[rootId];
+                if (root == null) {
+                    root = new Root(rootId, memberRegistry.member(rootId));
+                    roots[rootId] = root;
+                }
+                this.roots = roots; // republished so readers of the array see the new root
+            }
+        }
+        return root;
+    }
+
+    private Root existingRoot(Member rootMember) {
+        int rootId = memberRegistry.existingId(rootMember);
+        Root[] roots = this.roots;
+        return rootId != -1 && rootId < roots.length ? roots[rootId] : null;
+    }
+
+    private StampedLock stripe(int rootId) {
+        return stripes[rootId & (STRIPES - 1)];
+    }
+
+    private Scratch scratch() {
+        Scratch scratch = scratches.get();
+        if (scratch.inUse) {
+            scratch = new Scratch(); // a stream which scans this storage again
+        }
+        scratch.inUse = true;
+        return scratch;
+    }
+
+    private static class Root {
+
+        private final int id;
+        private final Member member;
+        private Row[] rows = new Row[0];
+
+        private Root(int id, Member member) {
+            this.id = id;
+            this.member = member;
+        }
+    }
+
+    private static class Row {
+
+        private final Object lifecycle;
+        private Columns columns;
+
+        private Row(Object lifecycle, Columns columns) {
+            this.lifecycle = lifecycle;
+            this.columns = columns;
+        }
+    }
+
+    /**
+     * Replaced rather than resized, so that an optimistic reader always sees arrays of one length.
+     */
+    private static class Columns {
+
+        private final byte[] states;
+        private final long[] timestamps;
+        private final long[] versions;
+
+        private Columns(int capacity) {
+            this(new byte[capacity], new long[capacity], new long[capacity]);
+        }
+
+        private Columns(byte[] states, long[] timestamps, long[] versions) {
+            this.states = states;
+            this.timestamps = timestamps;
+            this.versions = versions;
+        }
+
+        private Columns grow(int capacity) {
+            return new Columns(Arrays.copyOf(states, capacity), Arrays.copyOf(timestamps, capacity), Arrays.copyOf(versions, capacity));
+        }
+    }
+
+    private static class Scratch {
+
+        private boolean inUse;
+        private int size;
+        private Object[] lifecycles = new Object[16];
+        private int[] ackIds = new int[16];
+        private byte[] states = new byte[16];
+        private long[] timestamps = new long[16];
+        private long[] versions = new long[16];
+
+        private void add(Object lifecycle, int ackId, Columns columns) {
+            byte state = columns.states[ackId];
+            if (state == ABSENT) {
+                return;
+            }
+            if (size == ackIds.length) {
+                int capacity = size * 2;
+                lifecycles = Arrays.copyOf(lifecycles, capacity);
+                ackIds = Arrays.copyOf(ackIds, capacity);
+                states = Arrays.copyOf(states, capacity);
+                timestamps = Arrays.copyOf(timestamps, capacity);
+                versions = Arrays.copyOf(versions, capacity);
+            }
+            lifecycles[size] = lifecycle;
+            ackIds[size] = ackId;
+            states[size] = state;
+            timestamps[size] = columns.timestamps[ackId];
+            versions[size] = columns.versions[ackId];
+            size++;
+        }
+    }
+}
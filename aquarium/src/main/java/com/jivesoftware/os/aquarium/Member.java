@@ -10,6 +10,7 @@ import java.util.Arrays;
 public class Member implements Comparable<Member> {
 
     private final byte[] member;
+    private int hash;
 
     public Member(byte[] member) {
         this.member = member;
@@ -26,14 +27,24 @@ public class Member implements Comparable<Member> {
 
     @Override
     public int hashCode() {
-        int hash = 7;
-        hash = 89 * hash + Arrays.hashCode(this.member);
-        return hash;
+        int h = hash;
+        if (h == 0) {
+            h = 7;
+            h = 89 * h + Arrays.hashCode(this.member);
+            hash = h;
+        }
+        return h;
     }
 
     @Override
     public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
         final Member other = (Member) obj;
+        if (hash != 0 && other.hash != 0 && hash != other.hash) {
+            return false;
+        }
         return Arrays.equals(this.member, other.member);
     }
 
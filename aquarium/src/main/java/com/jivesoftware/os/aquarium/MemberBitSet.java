@@ -0,0 +1,59 @@
+package com.jivesoftware.os.aquarium;
+
+import java.util.Arrays;
+
+/**
+ * A reusable set of {@link MemberRegistry} ids backed by a long[].
+ */
+public class MemberBitSet {
+
+    private long[] words;
+
+    public MemberBitSet(int capacity) {
+        this.words = new long[Math.max(1, (capacity + 63) >>> 6)];
+    }
+
+    public void set(int id) {
+        int index = id >>> 6;
+        if (index >= words.length) {
+            words = Arrays.copyOf(words, Math.max(index + 1, words.length * 2));
+        }
+        words[index] |= 1L << id;
+    }
+
+    public void clear(int id) {
+        int index = id >>> 6;
+        if (index < words.length) {
+            words[index] &= ~(1L << id);
+        }
+    }
+
+    public boolean get(int id) {
+        int index = id >>> 6;
+        return index < words.length && (words[index] & (1L << id)) != 0;
+    }
+
+    public void clear() {
+        Arrays.fill(words, 0L);
+    }
+
+    public int cardinality() {
+        int count = 0;
+        for (long word : words) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of ids present in both this set and the mask
+     */
+    public int cardinality(MemberBitSet mask) {
+        int count = 0;
+        int length = Math.min(words.length, mask.words.length);
+        for (int i = 0; i < length; i++) {
+            count += Long.bitCount(words[i] & mask.words[i]);
+        }
+        return count;
+    }
+}
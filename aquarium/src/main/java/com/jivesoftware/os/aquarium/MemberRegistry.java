@@ -0,0 +1,71 @@
+package com.jivesoftware.os.aquarium;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interns members to dense int ids so acknowledgements can be tracked in a {@link MemberBitSet} rather than in sets of members.
+ * Ids are never reused, a registry only grows.
+ */
+public class MemberRegistry {
+
+    private final ConcurrentHashMap<Member, Integer> ids = new ConcurrentHashMap<>();
+    private volatile Member[] members = new Member[16];
+    private volatile int size;
+
+    public int id(Member member) {
+        Integer id = ids.get(member);
+        if (id != null) {
+            return id;
+        }
+        synchronized (this) {
+            id = ids.get(member);
+            if (id == null) {
+                id = size;
+                if (id == members.length) {
+                    members = Arrays.copyOf(members, members.length * 2);
+                }
+                members[id] = member;
+                size = id + 1;
+                ids.put(member, id);
+            }
+            return id;
+        }
+    }
+
+    /**
+     * @return the member's id, or -1 if it has never been interned
+     */
+    public int existingId(Member member) {
+        Integer id = ids.get(member);
+        return id != null ? id : -1;
+    }
+
+    /**
+     * @return the canonical instance for the given member, whose hash is already cached
+     */
+    public Member intern(Member member) {
+        return member(id(member));
+    }
+
+    public Member member(int id) {
+        return members[id];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public MemberBitSet bitSet() {
+        return new MemberBitSet(size);
+    }
+
+    public MemberBitSet bitSet(Set<Member> members) {
+        MemberBitSet bitSet = new MemberBitSet(size);
+        for (Member member : members) {
+            bitSet.set(id(member));
+        }
+        return bitSet;
+    }
+}
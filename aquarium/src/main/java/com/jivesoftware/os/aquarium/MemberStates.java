@@ -0,0 +1,85 @@
+package com.jivesoftware.os.aquarium;
+
+import com.jivesoftware.os.aquarium.interfaces.IsMemberAlive;
+
+/**
+ * The waterlines, quorum flags and liveliness of a batch of members, read by one pass over each state storage and held in arrays
+ * indexed by the member's position in the request.
+ */
+public class MemberStates {
+
+    private final IsMemberAlive isMemberAlive;
+    private final Member[] members;
+    private final Waterline[] currentWaterlines;
+    private final Waterline[] desiredWaterlines;
+    private final Waterline leaderWaterline;
+    private final boolean[] alive;
+
+    /**
+     * @param desiredWaterlines null when only current state was read
+     */
+    MemberStates(IsMemberAlive isMemberAlive,
+        Member[] members,
+        Waterline[] currentWaterlines,
+        Waterline[] desiredWaterlines,
+        Waterline leaderWaterline,
+        boolean[] alive) {
+        this.isMemberAlive = isMemberAlive;
+        this.members = members;
+        this.currentWaterlines = currentWaterlines;
+        this.desiredWaterlines = desiredWaterlines;
+        this.leaderWaterline = leaderWaterline;
+        this.alive = alive;
+    }
+
+    public int size() {
+        return members.length;
+    }
+
+    public Member getMember(int index) {
+        return members[index];
+    }
+
+    /**
+     * @return the member's current waterline, or a bootstrap waterline if it has none, as {@link Aquarium#getState} does
+     */
+    public Waterline getState(int index) {
+        Waterline current = currentWaterlines[index];
+        return (current != null) ? current : new Waterline(members[index], State.bootstrap, -1, -1, false);
+    }
+
+    public boolean isAlive(int index) {
+        return alive[index];
+    }
+
+    public boolean isLivelyState(int index, State state) {
+        Waterline current = currentWaterlines[index];
+        return alive[index] && current != null && current.getState() == state && current.isAtQuorum();
+    }
+
+    public boolean isLivelyEndState(int index) {
+        Waterline current = currentWaterlines[index];
+        Waterline desired = desiredWaterlines()[index];
+        return alive[index]
+            && current != null
+            && current.isAtQuorum()
+            && Waterline.checkEquals(current, desired)
+            && (desired.getState() == State.leader || desired.getState() == State.follower);
+    }
+
+    public LivelyEndState getLivelyEndState(int index) {
+        return new LivelyEndState(isMemberAlive, currentWaterlines[index], desiredWaterlines()[index], leaderWaterline);
+    }
+
+    public Waterline getLeaderWaterline() {
+        desiredWaterlines();
+        return leaderWaterline;
+    }
+
+    private Waterline[] desiredWaterlines() {
+        if (desiredWaterlines == null) {
+            throw new IllegalStateException("Desired state was not read, use Aquarium.livelyEndStates");
+        }
+        return desiredWaterlines;
+    }
+}
@@ -0,0 +1,232 @@
+package com.jivesoftware.os.aquarium;
+
+import com.jivesoftware.os.aquarium.interfaces.AwaitLivelyEndState;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * An {@link AwaitLivelyEndState} which parks each waiter and, after every change, evaluates the waiters' awaiters on the notifying
+ * thread and unparks only those which are now satisfied, handing them the result. Aquarium's awaiters read the end state published
+ * by the last tap, so a wake-up costs no storage reads. Waiters park with {@link LockSupport} rather than a monitor so they can be
+ * virtual threads, and asynchronous waiters hold no thread at all: their futures are completed by the notifying thread and only
+ * their timeouts are scheduled.
+ * <p>
+ * One instance may be shared by many aquariums, e.g. every partition of an {@link AquariumHost}. Aquarium awaits and notifies
+ * with itself as the source, so a tap only re-evaluates the waiters of the tapped aquarium.
+ */
+public class ParkingAwaitLivelyEndState implements AwaitLivelyEndState {
+
+    private static final Object ANY_SOURCE = new Object();
+
+    private final ScheduledExecutorService timeouts;
+    private final Map<Object, Set<Waiter>> waiters = new ConcurrentHashMap<>();
+
+    /**
+     * Times out asynchronous waiters on a shared daemon thread.
+     */
+    public ParkingAwaitLivelyEndState() {
+        this(SharedTimeouts.TIMEOUTS);
+    }
+
+    public ParkingAwaitLivelyEndState(ScheduledExecutorService timeouts) {
+        this.timeouts = timeouts;
+    }
+
+    @Override
+    public LivelyEndState awaitChange(Callable<LivelyEndState> awaiter, long timeoutMillis) throws Exception {
+        return awaitChange(ANY_SOURCE, awaiter, timeoutMillis);
+    }
+
+    @Override
+    public LivelyEndState awaitChange(Object source, Callable<LivelyEndState> awaiter, long timeoutMillis) throws Exception {
+        LivelyEndState livelyEndState = awaiter.call();
+        if (livelyEndState != null) {
+            return livelyEndState;
+        }
+
+        Waiter waiter = new Waiter(source, awaiter, Thread.currentThread(), null);
+        add(waiter);
+        try {
+            // a change may have been notified between the first check and registering
+            livelyEndState = awaiter.call();
+            if (livelyEndState != null) {
+                return livelyEndState;
+            }
+
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            while (waiter.result == null && waiter.failure == null) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    throw timedOut(timeoutMillis);
+                }
+                LockSupport.parkNanos(this, remaining);
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+            if (waiter.failure != null) {
+                throw waiter.failure;
+            }
+            return waiter.result;
+        } finally {
+            remove(waiter);
+        }
+    }
+
+    @Override
+    public CompletableFuture<LivelyEndState> awaitChangeAsync(Callable<LivelyEndState> awaiter, long timeoutMillis) {
+        return awaitChangeAsync(ANY_SOURCE, awaiter, timeoutMillis);
+    }
+
+    @Override
+    public CompletableFuture<LivelyEndState> awaitChangeAsync(Object source, Callable<LivelyEndState> awaiter, long timeoutMillis) {
+        CompletableFuture<LivelyEndState> future = new CompletableFuture<>();
+        try {
+            LivelyEndState livelyEndState = awaiter.call();
+            if (livelyEndState != null) {
+                future.complete(livelyEndState);
+                return future;
+            }
+
+            Waiter waiter = new Waiter(source, awaiter, null, future);
+            add(waiter);
+            waiter.timeout = timeouts.schedule(() -> {
+                if (remove(waiter)) {
+                    future.completeExceptionally(timedOut(timeoutMillis));
+                }
+            }, timeoutMillis, TimeUnit.MILLISECONDS);
+
+            // a change may have been notified between the first check and registering
+            livelyEndState = awaiter.call();
+            if (livelyEndState != null && remove(waiter)) {
+                waiter.timeout.cancel(false);
+                future.complete(livelyEndState);
+            }
+        } catch (Exception x) {
+            future.completeExceptionally(x);
+        }
+        return future;
+    }
+
+    @Override
+    public void notifyChange(Callable<Boolean> change) throws Exception {
+        change.call();
+        for (Set<Waiter> sourceWaiters : waiters.values()) {
+            evaluate(sourceWaiters);
+        }
+    }
+
+    @Override
+    public void notifyChange(Object source, Callable<Boolean> change) throws Exception {
+        change.call();
+        evaluate(waiters.get(source));
+        if (source != ANY_SOURCE) {
+            evaluate(waiters.get(ANY_SOURCE));
+        }
+    }
+
+    private void evaluate(Set<Waiter> sourceWaiters) {
+        if (sourceWaiters == null) {
+            return;
+        }
+        for (Waiter waiter : sourceWaiters) {
+            if (waiter.result == null && waiter.failure == null) {
+                LivelyEndState livelyEndState = null;
+                Exception failure = null;
+                try {
+                    livelyEndState = waiter.awaiter.call();
+                } catch (Exception x) {
+                    failure = x;
+                }
+                if (livelyEndState != null || failure != null) {
+                    waiter.done(livelyEndState, failure);
+                }
+            }
+        }
+    }
+
+    private void add(Waiter waiter) {
+        waiters.compute(waiter.source, (source, sourceWaiters) -> {
+            Set<Waiter> added = sourceWaiters != null ? sourceWaiters : ConcurrentHashMap.newKeySet();
+            added.add(waiter);
+            return added;
+        });
+    }
+
+    /**
+     * @return true if the waiter was still waiting, so whoever removes it completes it
+     */
+    private boolean remove(Waiter waiter) {
+        boolean[] removed = { false };
+        // empty sets are dropped so a departed source is not pinned
+        waiters.computeIfPresent(waiter.source, (source, sourceWaiters) -> {
+            removed[0] = sourceWaiters.remove(waiter);
+            return sourceWaiters.isEmpty() ? null : sourceWaiters;
+        });
+        return removed[0];
+    }
+
+    private static TimeoutException timedOut(long timeoutMillis) {
+        return new TimeoutException("Timed out after " + timeoutMillis + " millis awaiting lively end state");
+    }
+
+    private class Waiter {
+
+        private final Object source;
+        private final Callable<LivelyEndState> awaiter;
+        private final Thread thread;
+        private final CompletableFuture<LivelyEndState> future;
+        private volatile ScheduledFuture<?> timeout;
+        private volatile LivelyEndState result;
+        private volatile Exception failure;
+
+        private Waiter(Object source, Callable<LivelyEndState> awaiter, Thread thread, CompletableFuture<LivelyEndState> future) {
+            this.source = source;
+            this.awaiter = awaiter;
+            this.thread = thread;
+            this.future = future;
+        }
+
+        private void done(LivelyEndState livelyEndState, Exception x) {
+            if (future == null) {
+                result = livelyEndState;
+                failure = x;
+                LockSupport.unpark(thread);
+            } else if (remove(this)) {
+                ScheduledFuture<?> scheduled = timeout;
+                if (scheduled != null) {
+                    scheduled.cancel(false);
+                }
+                if (x != null) {
+                    future.completeExceptionally(x);
+                } else {
+                    future.complete(livelyEndState);
+                }
+            }
+        }
+    }
+
+    private static class SharedTimeouts {
+
+        private static final ScheduledExecutorService TIMEOUTS = timeouts();
+
+        private static ScheduledExecutorService timeouts() {
+            ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+                Thread thread = new Thread(runnable, "aquarium-await-timeouts");
+                thread.setDaemon(true);
+                return thread;
+            });
+            executor.setRemoveOnCancelPolicy(true); // completed waiters must not pin their futures until the timeout
+            return executor;
+        }
+    }
+}
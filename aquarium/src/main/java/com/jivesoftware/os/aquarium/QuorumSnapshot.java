@@ -0,0 +1,49 @@
+package com.jivesoftware.os.aquarium;
+
+import com.jivesoftware.os.aquarium.interfaces.StreamQuorumState;
+
+/**
+ * Every waterline of a single state storage materialized by one scan so a tap iteration can answer
+ * get, getOthers and highest without going back to storage.
+ */
+public class QuorumSnapshot {
+
+    private final Member[] members;
+    private final Waterline[] waterlines;
+    private final Waterline[] quorumWaterlines;
+
+    /**
+     * @param members the root members in scan order
+     * @param waterlines waterlines whose quorum was counted from every acknowledging member, as {@link ReadWaterline#get} does
+     * @param quorumWaterlines waterlines whose quorum was counted from current members only, as {@link ReadWaterline#getOthers} does
+     */
+    QuorumSnapshot(Member[] members, Waterline[] waterlines, Waterline[] quorumWaterlines) {
+        this.members = members;
+        this.waterlines = waterlines;
+        this.quorumWaterlines = quorumWaterlines;
+    }
+
+    public Waterline get(Member asMember) {
+        for (int i = 0; i < members.length; i++) {
+            if (members[i].equals(asMember)) {
+                return waterlines[i];
+            }
+        }
+        return null;
+    }
+
+    public void getOthers(Member asMember, StreamQuorumState stream) throws Exception {
+        for (int i = 0; i < members.length; i++) {
+            if (!members[i].equals(asMember)) {
+                if (!stream.stream(quorumWaterlines[i])) {
+                    return;
+                }
+            }
+        }
+    }
+
+    public int size() {
+        return members.length;
+    }
+
+}
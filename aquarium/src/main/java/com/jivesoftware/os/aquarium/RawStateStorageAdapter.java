@@ -0,0 +1,66 @@
+package com.jivesoftware.os.aquarium;
+
+import com.jivesoftware.os.aquarium.interfaces.AquaBuffer;
+import com.jivesoftware.os.aquarium.interfaces.LifecycleMarshaller;
+import com.jivesoftware.os.aquarium.interfaces.RawStateStorage;
+import com.jivesoftware.os.aquarium.interfaces.StateStorage;
+
+/**
+ * Presents a {@link RawStateStorage} as a {@link StateStorage}. Aquarium recognizes the adapter and reads the raw storage
+ * directly on its scan paths, so members and lifecycles are only materialized for the callers which still need them.
+ *
+ * @param <T> lifecycle type
+ */
+public class RawStateStorageAdapter<T> implements StateStorage<T> {
+
+    private final RawStateStorage rawStateStorage;
+    private final LifecycleMarshaller<T> lifecycleMarshaller;
+
+    public RawStateStorageAdapter(RawStateStorage rawStateStorage, LifecycleMarshaller<T> lifecycleMarshaller) {
+        this.rawStateStorage = rawStateStorage;
+        this.lifecycleMarshaller = lifecycleMarshaller;
+    }
+
+    public RawStateStorage getRawStateStorage() {
+        return rawStateStorage;
+    }
+
+    public LifecycleMarshaller<T> getLifecycleMarshaller() {
+        return lifecycleMarshaller;
+    }
+
+    @Override
+    public boolean scan(Member rootMember, Member otherMember, T lifecycle, StateStream<T> stream) throws Exception {
+        return rawStateStorage.scan(toBuffer(rootMember),
+            toBuffer(otherMember),
+            lifecycle != null ? new AquaBuffer(lifecycleMarshaller.toBytes(lifecycle)) : null,
+            (root, isSelf, ack, rawLifecycle, state, timestamp, version) -> stream.stream(root.toMember(),
+                isSelf,
+                ack.toMember(),
+                lifecycleMarshaller.fromBytes(rawLifecycle),
+                State.fromSerializedForm(state),
+                timestamp,
+                version));
+    }
+
+    @Override
+    public boolean update(StateUpdates<T> updates) throws Exception {
+        return rawStateStorage.update(setRawState -> updates.updates((rootMember, otherMember, lifecycle, state, timestamp) -> setRawState.set(
+            toBuffer(rootMember),
+            toBuffer(otherMember),
+            new AquaBuffer(lifecycleMarshaller.toBytes(lifecycle)),
+            state.getSerializedForm(),
+            timestamp)));
+    }
+
+    @Override
+    public boolean remove(StateRemovals<T> removals) throws Exception {
+        return rawStateStorage.remove(removeRawState -> removals.removals((rootMember, lifecycle) -> removeRawState.remove(
+            toBuffer(rootMember),
+            new AquaBuffer(lifecycleMarshaller.toBytes(lifecycle)))));
+    }
+
+    private static AquaBuffer toBuffer(Member member) {
+        return member != null ? new AquaBuffer(member.getMember()) : null;
+    }
+}
@@ -0,0 +1,210 @@
+package com.jivesoftware.os.aquarium;
+
+import com.google.common.collect.Lists;
+import com.jivesoftware.os.aquarium.interfaces.AquaBuffer;
+import com.jivesoftware.os.aquarium.interfaces.LifecycleMarshaller;
+import com.jivesoftware.os.aquarium.interfaces.MemberLifecycle;
+import com.jivesoftware.os.aquarium.interfaces.RawStateStorage;
+import java.util.List;
+
+/**
+ * The scan paths of {@link ReadWaterline} over a {@link RawStateStorage}. Rows are compared in place against the sorted current
+ * members, so nothing is allocated per row; a {@link Member} is only materialized once per root.
+ */
+class ReadRawWaterline<T> {
+
+    private final RawStateStorage rawStateStorage;
+    private final LifecycleMarshaller<T> lifecycleMarshaller;
+    private final MemberLifecycle<T> memberLifecycle;
+
+    ReadRawWaterline(RawStateStorage rawStateStorage,
+        LifecycleMarshaller<T> lifecycleMarshaller,
+        MemberLifecycle<T> memberLifecycle) {
+        this.rawStateStorage = rawStateStorage;
+        this.lifecycleMarshaller = lifecycleMarshaller;
+        this.memberLifecycle = memberLifecycle;
+    }
+
+    Waterline get(CurrentMembersSnapshot currentMembers, Member asMember, T lifecycle) throws Exception {
+        boolean[] found = {false};
+        byte[] foundState = new byte[1];
+        long[] foundTimestampVersion = new long[2];
+        int[] acked = {0};
+        rawStateStorage.scan(new AquaBuffer(asMember.getMember()), null, new AquaBuffer(lifecycleMarshaller.toBytes(lifecycle)),
+            (rootMember, isSelf, ackMember, rootLifecycle, state, timestamp, version) -> {
+                if (!found[0] && isSelf) {
+                    found[0] = true;
+                    foundState[0] = state;
+                    foundTimestampVersion[0] = timestamp;
+                    foundTimestampVersion[1] = version;
+                }
+                if (found[0] && state == foundState[0] && timestamp == foundTimestampVersion[0]) {
+                    acked[0]++;
+                }
+                return true;
+            });
+        if (found[0]) {
+            return new Waterline(asMember,
+                State.fromSerializedForm(foundState[0]),
+                foundTimestampVersion[0],
+                foundTimestampVersion[1],
+                currentMembers.isQuorum(acked[0]));
+        } else {
+            return null;
+        }
+    }
+
+    QuorumSnapshot snapshot(CurrentMembersSnapshot currentMembers) throws Exception {
+        Member[] current = currentMembers.sorted();
+        List<Member> members = Lists.newArrayList();
+        List<Waterline> waterlines = Lists.newArrayList();
+        List<Waterline> quorumWaterlines = Lists.newArrayList();
+
+        RootCursor cursor = new RootCursor(current);
+        byte[][] rootLifecycle = new byte[1][];
+        boolean[] found = {false};
+        byte[] foundState = new byte[1];
+        long[] foundTimestampVersion = new long[2];
+        int[] acked = new int[2]; // all, current
+        rawStateStorage.scan(null, null, null, (rootMember, isSelf, ackMember, lifecycle, state, timestamp, version) -> {
+            if (cursor.advance(rootMember)) {
+                if (found[0]) {
+                    Member member = current[cursor.lastIndex];
+                    State foundAs = State.fromSerializedForm(foundState[0]);
+                    members.add(member);
+                    waterlines.add(new Waterline(member, foundAs, foundTimestampVersion[0], foundTimestampVersion[1], currentMembers.isQuorum(acked[0])));
+                    quorumWaterlines.add(new Waterline(member, foundAs, foundTimestampVersion[0], foundTimestampVersion[1], currentMembers.isQuorum(acked[1])));
+                }
+                found[0] = false;
+                acked[0] = 0;
+                acked[1] = 0;
+                T expected = cursor.index >= 0 ? memberLifecycle.get(current[cursor.index]) : null;
+                rootLifecycle[0] = expected != null ? lifecycleMarshaller.toBytes(expected) : null;
+            }
+
+            if (rootLifecycle[0] == null || !lifecycle.contentEquals(rootLifecycle[0])) {
+                return true;
+            }
+            if (!found[0] && isSelf) {
+                found[0] = true;
+                foundState[0] = state;
+                foundTimestampVersion[0] = timestamp;
+                foundTimestampVersion[1] = version;
+            }
+            if (found[0] && state == foundState[0] && timestamp == foundTimestampVersion[0]) {
+                acked[0]++;
+                if (isSelf || indexOf(current, ackMember) >= 0) {
+                    acked[1]++;
+                }
+            }
+            return true;
+        });
+        if (found[0]) {
+            Member member = current[cursor.index];
+            State foundAs = State.fromSerializedForm(foundState[0]);
+            members.add(member);
+            waterlines.add(new Waterline(member, foundAs, foundTimestampVersion[0], foundTimestampVersion[1], currentMembers.isQuorum(acked[0])));
+            quorumWaterlines.add(new Waterline(member, foundAs, foundTimestampVersion[0], foundTimestampVersion[1], currentMembers.isQuorum(acked[1])));
+        }
+
+        return new QuorumSnapshot(members.toArray(new Member[members.size()]),
+            waterlines.toArray(new Waterline[waterlines.size()]),
+            quorumWaterlines.toArray(new Waterline[quorumWaterlines.size()]));
+    }
+
+    void acknowledgeOther(CurrentMembersSnapshot currentMembers, Member member) throws Exception {
+        Member[] current = currentMembers.sorted();
+        AquaBuffer self = new AquaBuffer(member.getMember());
+
+        rawStateStorage.update(setRawState -> {
+            RootCursor cursor = new RootCursor(current);
+            AquaBuffer entryRoot = new AquaBuffer();
+            AquaBuffer entryLifecycle = new AquaBuffer();
+            boolean[] hasEntry = {false};
+            byte[] entryState = new byte[1];
+            long[] entryTimestamp = new long[1];
+            boolean[] coldstart = {true};
+
+            rawStateStorage.scan(null, null, null, (rootMember, isSelf, ackMember, lifecycle, state, timestamp, version) -> {
+                cursor.advance(rootMember);
+                if (cursor.index < 0 || !isSelf && indexOf(current, ackMember) < 0) {
+                    return true;
+                }
+
+                if (hasEntry[0] && (!entryRoot.contentEquals(rootMember) || !entryLifecycle.contentEquals(lifecycle))) {
+                    if (coldstart[0]) {
+                        setRawState.set(entryRoot, self, entryLifecycle, entryState[0], entryTimestamp[0]);
+                    }
+                    hasEntry[0] = false;
+                    coldstart[0] = true;
+                }
+
+                if (!hasEntry[0] && isSelf && !self.contentEquals(rootMember)) {
+                    hasEntry[0] = true;
+                    entryRoot.set(rootMember);
+                    entryLifecycle.set(lifecycle);
+                    entryState[0] = state;
+                    entryTimestamp[0] = timestamp;
+                }
+                if (hasEntry[0] && self.contentEquals(ackMember)) {
+                    coldstart[0] = false;
+                    if (state != entryState[0] || timestamp != entryTimestamp[0]) {
+                        setRawState.set(entryRoot, self, entryLifecycle, entryState[0], entryTimestamp[0]);
+                    }
+                }
+                return true;
+            });
+            if (hasEntry[0] && coldstart[0]) {
+                setRawState.set(entryRoot, self, entryLifecycle, entryState[0], entryTimestamp[0]);
+            }
+            return true;
+        });
+    }
+
+    private static int indexOf(Member[] sorted, AquaBuffer member) {
+        int low = 0;
+        int high = sorted.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int c = member.compareTo(sorted[mid].getMember());
+            if (c > 0) {
+                low = mid + 1;
+            } else if (c < 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Tracks which root the scan is in without materializing it.
+     */
+    private static class RootCursor {
+
+        private final Member[] current;
+        private final AquaBuffer root = new AquaBuffer();
+        private boolean started;
+        private int index = -1;
+        private int lastIndex = -1;
+
+        RootCursor(Member[] current) {
+            this.current = current;
+        }
+
+        /**
+         * @return true if the given root differs from the previous row's root
+         */
+        boolean advance(AquaBuffer rootMember) {
+            if (started && root.contentEquals(rootMember)) {
+                return false;
+            }
+            started = true;
+            root.set(rootMember);
+            lastIndex = index;
+            index = indexOf(current, rootMember);
+            return true;
+        }
+    }
+}
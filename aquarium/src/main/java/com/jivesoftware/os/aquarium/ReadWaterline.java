@@ -1,13 +1,13 @@
 package com.jivesoftware.os.aquarium;
 
-import com.google.common.collect.Sets;
+import com.google.common.collect.Lists;
 import com.jivesoftware.os.aquarium.interfaces.AtQuorum;
 import com.jivesoftware.os.aquarium.interfaces.CurrentMembers;
 import com.jivesoftware.os.aquarium.interfaces.MemberLifecycle;
 import com.jivesoftware.os.aquarium.interfaces.StateStorage;
 import com.jivesoftware.os.aquarium.interfaces.StreamQuorumState;
 import java.lang.reflect.Array;
-import java.util.Set;
+import java.util.List;
 import java.util.concurrent.atomic.LongAdder;
 
 /**
@@ -15,37 +15,68 @@ import java.util.concurrent.atomic.LongAdder;
  */
 public class ReadWaterline<T> {
 
+    /**
+     * A delta pass only acknowledges rows which changed, so an acknowledgement which was lost, rejected or deleted would otherwise
+     * stay missing until membership changes. Every this many delta passes a full pass is made instead.
+     */
+    static final int DELTA_PASSES_PER_FULL_PASS = 100;
+
     private final LongAdder getMyWaterline;
     private final LongAdder getOthersWaterline;
+    private final LongAdder snapshotWaterline;
     private final LongAdder acknowledgeOther;
     private final StateStorage<T> stateStorage;
+    private final WaterlineIndex<T> waterlineIndex;
     private final MemberLifecycle<T> memberLifecycle;
     private final AtQuorum atQuorum;
     private final CurrentMembers currentMembers;
+    private final MemberRegistry memberRegistry;
     private final Class<T> lifecycleType;
+    private final ReadRawWaterline<T> readRawWaterline;
+
+    private volatile CurrentMembersSnapshot currentSnapshot;
+    private volatile long acknowledgedSinceVersion = -1;
+    private volatile CurrentMembersSnapshot acknowledgedMembers;
+    private volatile int deltaPasses;
 
     public ReadWaterline(LongAdder getMyWaterline,
         LongAdder getOthersWaterline,
+        LongAdder snapshotWaterline,
         LongAdder acknowledgeOther,
         StateStorage<T> stateStorage,
+        WaterlineIndex<T> waterlineIndex,
         MemberLifecycle<T> memberLifecycle,
         AtQuorum atQuorum,
         CurrentMembers currentMembers,
+        MemberRegistry memberRegistry,
         Class<T> lifecycleType) {
 
         this.getMyWaterline = getMyWaterline;
         this.getOthersWaterline = getOthersWaterline;
+        this.snapshotWaterline = snapshotWaterline;
         this.acknowledgeOther = acknowledgeOther;
         this.stateStorage = stateStorage;
+        this.waterlineIndex = waterlineIndex;
         this.memberLifecycle = memberLifecycle;
         this.atQuorum = atQuorum;
         this.currentMembers = currentMembers;
+        this.memberRegistry = memberRegistry;
         this.lifecycleType = lifecycleType;
+        if (stateStorage instanceof RawStateStorageAdapter) {
+            @SuppressWarnings("unchecked")
+            RawStateStorageAdapter<T> adapter = (RawStateStorageAdapter<T>) stateStorage;
+            this.readRawWaterline = new ReadRawWaterline<>(adapter.getRawStateStorage(),
+                adapter.getLifecycleMarshaller(),
+                memberLifecycle);
+        } else {
+            this.readRawWaterline = null;
+        }
     }
 
     public Waterline get(Member asMember) throws Exception {
         getMyWaterline.increment();
-        if (!currentMembers.getCurrent().contains(asMember)) {
+        CurrentMembersSnapshot current = current();
+        if (!current.contains(asMember)) {
             return null;
         }
 
@@ -54,26 +85,31 @@ public class ReadWaterline<T> {
             //LOG.info("Null lifecycle for {}", asMember);
             return null;
         }
-        TimestampedState[] current = new TimestampedState[1];
-        Set<Member> acked = Sets.newHashSet();
+        if (waterlineIndex.isEnabled()) {
+            WaterlineIndex.IndexedState indexed = waterlineIndex.get(asMember, lifecycle);
+            return (indexed != null) ? indexed.toWaterline(asMember, current.isQuorum(indexed.ackedCount())) : null;
+        }
+        if (readRawWaterline != null) {
+            return readRawWaterline.get(current, asMember, lifecycle);
+        }
+
+        TimestampedState[] self = new TimestampedState[1];
+        MemberBitSet acked = memberRegistry.bitSet();
         stateStorage.scan(asMember, null, lifecycle, (rootRingMember, isSelf, ackRingMember, rootLifecycle, state, timestamp, version) -> {
-            if (current[0] == null && isSelf) {
-                current[0] = new TimestampedState(state, timestamp, version);
+            if (self[0] == null && isSelf) {
+                self[0] = new TimestampedState(state, timestamp, version);
             }
-            if (current[0] != null) {
-                TimestampedState v = new TimestampedState(state, timestamp, version);
-                if (v.state == current[0].state && v.timestamp == current[0].timestamp) {
-                    acked.add(ackRingMember);
-                }
+            if (self[0] != null && state == self[0].state && timestamp == self[0].timestamp) {
+                acked.set(memberRegistry.id(ackRingMember));
             }
             return true;
         });
-        if (current[0] != null) {
+        if (self[0] != null) {
             return new Waterline(asMember,
-                current[0].state,
-                current[0].timestamp,
-                current[0].version,
-                atQuorum.is(acked.size()));
+                self[0].state,
+                self[0].timestamp,
+                self[0].version,
+                current.isQuorum(acked.cardinality()));
         } else {
             return null;
         }
@@ -82,19 +118,36 @@ public class ReadWaterline<T> {
     public void getOthers(Member asMember, StreamQuorumState stream) throws Exception {
         getOthersWaterline.increment();
 
+        CurrentMembersSnapshot current = current();
+        if (waterlineIndex.isEnabled()) {
+            CurrentMembersSnapshot.Cursor roots = current.cursor();
+            waterlineIndex.stream((rootMember, lifecycle, indexed) -> {
+                if (!asMember.equals(rootMember) && roots.contains(rootMember) && lifecycle.equals(memberLifecycle.get(rootMember))) {
+                    stream.stream(indexed.toWaterline(rootMember, current.isQuorum(indexed.ackedCount(current.bits()))));
+                }
+                return true;
+            });
+            return;
+        }
+        if (readRawWaterline != null) {
+            readRawWaterline.snapshot(current).getOthers(asMember, stream);
+            return;
+        }
+
         Member[] otherMember = new Member[1];
         TimestampedState[] otherState = new TimestampedState[1];
         @SuppressWarnings("unchecked")
         T[] otherLifecycle = (T[]) Array.newInstance(lifecycleType, 1);
-        Set<Member> acked = Sets.newHashSet();
-        Set<Member> current = currentMembers.getCurrent();
+        MemberBitSet acked = memberRegistry.bitSet();
+        CurrentMembersSnapshot.Cursor roots = current.cursor();
+        CurrentMembersSnapshot.Cursor acks = current.cursor();
         stateStorage.scan(null, null, null, (rootMember, isSelf, ackMember, rootLifecycle, state, timestamp, version) -> {
-            if (!current.contains(rootMember) || !isSelf && !current.contains(ackMember)) {
+            if (!roots.contains(rootMember) || !isSelf && !acks.contains(ackMember)) {
                 return true;
             }
 
             if (otherMember[0] != null && !otherMember[0].equals(rootMember)) {
-                boolean otherHasQuorum = atQuorum.is(acked.size());
+                boolean otherHasQuorum = current.isQuorum(acked.cardinality());
                 stream.stream(new Waterline(otherMember[0],
                     otherState[0].state,
                     otherState[0].timestamp,
@@ -114,17 +167,15 @@ public class ReadWaterline<T> {
                     otherLifecycle[0] = lifecycle;
                 }
             }
-            if (otherMember[0] != null) {
-                TimestampedState v = new TimestampedState(state, timestamp, version);
-                if (otherLifecycle[0].equals(rootLifecycle) && v.state == otherState[0].state && v.timestamp == otherState[0].timestamp) {
-                    acked.add(ackMember);
-                }
+            if (otherMember[0] != null && otherLifecycle[0].equals(rootLifecycle)
+                && state == otherState[0].state && timestamp == otherState[0].timestamp) {
+                acked.set(memberRegistry.id(ackMember));
             }
             return true;
         });
 
         if (otherMember[0] != null) {
-            boolean otherHasQuorum = atQuorum.is(acked.size());
+            boolean otherHasQuorum = current.isQuorum(acked.cardinality());
             stream.stream(new Waterline(otherMember[0],
                 otherState[0].state,
                 otherState[0].timestamp,
@@ -133,45 +184,260 @@ public class ReadWaterline<T> {
         }
     }
 
-    public void acknowledgeOther(Member member) throws Exception {
-        acknowledgeOther.increment();
+    /**
+     * Materializes every member's waterline in a single scan. Equivalent to calling {@link #get} and {@link #getOthers}
+     * for every member, but the storage is only visited once and each member's lifecycle is only looked up once.
+     */
+    public QuorumSnapshot snapshot() throws Exception {
+        snapshotWaterline.increment();
 
-        stateStorage.update(setState -> {
-            @SuppressWarnings("unchecked")
-            StateEntry<T>[] otherE = new StateEntry[1];
-            boolean[] coldstart = {true};
+        List<Member> members = Lists.newArrayList();
+        List<Waterline> waterlines = Lists.newArrayList();
+        List<Waterline> quorumWaterlines = Lists.newArrayList();
 
-            //byte[] fromKey = stateKey(versionedPartitionName.getPartitionName(), context, versionedPartitionName.getPartitionVersion(), null, null);
-            Set<Member> current = currentMembers.getCurrent();
-            stateStorage.scan(null, null, null, (rootMember, isSelf, ackMember, lifecycle, state, timestamp, version) -> {
-                if (!current.contains(rootMember) || !isSelf && !current.contains(ackMember)) {
-                    return true;
+        CurrentMembersSnapshot current = current();
+        if (waterlineIndex.isEnabled()) {
+            CurrentMembersSnapshot.Cursor roots = current.cursor();
+            waterlineIndex.stream((rootMember, lifecycle, indexed) -> {
+                if (roots.contains(rootMember) && lifecycle.equals(memberLifecycle.get(rootMember))) {
+                    members.add(rootMember);
+                    waterlines.add(indexed.toWaterline(rootMember, current.isQuorum(indexed.ackedCount())));
+                    quorumWaterlines.add(indexed.toWaterline(rootMember, current.isQuorum(indexed.ackedCount(current.bits()))));
                 }
+                return true;
+            });
+            return new QuorumSnapshot(members.toArray(new Member[members.size()]),
+                waterlines.toArray(new Waterline[waterlines.size()]),
+                quorumWaterlines.toArray(new Waterline[quorumWaterlines.size()]));
+        }
+        if (readRawWaterline != null) {
+            return readRawWaterline.snapshot(current);
+        }
 
-                if (otherE[0] != null && (!otherE[0].rootMember.equals(rootMember) || !otherE[0].lifecycle.equals(lifecycle))) {
-                    if (coldstart[0]) {
-                        setState.set(otherE[0].rootMember, member, otherE[0].lifecycle, otherE[0].state, otherE[0].timestamp);
-                    }
-                    otherE[0] = null;
-                    coldstart[0] = true;
-                }
+        SnapshotScan scan = new SnapshotScan(current);
+        stateStorage.scan(null, null, null, scan);
+        return scan.snapshot();
+    }
 
-                if (otherE[0] == null && isSelf && !member.equals(rootMember)) {
-                    otherE[0] = new StateEntry<>(rootMember, lifecycle, state, timestamp);
-                }
-                if (otherE[0] != null && member.equals(ackMember)) {
-                    coldstart[0] = false;
-                    if (state != otherE[0].state || timestamp != otherE[0].timestamp) {
-                        setState.set(otherE[0].rootMember, member, otherE[0].lifecycle, otherE[0].state, otherE[0].timestamp);
+    public void acknowledgeOther(Member member) throws Exception {
+        acknowledgeOther.increment();
+
+        CurrentMembersSnapshot current = current();
+        if (waterlineIndex.isEnabled()) {
+            boolean isCurrent = current.contains(member);
+            int memberId = memberRegistry.id(member);
+            CurrentMembersSnapshot.Cursor roots = current.cursor();
+            List<StateEntry<T>> acknowledged = Lists.newArrayList();
+            boolean updated = stateStorage.update(setState -> waterlineIndex.stream((rootMember, lifecycle, indexed) -> {
+                if (!member.equals(rootMember) && roots.contains(rootMember) && (!isCurrent || !indexed.isAcked(memberId))) {
+                    if (setState.set(rootMember, member, lifecycle, indexed.state, indexed.timestamp)) {
+                        acknowledged.add(new StateEntry<>(rootMember, lifecycle, indexed.state, indexed.timestamp));
                     }
                 }
                 return true;
-            });
-            if (otherE[0] != null && coldstart[0]) {
-                setState.set(otherE[0].rootMember, member, otherE[0].lifecycle, otherE[0].state, otherE[0].timestamp);
+            }));
+            // only a committed acknowledgement may stop the next pass from writing it again
+            if (updated) {
+                for (StateEntry<T> entry : acknowledged) {
+                    waterlineIndex.acknowledged(entry.rootMember, member, entry.lifecycle, entry.state, entry.timestamp);
+                }
+            }
+            return;
+        }
+        if (readRawWaterline != null) {
+            readRawWaterline.acknowledgeOther(current, member);
+            return;
+        }
+
+        boolean scanSince = stateStorage.supportsScanSince();
+        long sinceVersion = acknowledgedSinceVersion;
+        long[] highwater = {sinceVersion};
+        CurrentMembersSnapshot acknowledged = acknowledgedMembers;
+        if (scanSince && sinceVersion != -1 && acknowledged != null && deltaPasses < DELTA_PASSES_PER_FULL_PASS
+            && (acknowledged == current || acknowledged.members().equals(current.members()))) {
+            // only self rows which changed since the last pass can need a new acknowledgement
+            CurrentMembersSnapshot.Cursor roots = current.cursor();
+            boolean updated = stateStorage.update(setState -> stateStorage.scanSince(sinceVersion,
+                (rootMember, isSelf, ackMember, lifecycle, state, timestamp, version) -> {
+                    highwater[0] = Math.max(highwater[0], version);
+                    if (isSelf && !member.equals(rootMember) && roots.contains(rootMember)) {
+                        setState.set(rootMember, member, lifecycle, state, timestamp);
+                    }
+                    return true;
+                }));
+            // only a committed acknowledgement may stop the next pass from writing it again
+            if (updated) {
+                acknowledgedSinceVersion = highwater[0];
+                deltaPasses++;
             }
+            return;
+        }
+
+        boolean updated = stateStorage.update(setState -> {
+            AcknowledgeScan scan = new AcknowledgeScan(member, current, setState);
+            stateStorage.scan(null, null, null, scan);
+            scan.done();
+            highwater[0] = Math.max(highwater[0], scan.highwater);
             return true;
         });
+        if (scanSince) {
+            // a rejected full pass is followed by another
+            acknowledgedMembers = current;
+            acknowledgedSinceVersion = updated ? highwater[0] : -1;
+            deltaPasses = 0;
+        }
+    }
+
+    private CurrentMembersSnapshot current() throws Exception {
+        CurrentMembersSnapshot current = CurrentMembersSnapshot.of(currentSnapshot, currentMembers, memberRegistry, atQuorum);
+        currentSnapshot = current;
+        return current;
+    }
+
+    /**
+     * @return true if this reader needs full scans of its storage, i.e. it is neither indexed nor reading raw storage
+     */
+    boolean isScanned() throws Exception {
+        return !waterlineIndex.isEnabled() && readRawWaterline == null;
+    }
+
+    /**
+     * @return true if {@link #acknowledgeOther} needs a full scan of its storage
+     */
+    boolean acknowledgesByScan() throws Exception {
+        return isScanned() && !stateStorage.supportsScanSince();
+    }
+
+    /**
+     * Starts a {@link #snapshot} which the caller feeds with a full scan of this reader's storage.
+     */
+    SnapshotScan snapshotScan() throws Exception {
+        snapshotWaterline.increment();
+        return new SnapshotScan(current());
+    }
+
+    /**
+     * Starts an {@link #acknowledgeOther} which the caller feeds with a full scan of this reader's storage.
+     */
+    AcknowledgeScan acknowledgeScan(Member member, StateStorage.SetState<T> setState) throws Exception {
+        acknowledgeOther.increment();
+        return new AcknowledgeScan(member, current(), setState);
+    }
+
+    class SnapshotScan implements StateStorage.StateStream<T> {
+
+        private final CurrentMembersSnapshot current;
+        private final CurrentMembersSnapshot.Cursor roots;
+        private final MemberBitSet acked = memberRegistry.bitSet();
+        private final List<Member> members = Lists.newArrayList();
+        private final List<Waterline> waterlines = Lists.newArrayList();
+        private final List<Waterline> quorumWaterlines = Lists.newArrayList();
+
+        private Member rootMember;
+        private TimestampedState rootState;
+        private T rootLifecycle;
+
+        private SnapshotScan(CurrentMembersSnapshot current) {
+            this.current = current;
+            this.roots = current.cursor();
+        }
+
+        @Override
+        public boolean stream(Member otherMember, boolean isSelf, Member ackMember, T lifecycle, State state, long timestamp, long version)
+            throws Exception {
+            if (!roots.contains(otherMember)) {
+                return true;
+            }
+
+            if (rootMember == null || !rootMember.equals(otherMember)) {
+                flush();
+                rootMember = otherMember;
+                rootState = null;
+                rootLifecycle = memberLifecycle.get(otherMember);
+                acked.clear();
+            }
+
+            if (rootLifecycle == null || !rootLifecycle.equals(lifecycle)) {
+                return true;
+            }
+            if (rootState == null && isSelf) {
+                rootState = new TimestampedState(state, timestamp, version);
+            }
+            if (rootState != null && state == rootState.state && timestamp == rootState.timestamp) {
+                acked.set(memberRegistry.id(ackMember));
+            }
+            return true;
+        }
+
+        QuorumSnapshot snapshot() throws Exception {
+            flush();
+            rootState = null;
+            return new QuorumSnapshot(members.toArray(new Member[members.size()]),
+                waterlines.toArray(new Waterline[waterlines.size()]),
+                quorumWaterlines.toArray(new Waterline[quorumWaterlines.size()]));
+        }
+
+        private void flush() throws Exception {
+            if (rootState != null) {
+                members.add(rootMember);
+                waterlines.add(rootState.toWaterline(rootMember, current.isQuorum(acked.cardinality())));
+                quorumWaterlines.add(rootState.toWaterline(rootMember, current.isQuorum(acked.cardinality(current.bits()))));
+            }
+        }
+    }
+
+    class AcknowledgeScan implements StateStorage.StateStream<T> {
+
+        private final Member member;
+        private final CurrentMembersSnapshot.Cursor roots;
+        private final CurrentMembersSnapshot.Cursor acks;
+        private final StateStorage.SetState<T> setState;
+
+        private StateEntry<T> otherE;
+        private boolean coldstart = true;
+        private long highwater = -1;
+
+        private AcknowledgeScan(Member member, CurrentMembersSnapshot current, StateStorage.SetState<T> setState) {
+            this.member = member;
+            this.roots = current.cursor();
+            this.acks = current.cursor();
+            this.setState = setState;
+        }
+
+        @Override
+        public boolean stream(Member rootMember, boolean isSelf, Member ackMember, T lifecycle, State state, long timestamp, long version)
+            throws Exception {
+            highwater = Math.max(highwater, version);
+            if (!roots.contains(rootMember) || !isSelf && !acks.contains(ackMember)) {
+                return true;
+            }
+
+            if (otherE != null && (!otherE.rootMember.equals(rootMember) || !otherE.lifecycle.equals(lifecycle))) {
+                if (coldstart) {
+                    setState.set(otherE.rootMember, member, otherE.lifecycle, otherE.state, otherE.timestamp);
+                }
+                otherE = null;
+                coldstart = true;
+            }
+
+            if (otherE == null && isSelf && !member.equals(rootMember)) {
+                otherE = new StateEntry<>(rootMember, lifecycle, state, timestamp);
+            }
+            if (otherE != null && member.equals(ackMember)) {
+                coldstart = false;
+                if (state != otherE.state || timestamp != otherE.timestamp) {
+                    setState.set(otherE.rootMember, member, otherE.lifecycle, otherE.state, otherE.timestamp);
+                }
+            }
+            return true;
+        }
+
+        void done() throws Exception {
+            if (otherE != null && coldstart) {
+                setState.set(otherE.rootMember, member, otherE.lifecycle, otherE.state, otherE.timestamp);
+            }
+            otherE = null;
+        }
     }
 
     private static class StateEntry<T> {
@@ -204,6 +470,10 @@ public class ReadWaterline<T> {
             this.version = version;
         }
 
+        private Waterline toWaterline(Member member, boolean atQuorum) {
+            return new Waterline(member, state, timestamp, version, atQuorum);
+        }
+
         @Override
         public String toString() {
             return "TimestampedState{"
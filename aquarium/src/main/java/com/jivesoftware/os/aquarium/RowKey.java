@@ -0,0 +1,77 @@
+package com.jivesoftware.os.aquarium;
+
+import com.google.common.primitives.UnsignedBytes;
+import java.util.Arrays;
+
+/**
+ * On heap key of a stored state or liveliness row, for storage which indexes its rows in a sorted map. Keys are ordered the way
+ * aquarium expects storage to stream: by root member, then lifecycle descending, then the root's own row first, then by
+ * acknowledging member. A null lifecycle or ack only appears in scan bounds and sorts first.
+ */
+public class RowKey<T> implements Comparable<RowKey<T>> {
+
+    public static final byte[] NO_LIFECYCLE = new byte[0];
+
+    public final Member rootMember;
+    public final byte[] lifecycleBytes;
+    public final T lifecycle;
+    public final boolean isSelf;
+    public final Member ackMember;
+
+    public RowKey(Member rootMember, byte[] lifecycleBytes, T lifecycle, Member ackMember) {
+        this.rootMember = rootMember;
+        this.lifecycleBytes = lifecycleBytes;
+        this.lifecycle = lifecycle;
+        this.isSelf = ackMember == null || rootMember.equals(ackMember);
+        this.ackMember = ackMember;
+    }
+
+    public static RowKey<Void> liveliness(Member rootMember, Member ackMember) {
+        return new RowKey<>(rootMember, NO_LIFECYCLE, null, ackMember);
+    }
+
+    public boolean sameLifecycle(byte[] otherLifecycleBytes) {
+        return Arrays.equals(lifecycleBytes, otherLifecycleBytes);
+    }
+
+    @Override
+    public int compareTo(RowKey<T> o) {
+        int c = rootMember.compareTo(o.rootMember);
+        if (c != 0) {
+            return c;
+        }
+        if (lifecycleBytes != o.lifecycleBytes) {
+            if (lifecycleBytes == null) {
+                return -1;
+            } else if (o.lifecycleBytes == null) {
+                return 1;
+            }
+            c = -UnsignedBytes.lexicographicalComparator().compare(lifecycleBytes, o.lifecycleBytes);
+            if (c != 0) {
+                return c;
+            }
+        }
+        c = -Boolean.compare(isSelf, o.isSelf);
+        if (c != 0) {
+            return c;
+        }
+        if (ackMember == o.ackMember) {
+            return 0;
+        } else if (ackMember == null) {
+            return -1;
+        } else if (o.ackMember == null) {
+            return 1;
+        }
+        return ackMember.compareTo(o.ackMember);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        throw new UnsupportedOperationException("Not supported");
+    }
+
+    @Override
+    public int hashCode() {
+        throw new UnsupportedOperationException("Not supported");
+    }
+}
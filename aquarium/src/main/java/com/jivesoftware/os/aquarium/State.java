@@ -28,13 +28,16 @@ public enum State {
         return serializedForm;
     }
 
-    public static State fromSerializedForm(byte serializedForm) {
+    private static final State[] BY_SERIALIZED_FORM = new State[Byte.MAX_VALUE + 1];
+
+    static {
         for (State state : values()) {
-            if (state.serializedForm == serializedForm) {
-                return state;
-            }
+            BY_SERIALIZED_FORM[state.serializedForm] = state;
         }
-        return null;
+    }
+
+    public static State fromSerializedForm(byte serializedForm) {
+        return serializedForm >= 0 ? BY_SERIALIZED_FORM[serializedForm] : null;
     }
 
     interface Transistor {
@@ -42,10 +45,12 @@ public enum State {
         boolean advance(Liveliness liveliness,
             Waterline current,
             ReadWaterline readCurrent,
+            QuorumSnapshot currentSnapshot,
             WriteWaterline writeCurrent,
             TransitionQuorum transitionCurrent,
             Waterline desired,
             ReadWaterline readDesired,
+            QuorumSnapshot desiredSnapshot,
             WriteWaterline writeDesired,
             TransitionQuorum transitionDesired) throws Exception;
     }
@@ -56,14 +61,17 @@ public enum State {
         public boolean advance(Liveliness liveliness,
             Waterline current,
             ReadWaterline readCurrent,
+            QuorumSnapshot currentSnapshot,
             WriteWaterline writeCurrent,
             TransitionQuorum transitionCurrent,
             Waterline desired,
             ReadWaterline readDesired,
+            QuorumSnapshot desiredSnapshot,
             WriteWaterline writeDesired,
             TransitionQuorum transitionDesired) throws Exception {
 
-            if (recoverOrAwaitingQuorum(liveliness, current, desired, readCurrent, readDesired, writeCurrent, writeDesired, transitionDesired)) {
+            if (recoverOrAwaitingQuorum(liveliness, current, desired, readCurrent, readDesired, desiredSnapshot, writeCurrent, writeDesired,
+                transitionDesired)) {
                 return false;
             }
             return transitionCurrent.transition(current, desired.getTimestamp(), inactive, readCurrent, readDesired, writeCurrent, writeDesired);
@@ -76,13 +84,16 @@ public enum State {
         public boolean advance(Liveliness liveliness,
             Waterline current,
             ReadWaterline readCurrent,
+            QuorumSnapshot currentSnapshot,
             WriteWaterline writeCurrent,
             TransitionQuorum transitionCurrent,
             Waterline desired,
             ReadWaterline readDesired,
+            QuorumSnapshot desiredSnapshot,
             WriteWaterline writeDesired,
             TransitionQuorum transitionDesired) throws Exception {
-            if (recoverOrAwaitingQuorum(liveliness, current, desired, readCurrent, readDesired, writeCurrent, writeDesired, transitionDesired)) {
+            if (recoverOrAwaitingQuorum(liveliness, current, desired, readCurrent, readDesired, desiredSnapshot, writeCurrent, writeDesired,
+                transitionDesired)) {
                 return false;
             }
 
@@ -91,11 +102,11 @@ public enum State {
                 return false;
             }
 
-            Waterline desiredLeader = highest(current.getMember(), leader, readDesired, desired);
+            Waterline desiredLeader = highest(current.getMember(), leader, desiredSnapshot, desired);
             if (desiredLeader != null && desiredLeader.isAtQuorum()) {
                 boolean[] hasLeader = {false};
                 boolean[] hasNominated = {false};
-                readCurrent.getOthers(current.getMember(), (other) -> {
+                currentSnapshot.getOthers(current.getMember(), (other) -> {
                     boolean otherIsAlive = liveliness.isAlive(other.getMember());
                     if (otherIsAlive && atDesiredState(leader, other, desiredLeader)) {
                         hasLeader[0] = true;
@@ -131,17 +142,20 @@ public enum State {
         public boolean advance(Liveliness liveliness,
             Waterline current,
             ReadWaterline readCurrent,
+            QuorumSnapshot currentSnapshot,
             WriteWaterline writeCurrent,
             TransitionQuorum transitionCurrent,
             Waterline desired,
             ReadWaterline readDesired,
+            QuorumSnapshot desiredSnapshot,
             WriteWaterline writeDesired,
             TransitionQuorum transitionDesired) throws Exception {
-            if (recoverOrAwaitingQuorum(liveliness, current, desired, readCurrent, readDesired, writeCurrent, writeDesired, transitionDesired)) {
+            if (recoverOrAwaitingQuorum(liveliness, current, desired, readCurrent, readDesired, desiredSnapshot, writeCurrent, writeDesired,
+                transitionDesired)) {
                 return false;
             }
 
-            Waterline desiredLeader = highest(current.getMember(), leader, readDesired, desired);
+            Waterline desiredLeader = highest(current.getMember(), leader, desiredSnapshot, desired);
             if (desiredLeader == null || !desired.getMember().equals(desiredLeader.getMember())) {
                 return transitionCurrent.transition(current, desired.getTimestamp(), inactive, readCurrent, readDesired, writeCurrent, writeDesired);
             } else {
@@ -163,18 +177,21 @@ public enum State {
         public boolean advance(Liveliness liveliness,
             Waterline current,
             ReadWaterline readCurrent,
+            QuorumSnapshot currentSnapshot,
             WriteWaterline writeCurrent,
             TransitionQuorum transitionCurrent,
             Waterline desired,
             ReadWaterline readDesired,
+            QuorumSnapshot desiredSnapshot,
             WriteWaterline writeDesired,
             TransitionQuorum transitionDesired) throws Exception {
-            if (recoverOrAwaitingQuorum(liveliness, current, desired, readCurrent, readDesired, writeCurrent, writeDesired, transitionDesired)) {
+            if (recoverOrAwaitingQuorum(liveliness, current, desired, readCurrent, readDesired, desiredSnapshot, writeCurrent, writeDesired,
+                transitionDesired)) {
                 return false;
             }
 
-            Waterline currentLeader = highest(current.getMember(), leader, readCurrent, current);
-            Waterline desiredLeader = highest(current.getMember(), leader, readDesired, desired);
+            Waterline currentLeader = highest(current.getMember(), leader, currentSnapshot, current);
+            Waterline desiredLeader = highest(current.getMember(), leader, desiredSnapshot, desired);
             if (currentLeader == null
                 || desiredLeader == null
                 || !currentLeader.isAtQuorum()
@@ -193,10 +210,12 @@ public enum State {
         public boolean advance(Liveliness liveliness,
             Waterline current,
             ReadWaterline readCurrent,
+            QuorumSnapshot currentSnapshot,
             WriteWaterline writeCurrent,
             TransitionQuorum transitionCurrent,
             Waterline desired,
             ReadWaterline readDesired,
+            QuorumSnapshot desiredSnapshot,
             WriteWaterline writeDesired,
             TransitionQuorum transitionDesired) throws Exception {
 
@@ -205,13 +224,14 @@ public enum State {
                 // which we can achieve by demoting ourselves!
                 return transitionCurrent.transition(current, desired.getTimestamp(), demoted, readCurrent, readDesired, writeCurrent, writeDesired);
             }
-            if (recoverOrAwaitingQuorum(liveliness, current, desired, readCurrent, readDesired, writeCurrent, writeDesired, transitionDesired)
+            if (recoverOrAwaitingQuorum(liveliness, current, desired, readCurrent, readDesired, desiredSnapshot, writeCurrent, writeDesired,
+                transitionDesired)
                 || desired == null) {
                 return false;
             }
 
-            Waterline currentLeader = highest(current.getMember(), leader, readCurrent, current);
-            Waterline desiredLeader = highest(current.getMember(), leader, readDesired, desired);
+            Waterline currentLeader = highest(current.getMember(), leader, currentSnapshot, current);
+            Waterline desiredLeader = highest(current.getMember(), leader, desiredSnapshot, desired);
             boolean isFollower = false;
             if (currentLeader == null
                 || desiredLeader == null
@@ -238,20 +258,23 @@ public enum State {
         public boolean advance(Liveliness liveliness,
             Waterline current,
             ReadWaterline readCurrent,
+            QuorumSnapshot currentSnapshot,
             WriteWaterline writeCurrent,
             TransitionQuorum transitionCurrent,
             Waterline desired,
             ReadWaterline readDesired,
+            QuorumSnapshot desiredSnapshot,
             WriteWaterline writeDesired,
             TransitionQuorum transitionDesired) throws Exception {
-            if (recoverOrAwaitingQuorum(liveliness, current, desired, readCurrent, readDesired, writeCurrent, writeDesired, transitionDesired)) {
+            if (recoverOrAwaitingQuorum(liveliness, current, desired, readCurrent, readDesired, desiredSnapshot, writeCurrent, writeDesired,
+                transitionDesired)) {
                 return false;
             }
 
-            Waterline desiredLeader = highest(current.getMember(), leader, readDesired, desired);
+            Waterline desiredLeader = highest(current.getMember(), leader, desiredSnapshot, desired);
             if (desiredLeader != null) {
 
-                Waterline currentLeader = highest(current.getMember(), leader, readCurrent, current);
+                Waterline currentLeader = highest(current.getMember(), leader, currentSnapshot, current);
                 if (desiredLeader.isAtQuorum()
                     && Waterline.checkEquals(desiredLeader, currentLeader)) {
                     return transitionCurrent.transition(current, desired.getTimestamp(), inactive, readCurrent, readDesired, writeCurrent, writeDesired);
@@ -273,10 +296,12 @@ public enum State {
         public boolean advance(Liveliness liveliness,
             Waterline current,
             ReadWaterline readCurrent,
+            QuorumSnapshot currentSnapshot,
             WriteWaterline writeCurrent,
             TransitionQuorum transitionCurrent,
             Waterline desired,
             ReadWaterline readDesired,
+            QuorumSnapshot desiredSnapshot,
             WriteWaterline writeDesired,
             TransitionQuorum transitionDesired) throws Exception {
             return false;
@@ -289,6 +314,7 @@ public enum State {
         Waterline desired,
         ReadWaterline readCurrent,
         ReadWaterline readDesired,
+        QuorumSnapshot desiredSnapshot,
         WriteWaterline writeCurrent,
         WriteWaterline writeDesired,
         TransitionQuorum transitionDesired) throws Exception {
@@ -297,7 +323,7 @@ public enum State {
             return true;
         }
 
-        Waterline desiredLeader = highest(current.getMember(), leader, readDesired, desired);
+        Waterline desiredLeader = highest(current.getMember(), leader, desiredSnapshot, desired);
         boolean leaderIsLively = desiredLeader != null && liveliness.isAlive(desiredLeader.getMember());
         if (desired == null) {
             // recover from lack of desired
@@ -331,9 +357,30 @@ public enum State {
         State state,
         ReadWaterline readWaterline,
         Waterline me) throws Exception {
-        @SuppressWarnings("unchecked")
         Waterline[] waterline = new Waterline[1];
-        StreamQuorumState stream = (other) -> {
+        StreamQuorumState stream = highestStream(state, waterline);
+        if (me != null) {
+            stream.stream(me);
+        }
+        readWaterline.getOthers(member, stream);
+        return waterline[0];
+    }
+
+    public static Waterline highest(Member member,
+        State state,
+        QuorumSnapshot snapshot,
+        Waterline me) throws Exception {
+        Waterline[] waterline = new Waterline[1];
+        StreamQuorumState stream = highestStream(state, waterline);
+        if (me != null) {
+            stream.stream(me);
+        }
+        snapshot.getOthers(member, stream);
+        return waterline[0];
+    }
+
+    private static StreamQuorumState highestStream(State state, Waterline[] waterline) {
+        return (other) -> {
             if (other.getState() == state) {
                 if (waterline[0] == null) {
                     waterline[0] = other;
@@ -343,11 +390,6 @@ public enum State {
             }
             return true;
         };
-        if (me != null) {
-            stream.stream(me);
-        }
-        readWaterline.getOthers(member, stream);
-        return waterline[0];
     }
 
 }
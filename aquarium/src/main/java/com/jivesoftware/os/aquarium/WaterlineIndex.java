@@ -0,0 +1,182 @@
+package com.jivesoftware.os.aquarium;
+
+import com.google.common.collect.Maps;
+import com.jivesoftware.os.aquarium.interfaces.StateStorage;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * In memory view of the self rows and acknowledgements held by a {@link StateStorage}, keyed by root member and lifecycle.
+ * Local writes update the index as they happen, roots which are reported as externally changed are refreshed with a
+ * point scan, and a full scan is only needed at startup or when the storage cannot say which root changed.
+ * Storage that cannot {@link StateStorage#watch watch} for external writes leaves the index disabled.
+ *
+ * @param <T> lifecycle type
+ */
+public class WaterlineIndex<T> {
+
+    private final StateStorage<T> stateStorage;
+    private final MemberRegistry memberRegistry;
+
+    private volatile boolean initialized;
+    private volatile boolean enabled;
+    private volatile boolean rebuild = true;
+    private final Set<Member> dirty = ConcurrentHashMap.newKeySet();
+    private volatile NavigableMap<Member, Map<T, IndexedState>> roots = new ConcurrentSkipListMap<>();
+
+    public WaterlineIndex(StateStorage<T> stateStorage, MemberRegistry memberRegistry) {
+        this.stateStorage = stateStorage;
+        this.memberRegistry = memberRegistry;
+    }
+
+    public boolean isEnabled() throws Exception {
+        if (!initialized) {
+            synchronized (this) {
+                if (!initialized) {
+                    enabled = stateStorage.watch((rootMember, ackMember, lifecycle) -> {
+                        if (rootMember == null) {
+                            rebuild = true;
+                        } else {
+                            dirty.add(rootMember);
+                        }
+                    });
+                    initialized = true;
+                }
+            }
+        }
+        return enabled;
+    }
+
+    IndexedState get(Member rootMember, T lifecycle) throws Exception {
+        Map<T, IndexedState> lifecycles = refreshed().get(rootMember);
+        return lifecycles != null ? lifecycles.get(lifecycle) : null;
+    }
+
+    boolean stream(IndexStream<T> stream) throws Exception {
+        for (Map.Entry<Member, Map<T, IndexedState>> root : refreshed().entrySet()) {
+            for (Map.Entry<T, IndexedState> lifecycle : root.getValue().entrySet()) {
+                if (!stream.stream(root.getKey(), lifecycle.getKey(), lifecycle.getValue())) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Called after a self row was written locally. The storage assigns the row's version so the root is re-read on next use.
+     */
+    void written(Member rootMember) {
+        dirty.add(rootMember);
+    }
+
+    /**
+     * Called after a locally written acknowledgement of another member's self row.
+     */
+    void acknowledged(Member rootMember, Member ackMember, T lifecycle, State state, long timestamp) {
+        Map<T, IndexedState> lifecycles = roots.get(rootMember);
+        IndexedState indexed = (lifecycles != null) ? lifecycles.get(lifecycle) : null;
+        if (indexed == null) {
+            dirty.add(rootMember);
+        } else if (indexed.state == state && indexed.timestamp == timestamp) {
+            indexed.ack(memberRegistry.id(ackMember));
+        } else {
+            indexed.unack(memberRegistry.id(ackMember));
+        }
+    }
+
+    private NavigableMap<Member, Map<T, IndexedState>> refreshed() throws Exception {
+        if (rebuild || !dirty.isEmpty()) {
+            synchronized (this) {
+                if (rebuild) {
+                    rebuild = false;
+                    dirty.clear();
+                    NavigableMap<Member, Map<T, IndexedState>> rebuilt = new ConcurrentSkipListMap<>();
+                    load(null, rebuilt);
+                    roots = rebuilt;
+                } else {
+                    for (Member rootMember : dirty) {
+                        dirty.remove(rootMember);
+                        NavigableMap<Member, Map<T, IndexedState>> loaded = new ConcurrentSkipListMap<>();
+                        load(rootMember, loaded);
+                        Map<T, IndexedState> lifecycles = loaded.get(rootMember);
+                        if (lifecycles != null) {
+                            roots.put(rootMember, lifecycles);
+                        } else {
+                            roots.remove(rootMember);
+                        }
+                    }
+                }
+            }
+        }
+        return roots;
+    }
+
+    private void load(Member rootMember, NavigableMap<Member, Map<T, IndexedState>> into) throws Exception {
+        IndexedState[] indexed = new IndexedState[1];
+        Member[] lastMember = new Member[1];
+        Object[] lastLifecycle = new Object[1];
+        stateStorage.scan(rootMember, null, null, (otherMember, isSelf, ackMember, lifecycle, state, timestamp, version) -> {
+            if (lastMember[0] == null || !lastMember[0].equals(otherMember) || !lastLifecycle[0].equals(lifecycle)) {
+                lastMember[0] = otherMember;
+                lastLifecycle[0] = lifecycle;
+                indexed[0] = null;
+            }
+            if (indexed[0] == null && isSelf) {
+                indexed[0] = new IndexedState(state, timestamp, version, memberRegistry.size());
+                into.computeIfAbsent(otherMember, key -> Maps.newConcurrentMap()).put(lifecycle, indexed[0]);
+            }
+            if (indexed[0] != null && state == indexed[0].state && timestamp == indexed[0].timestamp) {
+                indexed[0].ack(memberRegistry.id(ackMember));
+            }
+            return true;
+        });
+    }
+
+    interface IndexStream<T> {
+
+        boolean stream(Member rootMember, T lifecycle, IndexedState indexed) throws Exception;
+    }
+
+    static class IndexedState {
+
+        final State state;
+        final long timestamp;
+        final long version;
+        private final MemberBitSet acked;
+
+        IndexedState(State state, long timestamp, long version, int capacity) {
+            this.state = state;
+            this.timestamp = timestamp;
+            this.version = version;
+            this.acked = new MemberBitSet(capacity);
+        }
+
+        synchronized void ack(int memberId) {
+            acked.set(memberId);
+        }
+
+        synchronized void unack(int memberId) {
+            acked.clear(memberId);
+        }
+
+        synchronized boolean isAcked(int memberId) {
+            return acked.get(memberId);
+        }
+
+        synchronized int ackedCount() {
+            return acked.cardinality();
+        }
+
+        synchronized int ackedCount(MemberBitSet members) {
+            return acked.cardinality(members);
+        }
+
+        Waterline toWaterline(Member member, boolean atQuorum) {
+            return new Waterline(member, state, timestamp, version, atQuorum);
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package com.jivesoftware.os.aquarium;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.jivesoftware.os.aquarium.interfaces.AtQuorum;
+import com.jivesoftware.os.aquarium.interfaces.CurrentMembers;
+import com.jivesoftware.os.aquarium.interfaces.MemberLifecycle;
+import com.jivesoftware.os.aquarium.interfaces.StateStorage;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Deletes rows which can no longer matter, so that scans stop growing with the age of the cluster:
+ * <ul>
+ * <li>a member's superseded lifecycles, once its current lifecycle has a newer self row which a quorum has seen, and</li>
+ * <li>every row of a member which a quorum has seen expunged, which also desires to be expunged, and which has been dead for a
+ * grace period.</li>
+ * </ul>
+ * This member's own rows are never reaped as expunged, since losing them would bootstrap it back into the cluster. A member which
+ * has departed, so whose lifecycle can no longer be looked up, is judged by its newest self row.
+ *
+ * @param <T> lifecycle type
+ */
+class WaterlineReaper<T> {
+
+    private final StateStorage<T> currentStateStorage;
+    private final StateStorage<T> desiredStateStorage;
+    private final WriteWaterline<T> writeCurrent;
+    private final WriteWaterline<T> writeDesired;
+    private final MemberLifecycle<T> memberLifecycle;
+    private final AtQuorum atQuorum;
+    private final CurrentMembers currentMembers;
+    private final MemberRegistry memberRegistry;
+    private final Liveliness liveliness;
+    private final Member member;
+
+    private final Map<Member, Long> expungedSince = new ConcurrentHashMap<>();
+
+    WaterlineReaper(StateStorage<T> currentStateStorage,
+        StateStorage<T> desiredStateStorage,
+        WriteWaterline<T> writeCurrent,
+        WriteWaterline<T> writeDesired,
+        MemberLifecycle<T> memberLifecycle,
+        AtQuorum atQuorum,
+        CurrentMembers currentMembers,
+        MemberRegistry memberRegistry,
+        Liveliness liveliness,
+        Member member) {
+        this.currentStateStorage = currentStateStorage;
+        this.desiredStateStorage = desiredStateStorage;
+        this.writeCurrent = writeCurrent;
+        this.writeDesired = writeDesired;
+        this.memberLifecycle = memberLifecycle;
+        this.atQuorum = atQuorum;
+        this.currentMembers = currentMembers;
+        this.memberRegistry = memberRegistry;
+        this.liveliness = liveliness;
+        this.member = member;
+    }
+
+    /**
+     * @param expungedGraceMillis how long an expunged member must have been seen dead before its rows are deleted
+     * @return the number of member lifecycles deleted
+     */
+    int reap(long expungedGraceMillis) throws Exception {
+        CurrentMembersSnapshot current = CurrentMembersSnapshot.of(null, currentMembers, memberRegistry, atQuorum);
+        Map<Member, Map<T, SelfRow>> currentRoots = roots(currentStateStorage, current);
+        Map<Member, Map<T, SelfRow>> desiredRoots = roots(desiredStateStorage, current);
+
+        long now = liveliness.currentTimeMillis();
+        Set<Member> expunged = Sets.newHashSet();
+        Set<Member> reapable = Sets.newHashSet();
+        for (Map.Entry<Member, Map<T, SelfRow>> root : currentRoots.entrySet()) {
+            Member rootMember = root.getKey();
+            if (rootMember.equals(member)) {
+                continue;
+            }
+            T lifecycle = memberLifecycle.get(rootMember);
+            if (lifecycle == null) {
+                lifecycle = newestLifecycle(root.getValue());
+            }
+            SelfRow currentSelf = root.getValue().get(lifecycle);
+            SelfRow desiredSelf = desiredRoots.getOrDefault(rootMember, Collections.emptyMap()).get(lifecycle);
+            if (currentSelf != null && currentSelf.state == State.expunged && current.isQuorum(currentSelf.acked)
+                && (desiredSelf == null || desiredSelf.state == State.expunged)
+                && !liveliness.isAlive(rootMember)) {
+                expunged.add(rootMember);
+                long since = expungedSince.computeIfAbsent(rootMember, key -> now);
+                if (now - since >= expungedGraceMillis) {
+                    reapable.add(rootMember);
+                }
+            }
+        }
+        expungedSince.keySet().retainAll(expunged);
+
+        // the same lifecycle is usually deleted from both storages, and counts once
+        Map<Member, Set<T>> reaped = Maps.newHashMap();
+        reap(currentRoots, reapable, current, writeCurrent, reaped);
+        reap(desiredRoots, reapable, current, writeDesired, reaped);
+        expungedSince.keySet().removeAll(reapable);
+        int count = 0;
+        for (Set<T> lifecycles : reaped.values()) {
+            count += lifecycles.size();
+        }
+        return count;
+    }
+
+    private void reap(Map<Member, Map<T, SelfRow>> roots,
+        Set<Member> reapable,
+        CurrentMembersSnapshot current,
+        WriteWaterline<T> writer,
+        Map<Member, Set<T>> reaped) throws Exception {
+        List<Member> rootMembers = Lists.newArrayList();
+        List<T> lifecycles = Lists.newArrayList();
+        for (Map.Entry<Member, Map<T, SelfRow>> root : roots.entrySet()) {
+            Member rootMember = root.getKey();
+            if (reapable.contains(rootMember)) {
+                for (T lifecycle : root.getValue().keySet()) {
+                    rootMembers.add(rootMember);
+                    lifecycles.add(lifecycle);
+                }
+                continue;
+            }
+
+            T lifecycle = memberLifecycle.get(rootMember);
+            SelfRow self = lifecycle != null ? root.getValue().get(lifecycle) : null;
+            if (self == null || !current.isQuorum(self.acked)) {
+                continue;
+            }
+            for (Map.Entry<T, SelfRow> other : root.getValue().entrySet()) {
+                // a newer self row guards against our view of the member's lifecycle lagging behind the member itself
+                if (!other.getKey().equals(lifecycle) && other.getValue().timestamp < self.timestamp) {
+                    rootMembers.add(rootMember);
+                    lifecycles.add(other.getKey());
+                }
+            }
+        }
+        if (!rootMembers.isEmpty() && writer.remove(rootMembers, lifecycles)) {
+            for (int i = 0; i < rootMembers.size(); i++) {
+                reaped.computeIfAbsent(rootMembers.get(i), key -> Sets.newHashSet()).add(lifecycles.get(i));
+            }
+        }
+    }
+
+    /**
+     * @return the lifecycle of the newest self row, or null if there is none
+     */
+    private T newestLifecycle(Map<T, SelfRow> lifecycles) {
+        T newest = null;
+        long newestTimestamp = Long.MIN_VALUE;
+        for (Map.Entry<T, SelfRow> entry : lifecycles.entrySet()) {
+            SelfRow self = entry.getValue();
+            if (self.state != null && (newest == null || self.timestamp > newestTimestamp)) {
+                newest = entry.getKey();
+                newestTimestamp = self.timestamp;
+            }
+        }
+        return newest;
+    }
+
+    /**
+     * @return for every root, each lifecycle's self row and how many current members acknowledge it
+     */
+    private Map<Member, Map<T, SelfRow>> roots(StateStorage<T> stateStorage, CurrentMembersSnapshot current) throws Exception {
+        Map<Member, Map<T, SelfRow>> roots = Maps.newHashMap();
+        CurrentMembersSnapshot.Cursor acks = current.cursor();
+        stateStorage.scan(null, null, null, (rootMember, isSelf, ackMember, lifecycle, state, timestamp, version) -> {
+            Map<T, SelfRow> lifecycles = roots.computeIfAbsent(rootMember, key -> Maps.newHashMap());
+            SelfRow self;
+            if (isSelf) {
+                self = new SelfRow(state, timestamp);
+                lifecycles.put(lifecycle, self);
+            } else {
+                // a lifecycle without a self row is superseded by any self row
+                self = lifecycles.computeIfAbsent(lifecycle, key -> new SelfRow(null, Long.MIN_VALUE));
+            }
+            if (self.state == state && self.timestamp == timestamp && acks.contains(ackMember)) {
+                self.acked++;
+            }
+            return true;
+        });
+        return roots;
+    }
+
+    private static class SelfRow {
+
+        private final State state;
+        private final long timestamp;
+        private int acked;
+
+        private SelfRow(State state, long timestamp) {
+            this.state = state;
+            this.timestamp = timestamp;
+        }
+    }
+}
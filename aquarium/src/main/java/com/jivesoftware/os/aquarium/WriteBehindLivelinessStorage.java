@@ -0,0 +1,274 @@
+package com.jivesoftware.os.aquarium;
+
+import com.jivesoftware.os.aquarium.interfaces.CurrentTimeMillis;
+import com.jivesoftware.os.aquarium.interfaces.LivelinessStorage;
+import java.util.Arrays;
+import java.util.function.LongPredicate;
+
+/**
+ * Buffers liveliness writes and flushes them to the wrapped storage in one batched update once the flush interval has passed or
+ * enough rows are pending. Heartbeats and their acknowledgements only ever move forward and only the latest matters, so pending
+ * writes are coalesced per (root, other) to their highest timestamp and a lost flush is repaired by the next heartbeat.
+ * <p>
+ * Flushes piggyback on calls to this storage, which the fish are fed often enough to drive, or callers may {@link #flush} on their
+ * own schedule. Until flushed a write is only visible to {@link #get}, so scans lag by up to the flush interval, see
+ * {@link #maxWriteLagMillis}.
+ */
+public class WriteBehindLivelinessStorage implements LivelinessStorage {
+
+    private final LivelinessStorage livelinessStorage;
+    private final MemberRegistry memberRegistry;
+    private final CurrentTimeMillis currentTimeMillis;
+    private final long flushIntervalMillis;
+    private final int maxPending;
+
+    private final Object flushLock = new Object();
+    private PendingTimestamps pending = new PendingTimestamps(); // guarded by this
+    private PendingTimestamps flushing; // guarded by this
+    private long oldestPendingTimestamp = -1; // guarded by this
+    private volatile long lastFlushTimestamp;
+
+    public WriteBehindLivelinessStorage(LivelinessStorage livelinessStorage,
+        MemberRegistry memberRegistry,
+        CurrentTimeMillis currentTimeMillis,
+        long flushIntervalMillis,
+        int maxPending) {
+        this.livelinessStorage = livelinessStorage;
+        this.memberRegistry = memberRegistry;
+        this.currentTimeMillis = currentTimeMillis;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.maxPending = maxPending;
+        this.lastFlushTimestamp = currentTimeMillis.get();
+    }
+
+    @Override
+    public boolean scan(Member rootMember, Member otherMember, LivelinessStream stream) throws Exception {
+        flushIfDue(false);
+        return livelinessStorage.scan(rootMember, otherMember, stream);
+    }
+
+    @Override
+    public boolean update(LivelinessUpdates updates) throws Exception {
+        boolean[] full = { false };
+        boolean updated = updates.updates((rootMember, otherMember, timestamp) -> {
+            long key = key(memberRegistry.id(rootMember), memberRegistry.id(otherMember));
+            synchronized (this) {
+                if (pending.size() == 0) {
+                    oldestPendingTimestamp = currentTimeMillis.get();
+                }
+                pending.putMax(key, timestamp);
+                full[0] |= pending.size() >= maxPending;
+            }
+            return true;
+        });
+        flushIfDue(full[0]);
+        return updated;
+    }
+
+    @Override
+    public long get(Member rootMember, Member otherMember) throws Exception {
+        long timestamp = livelinessStorage.get(rootMember, otherMember);
+        int rootId = memberRegistry.existingId(rootMember);
+        int otherId = memberRegistry.existingId(otherMember);
+        if (rootId != -1 && otherId != -1) {
+            synchronized (this) {
+                long key = key(rootId, otherId);
+                timestamp = Math.max(timestamp, pending.get(key));
+                if (flushing != null) {
+                    timestamp = Math.max(timestamp, flushing.get(key));
+                }
+            }
+        }
+        return timestamp;
+    }
+
+    @Override
+    public boolean supportsScanSince() {
+        return livelinessStorage.supportsScanSince();
+    }
+
+    @Override
+    public boolean scanSince(long version, LivelinessStream stream) throws Exception {
+        flushIfDue(false);
+        return livelinessStorage.scanSince(version, stream);
+    }
+
+    @Override
+    public boolean watch(LivelinessWatcher watcher) throws Exception {
+        return livelinessStorage.watch(watcher);
+    }
+
+    @Override
+    public boolean remove(LivelinessRemovals removals) throws Exception {
+        return livelinessStorage.remove(removeLiveliness -> removals.removals((rootMember, ackMember) -> {
+            int rootId = memberRegistry.existingId(rootMember);
+            if (rootId != -1) {
+                int ackId = ackMember != null ? memberRegistry.existingId(ackMember) : -1;
+                synchronized (this) {
+                    // a pending write must not bring back what was removed
+                    pending.removeIf(key -> (int) (key >>> 32) == rootId && (ackMember == null || (int) key == ackId));
+                }
+            }
+            return removeLiveliness.remove(rootMember, ackMember);
+        }));
+    }
+
+    @Override
+    public long maxWriteLagMillis() {
+        return flushIntervalMillis + livelinessStorage.maxWriteLagMillis();
+    }
+
+    /**
+     * @return how long the oldest pending write has waited, or 0 if nothing is pending
+     */
+    public long flushLagMillis() {
+        synchronized (this) {
+            return pending.size() == 0 ? 0 : Math.max(0, currentTimeMillis.get() - oldestPendingTimestamp);
+        }
+    }
+
+    /**
+     * Writes every pending row to the wrapped storage in one update. The rows stay visible to {@link #get} until the update returns,
+     * and should it fail they are pending again.
+     */
+    public void flush() throws Exception {
+        synchronized (flushLock) {
+            PendingTimestamps flushed;
+            long flushedOldestTimestamp;
+            synchronized (this) {
+                lastFlushTimestamp = currentTimeMillis.get();
+                if (pending.size() == 0) {
+                    return;
+                }
+                flushed = pending;
+                flushedOldestTimestamp = oldestPendingTimestamp;
+                flushing = flushed;
+                pending = new PendingTimestamps();
+            }
+            boolean updated = false;
+            try {
+                updated = livelinessStorage.update(setLiveliness -> flushed.forEach((key, timestamp) -> setLiveliness.set(
+                    memberRegistry.member((int) (key >>> 32)),
+                    memberRegistry.member((int) key),
+                    timestamp)));
+            } finally {
+                synchronized (this) {
+                    flushing = null;
+                    if (!updated) {
+                        oldestPendingTimestamp = (pending.size() == 0) ? flushedOldestTimestamp
+                            : Math.min(oldestPendingTimestamp, flushedOldestTimestamp);
+                        flushed.forEach((key, timestamp) -> {
+                            pending.putMax(key, timestamp);
+                            return true;
+                        });
+                    }
+                }
+            }
+        }
+    }
+
+    private void flushIfDue(boolean full) throws Exception {
+        if (full || currentTimeMillis.get() - lastFlushTimestamp >= flushIntervalMillis) {
+            flush();
+        }
+    }
+
+    private static long key(int rootId, int otherId) {
+        return ((long) rootId << 32) | (otherId & 0xFFFF_FFFFL);
+    }
+
+    /**
+     * Open addressing map from a (root id, other id) key to the highest timestamp written for it.
+     */
+    private static class PendingTimestamps {
+
+        private static final long EMPTY = -1L; // ids are never negative
+
+        private long[] keys = newKeys(16);
+        private long[] timestamps = new long[16];
+        private int size;
+
+        int size() {
+            return size;
+        }
+
+        long get(long key) {
+            int mask = keys.length - 1;
+            for (int i = slot(key, mask); keys[i] != EMPTY; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    return timestamps[i];
+                }
+            }
+            return -1;
+        }
+
+        void putMax(long key, long timestamp) {
+            if ((size + 1) * 2 > keys.length) {
+                resize(keys.length * 2);
+            }
+            int mask = keys.length - 1;
+            int i = slot(key, mask);
+            while (keys[i] != EMPTY && keys[i] != key) {
+                i = (i + 1) & mask;
+            }
+            if (keys[i] == EMPTY) {
+                keys[i] = key;
+                timestamps[i] = timestamp;
+                size++;
+            } else if (timestamps[i] < timestamp) {
+                timestamps[i] = timestamp;
+            }
+        }
+
+        void removeIf(LongPredicate predicate) {
+            long[] oldKeys = keys;
+            long[] oldTimestamps = timestamps;
+            keys = newKeys(oldKeys.length);
+            timestamps = new long[oldKeys.length];
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != EMPTY && !predicate.test(oldKeys[i])) {
+                    putMax(oldKeys[i], oldTimestamps[i]);
+                }
+            }
+        }
+
+        boolean forEach(PendingStream stream) throws Exception {
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != EMPTY && !stream.stream(keys[i], timestamps[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void resize(int capacity) {
+            long[] oldKeys = keys;
+            long[] oldTimestamps = timestamps;
+            keys = newKeys(capacity);
+            timestamps = new long[capacity];
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != EMPTY) {
+                    putMax(oldKeys[i], oldTimestamps[i]);
+                }
+            }
+        }
+
+        private static int slot(long key, int mask) {
+            long h = key * 0x9E37_79B9_7F4A_7C15L;
+            return (int) (h ^ (h >>> 32)) & mask;
+        }
+
+        private static long[] newKeys(int capacity) {
+            long[] keys = new long[capacity];
+            Arrays.fill(keys, EMPTY);
+            return keys;
+        }
+    }
+
+    private interface PendingStream {
+
+        boolean stream(long key, long timestamp) throws Exception;
+    }
+}
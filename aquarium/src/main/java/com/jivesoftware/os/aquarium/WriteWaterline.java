@@ -1,9 +1,15 @@
 package com.jivesoftware.os.aquarium;
 
-import com.jivesoftware.os.aquarium.interfaces.StateStorage;
 import com.jivesoftware.os.aquarium.interfaces.MemberLifecycle;
+import com.jivesoftware.os.aquarium.interfaces.StateStorage;
+import com.jivesoftware.os.aquarium.interfaces.StateStorage.StateUpdates;
 import com.jivesoftware.os.mlogger.core.MetricLogger;
 import com.jivesoftware.os.mlogger.core.MetricLoggerFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @author jonathan.colt
@@ -13,16 +19,151 @@ public class WriteWaterline<T> {
     private static final MetricLogger LOG = MetricLoggerFactory.getLogger();
 
     private final StateStorage<T> stateStorage;
+    private final WaterlineIndex<T> waterlineIndex;
     private final MemberLifecycle<T> memberLifecycle;
+    private final AtomicLong writes;
+    private final List<BufferedPut> buffer; // null unless this writer is a batch
 
     public WriteWaterline(StateStorage<T> stateStorage,
+        WaterlineIndex<T> waterlineIndex,
         MemberLifecycle<T> memberLifecycle) {
+        this(stateStorage, waterlineIndex, memberLifecycle, new AtomicLong(), null);
+    }
+
+    private WriteWaterline(StateStorage<T> stateStorage,
+        WaterlineIndex<T> waterlineIndex,
+        MemberLifecycle<T> memberLifecycle,
+        AtomicLong writes,
+        List<BufferedPut> buffer) {
         this.stateStorage = stateStorage;
+        this.waterlineIndex = waterlineIndex;
         this.memberLifecycle = memberLifecycle;
+        this.writes = writes;
+        this.buffer = buffer;
     }
 
+    /**
+     * Writes the given member's waterline. On a {@link #batch} the put is only buffered and always returns true, as what storage
+     * makes of it is only known at {@link #commit}, so transition quorums must not take the result as proof the write landed.
+     * The tap rereads storage before deciding anything from it, and stops once a commit is rejected.
+     *
+     * @return the storage update's result, or true if buffered
+     */
     public boolean put(Member asMember, State state, long timestamp) throws Exception {
-        return stateStorage.update(setState -> setState.set(asMember, asMember, memberLifecycle.get(asMember), state, timestamp));
+        if (buffer != null) {
+            buffer.add(new BufferedPut(asMember, state, timestamp));
+            return true;
+        }
+        boolean result = stateStorage.update(setState -> setState.set(asMember, asMember, memberLifecycle.get(asMember), state, timestamp));
+        waterlineIndex.written(asMember);
+        writes.incrementAndGet();
+        return result;
+    }
+
+    /**
+     * @return a count which moves whenever this writer, or a batch of it, puts a waterline
+     */
+    long writes() {
+        return writes.get();
+    }
+
+    /**
+     * @return a writer over the same storage which buffers every put until {@link #commit}
+     */
+    WriteWaterline<T> batch() {
+        return new WriteWaterline<>(stateStorage, waterlineIndex, memberLifecycle, writes, new ArrayList<>());
+    }
+
+    /**
+     * Commits the puts buffered by this batch and by a batch over the other storage of the same aquarium. When both have puts
+     * and the storages can {@link StateStorage#updateWith update together} that is a single storage transaction, and each
+     * member's lifecycle is looked up once however many puts it has.
+     *
+     * @return false if storage rejected any of the updates
+     */
+    boolean commit(WriteWaterline<?> other) throws Exception {
+        @SuppressWarnings("unchecked")
+        WriteWaterline<T> otherBatch = (WriteWaterline<T>) other; // both writers of an aquarium share its lifecycle type
+        if (buffer.isEmpty() && otherBatch.buffer.isEmpty()) {
+            return true;
+        }
+
+        Map<Member, T> lifecycles = new HashMap<>();
+        StateUpdates<T> updates = updates(lifecycles);
+        StateUpdates<T> otherUpdates = otherBatch.updates(lifecycles);
+        boolean committed;
+        if (otherBatch.buffer.isEmpty()) {
+            committed = stateStorage.update(updates);
+        } else if (buffer.isEmpty()) {
+            committed = otherBatch.stateStorage.update(otherUpdates);
+        } else if (stateStorage.updateWith(otherBatch.stateStorage, updates, otherUpdates)) {
+            committed = true;
+        } else {
+            committed = stateStorage.update(updates);
+            committed &= otherBatch.stateStorage.update(otherUpdates);
+        }
+        written();
+        otherBatch.written();
+        return committed;
+    }
+
+    /**
+     * Deletes every row of each root member's lifecycle, pairwise.
+     *
+     * @return false if the storage cannot delete
+     */
+    boolean remove(List<Member> rootMembers, List<T> lifecycles) throws Exception {
+        boolean removed = stateStorage.remove(removeState -> {
+            for (int i = 0; i < rootMembers.size(); i++) {
+                if (!removeState.remove(rootMembers.get(i), lifecycles.get(i))) {
+                    return false;
+                }
+            }
+            return true;
+        });
+        if (removed) {
+            for (Member rootMember : rootMembers) {
+                waterlineIndex.written(rootMember);
+            }
+            writes.incrementAndGet();
+        }
+        return removed;
+    }
+
+    private StateUpdates<T> updates(Map<Member, T> lifecycles) {
+        return setState -> {
+            for (BufferedPut put : buffer) {
+                T lifecycle = lifecycles.get(put.asMember);
+                if (lifecycle == null) {
+                    lifecycle = memberLifecycle.get(put.asMember);
+                    lifecycles.put(put.asMember, lifecycle);
+                }
+                if (!setState.set(put.asMember, put.asMember, lifecycle, put.state, put.timestamp)) {
+                    return false;
+                }
+            }
+            return true;
+        };
     }
 
+    private void written() {
+        for (BufferedPut put : buffer) {
+            waterlineIndex.written(put.asMember);
+            writes.incrementAndGet();
+        }
+        buffer.clear();
+    }
+
+    private static class BufferedPut {
+
+        private final Member asMember;
+        private final State state;
+        private final long timestamp;
+
+        private BufferedPut(Member asMember, State state, long timestamp) {
+            this.asMember = asMember;
+            this.state = state;
+            this.timestamp = timestamp;
+        }
+    }
 }
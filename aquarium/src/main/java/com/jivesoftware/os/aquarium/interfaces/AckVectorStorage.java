@@ -0,0 +1,62 @@
+package com.jivesoftware.os.aquarium.interfaces;
+
+import com.jivesoftware.os.aquarium.AckVector;
+import com.jivesoftware.os.aquarium.Member;
+
+/**
+ * Keeps acknowledgements as one row per acknowledging member, its {@link AckVector}, instead of one row per (root, acknowledging
+ * member) pair. A member's vector also holds its own state, so a ring of N members is N rows: a tick rewrites one row per member
+ * and a full scan reads N rows rather than N * N. See {@link com.jivesoftware.os.aquarium.AckVectorStateStorage} and
+ * {@link com.jivesoftware.os.aquarium.AckVectorLivelinessStorage}.
+ *
+ * @param <T> lifecycle type
+ */
+public interface AckVectorStorage<T> {
+
+    /**
+     * Streams the given member's vector, or every member's vector in member order if the member is null. A vector's entries are
+     * streamed in the order they were set and its version moves with every set, -1 being the version of a missing vector.
+     */
+    boolean scan(Member ackMember, AckVectorStream<T> stream) throws Exception;
+
+    /**
+     * Each set replaces the member's whole vector, provided it is still at the version it was scanned at, so writers racing on one
+     * member's vector never silently drop each other's entries. Each set is applied on its own, and a refused set ends the update
+     * without undoing those before it. Storage may delete the row of an empty vector.
+     *
+     * @return false if any set was refused, whether it lost a race or storage rejected it
+     */
+    boolean update(AckVectorUpdates<T> updates) throws Exception;
+
+    /**
+     * Registers a watcher which is told about vectors written by anyone other than this storage instance. Storage that cannot
+     * observe such writes returns false and callers must keep rescanning it.
+     */
+    default boolean watch(AckVectorWatcher watcher) throws Exception {
+        return false;
+    }
+
+    interface AckVectorStream<T> {
+
+        boolean stream(Member ackMember, AckVector<T> vector, long version) throws Exception;
+    }
+
+    interface AckVectorUpdates<T> {
+
+        boolean updates(SetAckVector<T> setAckVector) throws Exception;
+    }
+
+    interface SetAckVector<T> {
+
+        /**
+         * @param expectedVersion the version the vector was scanned at, or -1 if the member had none
+         * @return false without writing anything if the member's vector is no longer at the expected version
+         */
+        boolean set(Member ackMember, AckVector<T> vector, long expectedVersion) throws Exception;
+    }
+
+    interface AckVectorWatcher {
+
+        void changed(Member ackMember) throws Exception;
+    }
+}
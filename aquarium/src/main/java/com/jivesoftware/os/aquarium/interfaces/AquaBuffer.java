@@ -308,7 +308,43 @@ public class AquaBuffer {
         }
     }
 
+    /**
+     * Compares this buffer's content to the given bytes using the same unsigned lexicographical order as {@link Member}.
+     */
+    public int compareTo(byte[] other) {
+        int l = Math.min(length, other.length);
+        for (int i = 0; i < l; i++) {
+            int c = (get(i) & 0xFF) - (other[i] & 0xFF);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return length - other.length;
+    }
+
+    public boolean contentEquals(byte[] other) {
+        if (other == null || length != other.length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (get(i) != other[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
 
+    public boolean contentEquals(AquaBuffer other) {
+        if (other == null || length != other.length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (get(i) != other.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
 
     @Override
     public int hashCode() {
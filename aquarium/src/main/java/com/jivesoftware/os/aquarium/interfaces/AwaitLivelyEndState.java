@@ -2,6 +2,8 @@ package com.jivesoftware.os.aquarium.interfaces;
 
 import com.jivesoftware.os.aquarium.LivelyEndState;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  *
@@ -11,4 +13,44 @@ public interface AwaitLivelyEndState {
     LivelyEndState awaitChange(Callable<LivelyEndState> awaiter, long timeoutMillis) throws Exception;
 
     void notifyChange(Callable<Boolean> change) throws Exception;
-}
\ No newline at end of file
+
+    /**
+     * Completes with the awaiter's first non-null result, or exceptionally if it is not satisfied within the timeout. The default
+     * blocks a common pool thread in {@link #awaitChange}; implementations which can complete the future from {@link #notifyChange}
+     * should override it.
+     */
+    default CompletableFuture<LivelyEndState> awaitChangeAsync(Callable<LivelyEndState> awaiter, long timeoutMillis) {
+        CompletableFuture<LivelyEndState> future = new CompletableFuture<>();
+        ForkJoinPool.commonPool().execute(() -> {
+            try {
+                future.complete(awaitChange(awaiter, timeoutMillis));
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Awaits a change notified for the given source, e.g. one aquarium of several sharing this instance. The default ignores the
+     * source.
+     */
+    default LivelyEndState awaitChange(Object source, Callable<LivelyEndState> awaiter, long timeoutMillis) throws Exception {
+        return awaitChange(awaiter, timeoutMillis);
+    }
+
+    /**
+     * Like {@link #awaitChange(Object, Callable, long)} without holding a thread while waiting.
+     */
+    default CompletableFuture<LivelyEndState> awaitChangeAsync(Object source, Callable<LivelyEndState> awaiter, long timeoutMillis) {
+        return awaitChangeAsync(awaiter, timeoutMillis);
+    }
+
+    /**
+     * Notifies a change which only concerns waiters of the given source, and those which awaited without one. The default
+     * notifies every waiter.
+     */
+    default void notifyChange(Object source, Callable<Boolean> change) throws Exception {
+        notifyChange(change);
+    }
+}
@@ -9,4 +9,12 @@ import java.util.Set;
 public interface CurrentMembers {
 
     Set<Member> getCurrent() throws Exception;
+
+    /**
+     * A version which moves whenever the current members change, so what is derived from them may be reused until it moves.
+     * Members which cannot say when they change return -1 and are read again for every pass over storage.
+     */
+    default long epoch() throws Exception {
+        return -1;
+    }
 }
@@ -0,0 +1,29 @@
+package com.jivesoftware.os.aquarium.interfaces;
+
+import com.jivesoftware.os.aquarium.Member;
+import com.jivesoftware.os.aquarium.State;
+
+/**
+ * Current and desired state kept in one backend, e.g. one table distinguished by a context byte, which can stream both in a
+ * single scan. Aquarium then reads both waterlines, and acknowledges both, with one pass instead of two.
+ *
+ * @param <T> lifecycle type
+ */
+public interface DualStateStorage<T> {
+
+    StateStorage<T> current() throws Exception;
+
+    StateStorage<T> desired() throws Exception;
+
+    /**
+     * Streams every row of both contexts. Each context's rows must arrive in the same order as a full {@link StateStorage#scan},
+     * but the two contexts may be interleaved in any way.
+     */
+    boolean scan(DualStateStream<T> stream) throws Exception;
+
+    interface DualStateStream<T> {
+
+        boolean stream(boolean desired, Member rootMember, boolean isSelf, Member ackMember, T lifecycle, State state, long timestamp, long version)
+            throws Exception;
+    }
+}
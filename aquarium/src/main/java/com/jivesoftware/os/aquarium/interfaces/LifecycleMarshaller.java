@@ -0,0 +1,11 @@
+package com.jivesoftware.os.aquarium.interfaces;
+
+/**
+ * Converts a member lifecycle to and from the bytes held by byte oriented storage such as a {@link RawStateStorage}.
+ */
+public interface LifecycleMarshaller<T> {
+
+    byte[] toBytes(T lifecycle) throws Exception;
+
+    T fromBytes(AquaBuffer bytes) throws Exception;
+}
@@ -13,6 +13,46 @@ public interface LivelinessStorage {
 
     long get(Member rootMember, Member otherMember) throws Exception;
 
+    /**
+     * @return true if this storage implements {@link #scanSince}
+     */
+    default boolean supportsScanSince() {
+        return false;
+    }
+
+    /**
+     * Streams, in key order, every row whose version is greater than the given version. Callers keep the highest version they
+     * have seen as a high-water mark, so a row must never become visible with a version lower than one already handed out.
+     */
+    default boolean scanSince(long version, LivelinessStream stream) throws Exception {
+        throw new UnsupportedOperationException(getClass() + " does not support scanSince");
+    }
+
+    /**
+     * Registers a watcher which is told about rows written by anyone other than this storage instance, e.g. heartbeats and
+     * acknowledgements from other members. Storage that cannot observe such writes returns false and callers must keep rescanning it.
+     */
+    default boolean watch(LivelinessWatcher watcher) throws Exception {
+        return false;
+    }
+
+    /**
+     * Deletes rows, e.g. those of members which have left the ring, so that full scans follow the live ring rather than its
+     * history. Storage with a native TTL may expire such rows on its own and keep the default, which removes nothing.
+     *
+     * @return false if this storage cannot remove rows
+     */
+    default boolean remove(LivelinessRemovals removals) throws Exception {
+        return false;
+    }
+
+    /**
+     * @return the longest a write may wait before other members can read it, e.g. in a write-behind buffer
+     */
+    default long maxWriteLagMillis() {
+        return 0;
+    }
+
     interface LivelinessStream {
 
         boolean stream(Member rootMember, boolean isSelf, Member ackMember, long timestamp, long version) throws Exception;
@@ -23,6 +63,27 @@ public interface LivelinessStorage {
         boolean updates(SetLiveliness setLiveliness) throws Exception;
     }
 
+    interface LivelinessWatcher {
+
+        /**
+         * @param rootMember the root of the changed row, or null if every root should be considered changed
+         */
+        void changed(Member rootMember, Member ackMember) throws Exception;
+    }
+
+    interface LivelinessRemovals {
+
+        boolean removals(RemoveLiveliness removeLiveliness) throws Exception;
+    }
+
+    interface RemoveLiveliness {
+
+        /**
+         * @param ackMember the acknowledging member of the single row to remove, or null to remove every row of the root
+         */
+        boolean remove(Member rootMember, Member ackMember) throws Exception;
+    }
+
     interface SetLiveliness {
 
         boolean set(Member rootMember, Member otherMember, long timestamp) throws Exception;
@@ -0,0 +1,18 @@
+package com.jivesoftware.os.aquarium.interfaces;
+
+import com.jivesoftware.os.aquarium.LivelyEndState;
+import com.jivesoftware.os.aquarium.LivelyEndStateChange;
+
+/**
+ *
+ */
+public interface LivelyEndStateListener {
+
+    /**
+     * Called on the tapping thread, in order, for each change the tap loop sees. The tapping thread holds the aquarium's tap lock
+     * throughout, so listeners should hand real work off to another thread and must not tap the aquarium themselves.
+     *
+     * @param previous the end state left by the previous tap, or null before the first
+     */
+    void changed(LivelyEndStateChange change, LivelyEndState previous, LivelyEndState current) throws Exception;
+}
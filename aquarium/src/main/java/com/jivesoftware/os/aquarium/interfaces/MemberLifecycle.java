@@ -8,4 +8,12 @@ import com.jivesoftware.os.aquarium.Member;
 public interface MemberLifecycle<T> {
 
     T get(Member member) throws Exception;
+
+    /**
+     * A version which moves whenever any member's lifecycle changes, so lifecycles may be cached until it moves. Lifecycles which
+     * cannot say when they change return -1 and are only cached for the length of a single pass over storage.
+     */
+    default long epoch() throws Exception {
+        return -1;
+    }
 }
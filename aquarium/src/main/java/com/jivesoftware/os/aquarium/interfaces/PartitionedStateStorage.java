@@ -0,0 +1,21 @@
+package com.jivesoftware.os.aquarium.interfaces;
+
+/**
+ * One storage handle for many aquariums, each of which elects for its own partition.
+ *
+ * @param <P> partition type
+ * @param <T> lifecycle type
+ */
+public interface PartitionedStateStorage<P, T> {
+
+    StateStorage<T> current(P partition) throws Exception;
+
+    StateStorage<T> desired(P partition) throws Exception;
+
+    /**
+     * @return the partition's current and desired state as one storage which can scan both together, or null if it cannot
+     */
+    default DualStateStorage<T> dual(P partition) throws Exception {
+        return null;
+    }
+}
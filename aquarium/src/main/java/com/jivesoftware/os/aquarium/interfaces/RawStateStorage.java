@@ -0,0 +1,47 @@
+package com.jivesoftware.os.aquarium.interfaces;
+
+/**
+ * Byte oriented counterpart of {@link StateStorage} for stores which already hold their rows as byte slices. Members and
+ * lifecycles are handed over as {@link AquaBuffer} slices which the storage may reuse for the next row, so a stream must copy
+ * anything it wants to keep. States are passed in their {@link com.jivesoftware.os.aquarium.State#getSerializedForm() serialized form}.
+ */
+public interface RawStateStorage {
+
+    boolean scan(AquaBuffer rootMember, AquaBuffer otherMember, AquaBuffer lifecycle, RawStateStream stream) throws Exception;
+
+    boolean update(RawStateUpdates updates) throws Exception;
+
+    /**
+     * See {@link StateStorage#remove}.
+     */
+    default boolean remove(RawStateRemovals removals) throws Exception {
+        return false;
+    }
+
+    interface RawStateStream {
+
+        boolean stream(AquaBuffer rootMember, boolean isSelf, AquaBuffer ackMember, AquaBuffer lifecycle, byte state, long timestamp, long version)
+            throws Exception;
+    }
+
+    interface RawStateUpdates {
+
+        boolean updates(SetRawState setRawState) throws Exception;
+    }
+
+    interface SetRawState {
+
+        boolean set(AquaBuffer rootMember, AquaBuffer otherMember, AquaBuffer lifecycle, byte state, long timestamp) throws Exception;
+    }
+
+    interface RawStateRemovals {
+
+        boolean removals(RemoveRawState removeRawState) throws Exception;
+    }
+
+    interface RemoveRawState {
+
+        boolean remove(AquaBuffer rootMember, AquaBuffer lifecycle) throws Exception;
+    }
+
+}
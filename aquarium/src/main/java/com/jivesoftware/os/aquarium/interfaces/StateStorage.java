@@ -12,6 +12,45 @@ public interface StateStorage<T> {
 
     boolean update(StateUpdates<T> updates) throws Exception;
 
+    /**
+     * Applies updates to this storage and to another in a single transaction, e.g. when current and desired state are two contexts
+     * of the same backend. Storage which cannot do so returns false without applying anything and callers update each on its own.
+     */
+    default boolean updateWith(StateStorage<T> other, StateUpdates<T> updates, StateUpdates<T> otherUpdates) throws Exception {
+        return false;
+    }
+
+    /**
+     * Deletes every row of each given root member's lifecycle, i.e. its self row and every acknowledgement of it. Storage which
+     * cannot delete returns false and its rows are left for scans to filter out.
+     */
+    default boolean remove(StateRemovals<T> removals) throws Exception {
+        return false;
+    }
+
+    /**
+     * @return true if this storage implements {@link #scanSince}
+     */
+    default boolean supportsScanSince() {
+        return false;
+    }
+
+    /**
+     * Streams, in key order, every row whose version is greater than the given version. Callers keep the highest version they
+     * have seen as a high-water mark, so a row must never become visible with a version lower than one already handed out.
+     */
+    default boolean scanSince(long version, StateStream<T> stream) throws Exception {
+        throw new UnsupportedOperationException(getClass() + " does not support scanSince");
+    }
+
+    /**
+     * Registers a watcher which is told about rows written by anyone other than this storage instance, e.g. replicated writes
+     * from other members. Storage that cannot observe such writes returns false and callers must keep rescanning it.
+     */
+    default boolean watch(StateWatcher<T> watcher) throws Exception {
+        return false;
+    }
+
     interface StateStream<T> {
 
         boolean stream(Member rootMember, boolean isSelf, Member ackMember, T lifecycle, State state, long timestamp, long version) throws Exception;
@@ -22,9 +61,27 @@ public interface StateStorage<T> {
         boolean updates(SetState<T> setState) throws Exception;
     }
 
+    interface StateWatcher<T> {
+
+        /**
+         * @param rootMember the root of the changed row, or null if every root should be considered changed
+         */
+        void changed(Member rootMember, Member ackMember, T lifecycle) throws Exception;
+    }
+
     interface SetState<T> {
 
         boolean set(Member rootMember, Member otherMember, T lifecycle, State state, long timestamp) throws Exception;
     }
 
+    interface StateRemovals<T> {
+
+        boolean removals(RemoveState<T> removeState) throws Exception;
+    }
+
+    interface RemoveState<T> {
+
+        boolean remove(Member rootMember, T lifecycle) throws Exception;
+    }
+
 }
@@ -11,6 +11,10 @@ import com.jivesoftware.os.aquarium.WriteWaterline;
  */
 public interface TransitionQuorum {
 
+    /**
+     * During a tap the writers buffer their puts until the tap iteration ends, so a put is not visible through the readers
+     * until then.
+     */
     boolean transition(Waterline existing,
         long nextTimestamp,
         State nextState,
@@ -0,0 +1,164 @@
+package com.jivesoftware.os.aquarium;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.jivesoftware.os.aquarium.interfaces.AckVectorStorage;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ *
+ */
+public class AckVectorStateStorageNGTest {
+
+    @Test
+    public void testOneVectorPerAckMember() throws Exception {
+        MemoryAckVectorStorage<Integer> vectors = new MemoryAckVectorStorage<>();
+        AckVectorStateStorage<Integer> storage = new AckVectorStateStorage<>(vectors);
+        Member[] members = { member(1), member(2), member(3) };
+        for (Member member : members) {
+            storage.update(setState -> setState.set(member, member, 0, State.follower, 10L));
+        }
+        storage.update(setState -> setState.set(members[1], members[0], 0, State.follower, 10L)
+            && setState.set(members[2], members[0], 0, State.follower, 10L));
+        Assert.assertEquals(vectors.writes.get(), 4, "acknowledging every root rewrites one vector");
+        Assert.assertEquals(vectors.vectors.size(), 3);
+        Assert.assertEquals(rows(storage, null, null), Arrays.asList("1*1 follower", "2*2 follower", "2:1 follower", "3*3 follower", "3:1 follower"));
+        Assert.assertEquals(rows(storage, members[1], null), Arrays.asList("2*2 follower", "2:1 follower"));
+        Assert.assertEquals(rows(storage, null, members[0]), Arrays.asList("1*1 follower", "2:1 follower", "3:1 follower"));
+
+        storage.update(setState -> setState.set(members[1], members[0], 0, State.leader, 5L));
+        Assert.assertEquals(rows(storage, members[1], null), Arrays.asList("2*2 follower", "2:1 follower"), "an older timestamp is ignored");
+
+        Assert.assertTrue(storage.remove(removeState -> removeState.remove(members[1], 0)));
+        Assert.assertEquals(rows(storage, null, null), Arrays.asList("1*1 follower", "3*3 follower", "3:1 follower"));
+        Assert.assertEquals(vectors.vectors.size(), 2, "an emptied vector is deleted");
+    }
+
+    @Test
+    public void testConcurrentWritersKeepEveryEntry() throws Exception {
+        MemoryAckVectorStorage<Integer> vectors = new MemoryAckVectorStorage<>();
+        Member ackMember = member(1);
+        int writers = 4;
+        int rootsPerWriter = 100;
+        ExecutorService executor = Executors.newFixedThreadPool(writers);
+        try {
+            List<Future<?>> futures = Lists.newArrayList();
+            for (int i = 0; i < writers; i++) {
+                int firstRoot = 2 + i * rootsPerWriter;
+                AckVectorStateStorage<Integer> storage = new AckVectorStateStorage<>(vectors);
+                futures.add(executor.submit(() -> {
+                    for (int root = firstRoot; root < firstRoot + rootsPerWriter; root++) {
+                        Member rootMember = member(root);
+                        long timestamp = root;
+                        Assert.assertTrue(storage.update(setState -> setState.set(rootMember, ackMember, 0, State.follower, 10L)));
+                        Assert.assertTrue(storage.update(setState -> setState.set(ackMember, ackMember, 0, State.follower, timestamp)));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        AckVectorStateStorage<Integer> storage = new AckVectorStateStorage<>(vectors);
+        Assert.assertEquals(rows(storage, null, ackMember).size(), 1 + writers * rootsPerWriter, "no acknowledgement was lost");
+        Assert.assertEquals(rows(storage, ackMember, null), Arrays.asList("1*1 follower"), "nor the member's own state");
+    }
+
+    @Test
+    public void testRingOverAckVectors() throws Exception {
+        MemoryAckVectorStorage<Integer> currentVectors = new MemoryAckVectorStorage<>();
+        MemoryAckVectorStorage<Integer> desiredVectors = new MemoryAckVectorStorage<>();
+        MemoryAckVectorStorage<Void> livelinessVectors = new MemoryAckVectorStorage<>();
+        StorageTestUtil.Ring ring = new StorageTestUtil.Ring(Sets.newHashSet(member(1), member(2), member(3)),
+            new MemberRegistry(),
+            new AckVectorStateStorage<>(currentVectors),
+            new AckVectorStateStorage<>(desiredVectors),
+            new AckVectorLivelinessStorage(livelinessVectors));
+        Assert.assertTrue(ring.converge(100));
+        Assert.assertEquals(currentVectors.vectors.size(), 3, "one current vector per member");
+        Assert.assertEquals(livelinessVectors.vectors.size(), 3, "one liveliness vector per member");
+
+        long currentWrites = currentVectors.writes.get();
+        long livelinessWrites = livelinessVectors.writes.get();
+        ring.acknowledge(false);
+        Assert.assertTrue(currentVectors.writes.get() - currentWrites <= 3, "at most one current vector write per member per tick");
+        Assert.assertTrue(livelinessVectors.writes.get() - livelinessWrites <= 6, "a heartbeat and an acknowledgement per member per tick");
+    }
+
+    private static List<String> rows(AckVectorStateStorage<Integer> storage, Member rootMember, Member ackMember) throws Exception {
+        List<String> rows = Lists.newArrayList();
+        storage.scan(rootMember, ackMember, null, (root, isSelf, rowAckMember, lifecycle, state, timestamp, version) -> {
+            return rows.add(AquariumNGTest.bytesInt(root.getMember()) + (isSelf ? "*" : ":") + AquariumNGTest.bytesInt(rowAckMember.getMember())
+                + " " + state);
+        });
+        return rows;
+    }
+
+    private static Member member(int i) {
+        return new Member(AquariumNGTest.intBytes(i));
+    }
+
+    static class MemoryAckVectorStorage<T> implements AckVectorStorage<T> {
+
+        private final NavigableMap<Member, VersionedVector<T>> vectors = new ConcurrentSkipListMap<>();
+        private final AtomicLong version = new AtomicLong();
+        private final AtomicLong writes = new AtomicLong();
+
+        @Override
+        public boolean scan(Member ackMember, AckVectorStream<T> stream) throws Exception {
+            if (ackMember != null) {
+                VersionedVector<T> versioned = vectors.get(ackMember);
+                return versioned == null || stream.stream(ackMember, versioned.vector, versioned.version);
+            }
+            for (Map.Entry<Member, VersionedVector<T>> entry : vectors.entrySet()) {
+                if (!stream.stream(entry.getKey(), entry.getValue().vector, entry.getValue().version)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public boolean update(AckVectorUpdates<T> updates) throws Exception {
+            return updates.updates((ackMember, vector, expectedVersion) -> {
+                synchronized (vectors) { // only each set is atomic, not the caller's read of the vector
+                    VersionedVector<T> existing = vectors.get(ackMember);
+                    if ((existing == null ? -1 : existing.version) != expectedVersion) {
+                        return false;
+                    }
+                    writes.incrementAndGet();
+                    if (vector.isEmpty()) {
+                        vectors.remove(ackMember);
+                    } else {
+                        vectors.put(ackMember, new VersionedVector<>(vector, version.incrementAndGet()));
+                    }
+                    return true;
+                }
+            });
+        }
+    }
+
+    private static class VersionedVector<T> {
+
+        private final AckVector<T> vector;
+        private final long version;
+
+        private VersionedVector(AckVector<T> vector, long version) {
+            this.vector = vector;
+            this.version = version;
+        }
+    }
+}
@@ -0,0 +1,639 @@
+package com.jivesoftware.os.aquarium;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.jivesoftware.os.aquarium.AquariumNGTest.ContextualDualStateStorage;
+import com.jivesoftware.os.aquarium.AquariumNGTest.ContextualStateStorage;
+import com.jivesoftware.os.aquarium.AquariumNGTest.Key;
+import com.jivesoftware.os.aquarium.AquariumNGTest.ScanSinceStateStorage;
+import com.jivesoftware.os.aquarium.AquariumNGTest.TimestampedState;
+import com.jivesoftware.os.aquarium.interfaces.AwaitLivelyEndState;
+import com.jivesoftware.os.aquarium.interfaces.DualStateStorage;
+import com.jivesoftware.os.aquarium.interfaces.LivelinessStorage;
+import com.jivesoftware.os.aquarium.interfaces.PartitionedStateStorage;
+import com.jivesoftware.os.aquarium.interfaces.StateStorage;
+import com.jivesoftware.os.aquarium.interfaces.TransitionQuorum;
+import com.jivesoftware.os.jive.utils.ordered.id.ConstantWriterIdProvider;
+import com.jivesoftware.os.jive.utils.ordered.id.OrderIdProviderImpl;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ *
+ */
+public class AquariumHostNGTest {
+
+    private static final byte CURRENT = 0;
+    private static final byte DESIRED = 1;
+    private static final byte LIVELINESS = 2;
+
+    @Test
+    public void testTendTheSchool() throws Exception {
+        School school = new School(false);
+        int partitionCount = 10;
+        for (int i = 0; i < partitionCount; i++) {
+            Aquarium aquarium = school.getOrCreate(i);
+            Assert.assertSame(school.getOrCreate(i), aquarium);
+        }
+        List<LivelyEndStateChange> changes = new CopyOnWriteArrayList<>();
+        school.host.get(1).addListener((change, previous, current) -> changes.add(change));
+
+        int passes = 0;
+        while (!allOnline(school.host, partitionCount)) {
+            school.host.tendTheSchool();
+            passes++;
+            Assert.assertTrue(passes < 100, "Partitions failed to come online");
+        }
+        Assert.assertEquals(school.aquariumStats.feedTheFish.sum(), passes, "liveliness is fed once per pass rather than once per partition");
+        Assert.assertEquals(changes, Arrays.asList(LivelyEndStateChange.leaderChanged, LivelyEndStateChange.becameLeader));
+
+        // the end state the last tap published is served until something changes it
+        Aquarium aquarium = school.host.get(1);
+        LivelyEndState livelyEndState = aquarium.livelyEndState();
+        Assert.assertSame(aquarium.livelyEndState(), livelyEndState);
+        Assert.assertTrue(aquarium.isLivelyState(school.member, State.leader));
+        Assert.assertTrue(aquarium.isLivelyEndState(school.member));
+        Assert.assertSame(aquarium.getLeader(), livelyEndState.getLeaderWaterline());
+
+        LeaderLease lease = aquarium.acquireLeaderLease(100);
+        Assert.assertNotNull(lease);
+        Assert.assertTrue(lease.isValid(), "liveliness never expires when deadAfterMillis is 0");
+        Assert.assertEquals(lease.getFencingToken(), livelyEndState.getCurrentWaterline().getTimestamp());
+        long[] now = { 1_000 };
+        LeaderLease expiring = new LeaderLease(lease.getLeader(), 1_500, () -> now[0]);
+        Assert.assertTrue(expiring.isValid());
+        now[0] = 1_500;
+        Assert.assertFalse(expiring.isValid());
+
+        aquarium.suggestState(State.expunged);
+        Assert.assertNotSame(aquarium.livelyEndState(), livelyEndState);
+        Assert.assertNull(aquarium.acquireLeaderLease(100), "an expunged member is not the lively leader");
+        for (int i = 0; i < 10; i++) {
+            school.host.tendTheSchool();
+        }
+        Assert.assertEquals(changes.subList(2, 4), Arrays.asList(LivelyEndStateChange.wentOffline, LivelyEndStateChange.leaderChanged));
+
+        school.host.remove(0);
+        Assert.assertNull(school.host.get(0));
+        Assert.assertEquals(school.host.partitions().size(), partitionCount - 1);
+    }
+
+    @Test
+    public void testListenersSeeLivelinessLapse() throws Exception {
+        School school = new School(false, false, 1_000, new ParkingAwaitLivelyEndState());
+        Aquarium aquarium = school.getOrCreate(0);
+        List<LivelyEndStateChange> changes = new CopyOnWriteArrayList<>();
+        aquarium.addListener((change, previous, current) -> changes.add(change));
+        for (int i = 0; i < 10 && !allOnline(school.host, 1); i++) {
+            school.host.tendTheSchool();
+        }
+        Assert.assertTrue(allOnline(school.host, 1));
+        Assert.assertEquals(changes, Arrays.asList(LivelyEndStateChange.leaderChanged, LivelyEndStateChange.becameLeader));
+
+        // the leader's own heartbeat lapses, so it no longer has a quorum of lively acknowledgements
+        school.clock.addAndGet(2_000);
+        aquarium.tapTheGlass();
+        Assert.assertFalse(aquarium.livelyEndState().isOnline());
+        Assert.assertEquals(changes.subList(2, changes.size()), Arrays.asList(LivelyEndStateChange.wentOffline));
+
+        // and once it is fed it is alive and leading again
+        school.host.feedTheFish();
+        aquarium.tapTheGlass();
+        Assert.assertTrue(aquarium.livelyEndState().isOnline());
+        Assert.assertEquals(changes.subList(3, changes.size()), Arrays.asList(LivelyEndStateChange.becameLeader));
+    }
+
+    @Test
+    public void testPublishedEndStateExpires() throws Exception {
+        School school = new School(false, false, 1_000, new ParkingAwaitLivelyEndState());
+        Aquarium aquarium = school.getOrCreate(0);
+        for (int i = 0; i < 10 && !allOnline(school.host, 1); i++) {
+            school.host.tendTheSchool();
+        }
+        Assert.assertTrue(allOnline(school.host, 1));
+        LivelyEndState published = aquarium.livelyEndState();
+        Assert.assertSame(aquarium.livelyEndState(), published);
+
+        // a liveliness flip, here another member acknowledging us for the first time, stops serving the published end state
+        Member other = new Member(AquariumNGTest.intBytes(2));
+        long livelyChanges = school.host.liveliness().livelyChanges();
+        school.livelinessStorage.update(setLiveliness -> setLiveliness.set(school.member, other, school.clock.get()));
+        school.host.liveliness().acknowledgeOther();
+        Assert.assertNotEquals(school.host.liveliness().livelyChanges(), livelyChanges);
+        LivelyEndState reread = aquarium.livelyEndState();
+        Assert.assertNotSame(reread, published);
+        Assert.assertNotSame(aquarium.livelyEndState(), reread, "nothing is published until the next tap");
+        Assert.assertTrue(reread.isOnline());
+
+        aquarium.tapTheGlass();
+        published = aquarium.livelyEndState();
+        Assert.assertNotSame(published, reread);
+        Assert.assertSame(aquarium.livelyEndState(), published, "the tap republished");
+
+        // served through the last millisecond this member is alive, then read again
+        long aliveUntil = school.host.liveliness().aliveUntilTimestamp(school.member);
+        school.clock.set(aliveUntil);
+        Assert.assertSame(aquarium.livelyEndState(), published);
+        school.clock.set(aliveUntil + 1);
+        LivelyEndState expired = aquarium.livelyEndState();
+        Assert.assertNotSame(expired, published);
+        Assert.assertFalse(expired.isOnline());
+    }
+
+    @Test
+    public void testLeaderLeaseExpiresAheadOfLiveliness() throws Exception {
+        School school = new School(false, false, 1_000, new ParkingAwaitLivelyEndState());
+        Aquarium aquarium = school.getOrCreate(0);
+        for (int i = 0; i < 10 && !allOnline(school.host, 1); i++) {
+            school.host.tendTheSchool();
+        }
+        Assert.assertTrue(allOnline(school.host, 1));
+
+        long aliveUntil = school.host.liveliness().aliveUntilTimestamp(school.member);
+        Assert.assertNotEquals(aliveUntil, Long.MAX_VALUE);
+        LeaderLease lease = aquarium.acquireLeaderLease(100);
+        Assert.assertNotNull(lease);
+        Assert.assertEquals(lease.getExpiresAtTimestamp(), aliveUntil - 100);
+
+        school.clock.set(aliveUntil - 101);
+        Assert.assertTrue(lease.isValid());
+        school.clock.set(aliveUntil - 100);
+        Assert.assertFalse(lease.isValid());
+        Assert.assertNull(aquarium.acquireLeaderLease(100), "still alive, but within the safety margin");
+        Assert.assertNotNull(aquarium.acquireLeaderLease(50));
+    }
+
+    @Test
+    public void testDualStorageScansOnce() throws Exception {
+        School school = new School(false, true, 0, new ParkingAwaitLivelyEndState());
+        Aquarium aquarium = school.getOrCreate(0);
+        ContextualDualStateStorage dual = school.dual(0);
+        for (int i = 0; i < 10 && !allOnline(school.host, 1); i++) {
+            school.host.tendTheSchool();
+        }
+        Assert.assertTrue(allOnline(school.host, 1));
+        Assert.assertEquals(school.aquariumStats.snapshotCurrentWaterline.sum(), school.aquariumStats.snapshotDesiredWaterline.sum());
+        Assert.assertEquals(dual.scans.get(), school.aquariumStats.snapshotCurrentWaterline.sum() + school.aquariumStats.acknowledgeCurrentOther.sum(),
+            "each tap iteration and each acknowledgement reads current and desired with one scan");
+
+        // another member shows up with a self row which must be acknowledged in both contexts
+        Member other = new Member(AquariumNGTest.intBytes(2));
+        school.members.add(other);
+        dual.current().update(setState -> setState.set(other, other, 0, State.follower, 1L));
+        dual.desired().update(setState -> setState.set(other, other, 0, State.follower, 1L));
+
+        long scans = dual.scans.get();
+        aquarium.acknowledgeOther();
+        Assert.assertEquals(dual.scans.get(), scans + 1);
+        for (StateStorage<Integer> storage : Arrays.asList(dual.current(), dual.desired())) {
+            Assert.assertTrue(!storage.scan(other, school.member, 0, (rootMember, isSelf, ackMember, lifecycle, state, timestamp, version) -> {
+                return !(state == State.follower && timestamp == 1L);
+            }), "the other member was acknowledged");
+        }
+    }
+
+    @Test
+    public void testReapSupersededAndExpunged() throws Exception {
+        School school = new School(false, false, 60_000, new ParkingAwaitLivelyEndState());
+        Aquarium aquarium = school.getOrCreate(0);
+        for (int i = 0; i < 10 && !allOnline(school.host, 1); i++) {
+            school.host.tendTheSchool();
+        }
+        Assert.assertTrue(allOnline(school.host, 1));
+
+        Member other = new Member(AquariumNGTest.intBytes(2));
+        school.members.add(other);
+        StateStorage<Integer> current = school.storage(0, CURRENT);
+        StateStorage<Integer> desired = school.storage(0, DESIRED);
+        current.update(setState -> setState.set(other, other, 1, State.follower, 1L) && setState.set(other, other, 0, State.follower, 2L));
+        desired.update(setState -> setState.set(other, other, 0, State.follower, 2L));
+        aquarium.acknowledgeOther();
+        Assert.assertEquals(rows(current, other, 1), 2);
+
+        Assert.assertEquals(school.host.reapTheSchool(60_000), 1, "the superseded lifecycle is reaped");
+        Assert.assertEquals(rows(current, other, 1), 0);
+        Assert.assertEquals(rows(current, other, 0), 2);
+        Assert.assertEquals(rows(current, school.member, 0), 1, "our own current lifecycle is kept");
+
+        current.update(setState -> setState.set(other, other, 0, State.expunged, 3L));
+        desired.update(setState -> setState.set(other, other, 0, State.expunged, 3L));
+        aquarium.acknowledgeOther();
+        Assert.assertEquals(school.host.reapTheSchool(60_000), 0, "an expunged member is kept while it is alive");
+
+        school.clock.addAndGet(120_000);
+        school.host.feedTheFish();
+        Assert.assertEquals(school.host.reapTheSchool(60_000), 0, "an expunged member is kept for the grace period");
+        school.clock.addAndGet(60_000);
+        school.host.feedTheFish();
+        Assert.assertEquals(school.host.reapTheSchool(60_000), 1, "a lifecycle deleted from current and desired counts once");
+        Assert.assertEquals(rows(current, other, 0), 0);
+        Assert.assertEquals(rows(desired, other, 0), 0);
+        Assert.assertEquals(school.aquariumStats.reaped.sum(), 2);
+        Assert.assertEquals(aquarium.livelyEndState().getCurrentState(), State.leader);
+    }
+
+    @Test
+    public void testReapDepartedExpunged() throws Exception {
+        School school = new School(false, false, 60_000, new ParkingAwaitLivelyEndState());
+        Aquarium aquarium = school.getOrCreate(0);
+        for (int i = 0; i < 10 && !allOnline(school.host, 1); i++) {
+            school.host.tendTheSchool();
+        }
+        Assert.assertTrue(allOnline(school.host, 1));
+
+        // an expunged member which has departed no longer has a lifecycle to look up
+        Member departed = new Member(AquariumNGTest.intBytes(2));
+        school.departed.add(departed);
+        StateStorage<Integer> current = school.storage(0, CURRENT);
+        StateStorage<Integer> desired = school.storage(0, DESIRED);
+        current.update(setState -> setState.set(departed, departed, 1, State.follower, 1L)
+            && setState.set(departed, departed, 0, State.expunged, 2L)
+            && setState.set(departed, school.member, 0, State.expunged, 2L));
+        desired.update(setState -> setState.set(departed, departed, 0, State.expunged, 2L));
+        Assert.assertEquals(school.host.reapTheSchool(60_000), 0);
+
+        school.clock.addAndGet(120_000);
+        school.host.feedTheFish();
+        Assert.assertEquals(school.host.reapTheSchool(60_000), 0, "a departed member is kept for the grace period");
+        school.clock.addAndGet(60_000);
+        school.host.feedTheFish();
+        Assert.assertEquals(school.host.reapTheSchool(60_000), 2, "both of its lifecycles are reaped, each counted once");
+        Assert.assertEquals(rows(current, departed, 0), 0);
+        Assert.assertEquals(rows(current, departed, 1), 0);
+        Assert.assertEquals(rows(desired, departed, 0), 0);
+        Assert.assertEquals(aquarium.livelyEndState().getCurrentState(), State.leader);
+    }
+
+    @Test
+    public void testPruneDepartedLiveliness() throws Exception {
+        School school = new School(false, false, 60_000, new ParkingAwaitLivelyEndState());
+        school.getOrCreate(0);
+        for (int i = 0; i < 10 && !allOnline(school.host, 1); i++) {
+            school.host.tendTheSchool();
+        }
+        Assert.assertTrue(allOnline(school.host, 1));
+
+        Member departed = new Member(AquariumNGTest.intBytes(2));
+        Member stayed = new Member(AquariumNGTest.intBytes(3));
+        school.members.add(stayed);
+        long timestamp = school.clock.get();
+        school.livelinessStorage.update(setLiveliness -> setLiveliness.set(departed, departed, timestamp)
+            && setLiveliness.set(school.member, departed, timestamp)
+            && setLiveliness.set(stayed, stayed, timestamp)
+            && setLiveliness.set(school.member, stayed, timestamp));
+        school.host.feedTheFish();
+        Assert.assertTrue(school.host.liveliness().isAlive(departed));
+        Assert.assertEquals(school.host.pruneTheSchool(60_000), 0, "a departed member is kept while it is alive");
+
+        school.clock.addAndGet(120_000);
+        school.host.feedTheFish();
+        Assert.assertFalse(school.host.liveliness().isAlive(departed));
+        school.livelinessRemovable.set(false);
+        long livelyChanges = school.host.liveliness().livelyChanges();
+        Assert.assertEquals(school.host.pruneTheSchool(60_000), 0, "nothing is pruned unless storage deleted it");
+        school.host.feedTheFish();
+        Assert.assertEquals(school.host.liveliness().livelyChanges(), livelyChanges, "an unpruned member is not seen anew");
+        Assert.assertEquals(school.aquariumStats.prunedLiveliness.sum(), 0);
+
+        school.livelinessRemovable.set(true);
+        Assert.assertEquals(school.host.pruneTheSchool(60_000), 1);
+        for (Key key : school.rawLiveliness.keySet()) {
+            Assert.assertNotEquals(key.a, departed);
+            Assert.assertNotEquals(key.b, departed);
+        }
+        Assert.assertEquals(school.livelinessStorage.get(stayed, stayed), timestamp, "current members are kept however long dead");
+        Assert.assertEquals(school.livelinessStorage.get(school.member, stayed), timestamp);
+        Assert.assertFalse(school.host.liveliness().isAlive(departed), "a pruned member stays dead");
+        Assert.assertEquals(school.host.pruneTheSchool(60_000), 0);
+        Assert.assertEquals(school.aquariumStats.prunedLiveliness.sum(), 1);
+    }
+
+    private static int rows(StateStorage<Integer> storage, Member rootMember, int lifecycle) throws Exception {
+        int[] rows = { 0 };
+        storage.scan(rootMember, null, lifecycle, (root, isSelf, ackMember, rootLifecycle, state, timestamp, version) -> {
+            rows[0]++;
+            return true;
+        });
+        return rows[0];
+    }
+
+    @Test
+    public void testDriverTapsOnChange() throws Exception {
+        School school = new School(true);
+        int partitionCount = 10;
+        for (int i = 0; i < partitionCount; i++) {
+            school.getOrCreate(i);
+        }
+
+        AquariumDriver<Integer> driver = new AquariumDriver<>(school.host, System::currentTimeMillis, 60_000, 60_000);
+        Thread thread = new Thread(driver, "aquarium-driver");
+        thread.start();
+        try {
+            for (int i = 0; i < partitionCount; i++) {
+                if (i % 2 == 0) {
+                    Assert.assertEquals(school.host.get(i).awaitOnline(10_000).getCurrentState(), State.leader);
+                } else {
+                    Assert.assertEquals(school.host.get(i).awaitOnlineAsync(10_000).get().getCurrentState(), State.leader);
+                }
+                Assert.assertEquals(school.host.get(i).getLeaderAsync().get().getMember(), school.member);
+            }
+
+            // nothing changes, so nothing is tapped
+            Thread.sleep(100);
+            long taps = school.aquariumStats.tapTheGlass.sum();
+            Thread.sleep(200);
+            Assert.assertEquals(school.aquariumStats.tapTheGlass.sum(), taps);
+            Assert.assertEquals(school.aquariumStats.feedTheFish.sum(), 1);
+
+            // another member's write to one partition taps only that partition
+            Member other = new Member(AquariumNGTest.intBytes(2));
+            StateStorage<Integer> otherStorage = school.storage(3, CURRENT);
+            otherStorage.update(setState -> setState.set(other, other, 0, State.follower, 1));
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (school.aquariumStats.tapTheGlass.sum() == taps) {
+                Assert.assertTrue(System.currentTimeMillis() < deadline, "Partition was not tapped");
+                Thread.sleep(10);
+            }
+            Thread.sleep(100);
+            Assert.assertEquals(school.aquariumStats.tapTheGlass.sum(), taps + 1);
+
+            // local changes are tapped on request
+            driver.changed(5);
+            deadline = System.currentTimeMillis() + 10_000;
+            while (school.aquariumStats.tapTheGlass.sum() == taps + 1) {
+                Assert.assertTrue(System.currentTimeMillis() < deadline, "Partition was not tapped");
+                Thread.sleep(10);
+            }
+        } finally {
+            driver.stop();
+            thread.join();
+        }
+    }
+
+    @Test
+    public void testUnwatch() throws Exception {
+        School school = new School(true);
+        Aquarium aquarium = school.getOrCreate(0);
+        AtomicInteger changes = new AtomicInteger();
+        Runnable watcher = changes::incrementAndGet;
+        Assert.assertTrue(aquarium.watch(watcher));
+
+        Member other = new Member(AquariumNGTest.intBytes(2));
+        StateStorage<Integer> otherStorage = school.storage(0, CURRENT);
+        otherStorage.update(setState -> setState.set(other, other, 0, State.follower, 1));
+        Assert.assertEquals(changes.get(), 1);
+
+        aquarium.unwatch(watcher);
+        otherStorage.update(setState -> setState.set(other, other, 0, State.follower, 2));
+        Assert.assertEquals(changes.get(), 1);
+    }
+
+    @Test
+    public void testConcurrentTapsCoalesce() throws Exception {
+        CountDownLatch tapping = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger taps = new AtomicInteger();
+        AwaitLivelyEndState awaitLivelyEndState = new ParkingAwaitLivelyEndState() {
+            @Override
+            public void notifyChange(Object source, Callable<Boolean> change) throws Exception {
+                if (taps.incrementAndGet() == 1) {
+                    tapping.countDown();
+                    release.await();
+                }
+                super.notifyChange(source, change);
+            }
+        };
+        School school = new School(false, false, 0, awaitLivelyEndState);
+        Aquarium aquarium = school.getOrCreate(0);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> first = executor.submit(() -> {
+                aquarium.tapTheGlass();
+                return null;
+            });
+            tapping.await();
+
+            // while a tap is running, later taps return at once and are folded into one more pass
+            for (int i = 0; i < 10; i++) {
+                aquarium.tapTheGlass();
+            }
+            CompletableFuture<Void> tapped = aquarium.tapTheGlassAsync();
+            Assert.assertEquals(taps.get(), 1);
+            Assert.assertFalse(tapped.isDone());
+
+            release.countDown();
+            first.get();
+            tapped.get(10, TimeUnit.SECONDS);
+            Assert.assertEquals(taps.get(), 2);
+            Assert.assertEquals(school.aquariumStats.tapTheGlass.sum(), 12);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testFailedTapStillServesQueuedTaps() throws Exception {
+        CountDownLatch tapping = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger taps = new AtomicInteger();
+        AwaitLivelyEndState awaitLivelyEndState = new ParkingAwaitLivelyEndState() {
+            @Override
+            public void notifyChange(Object source, Callable<Boolean> change) throws Exception {
+                if (taps.incrementAndGet() == 1) {
+                    tapping.countDown();
+                    release.await();
+                    throw new IllegalStateException("first tap fails");
+                }
+                super.notifyChange(source, change);
+            }
+        };
+        School school = new School(false, false, 0, awaitLivelyEndState);
+        Aquarium aquarium = school.getOrCreate(0);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> first = executor.submit(() -> {
+                aquarium.tapTheGlass();
+                return null;
+            });
+            tapping.await();
+            CompletableFuture<Void> queued = aquarium.tapTheGlassAsync();
+            Assert.assertFalse(queued.isDone());
+
+            release.countDown();
+            try {
+                first.get();
+                Assert.fail("the failed tap is thrown");
+            } catch (ExecutionException x) {
+                Assert.assertTrue(x.getCause() instanceof IllegalStateException, x.toString());
+            }
+            queued.get(10, TimeUnit.SECONDS);
+            Assert.assertEquals(taps.get(), 2, "the tap requested while the failing one ran still ran");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private boolean allOnline(AquariumHost<Integer, Integer> host, int partitionCount) throws Exception {
+        for (int i = 0; i < partitionCount; i++) {
+            LivelyEndState livelyEndState = host.get(i).livelyEndState();
+            if (!livelyEndState.isOnline() || livelyEndState.getCurrentState() != State.leader) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static class School {
+
+        private final Member member = new Member(AquariumNGTest.intBytes(1));
+        private final Set<Member> members = Sets.newHashSet(member);
+        private final Set<Member> departed = Sets.newConcurrentHashSet(); // whose lifecycle can no longer be looked up
+        private final Map<Integer, NavigableMap<Key, TimestampedState<State>>> partitionStates = Maps.newConcurrentMap();
+        private final Map<Integer, List<ContextualStateStorage>> partitionWatchable = Maps.newConcurrentMap();
+        private final boolean watchable;
+        private final Map<Integer, ContextualDualStateStorage> duals; // null unless current and desired are scanned together
+        private final AquariumStats aquariumStats = new AquariumStats();
+        private final AtomicLong clock = new AtomicLong(System.currentTimeMillis()); // only moves when a test moves it
+        private final AtomicLong storageVersion = new AtomicLong();
+        private final NavigableMap<Key, TimestampedState<Void>> rawLiveliness = new ConcurrentSkipListMap<>();
+        private final AtomicBoolean livelinessRemovable = new AtomicBoolean(true);
+        private final LivelinessStorage livelinessStorage;
+        private final AquariumHost<Integer, Integer> host;
+
+        private final AwaitLivelyEndState awaitLivelyEndState;
+
+        School(boolean watchable) {
+            this(watchable, false, 0, new ParkingAwaitLivelyEndState());
+        }
+
+        School(boolean watchable, boolean dual, int deadAfterMillis, AwaitLivelyEndState awaitLivelyEndState) {
+            this.watchable = watchable;
+            this.duals = dual ? Maps.newConcurrentMap() : null;
+            this.awaitLivelyEndState = awaitLivelyEndState;
+            PartitionedStateStorage<Integer, Integer> stateStorage = new PartitionedStateStorage<Integer, Integer>() {
+                @Override
+                public StateStorage<Integer> current(Integer partition) {
+                    return storage(partition, CURRENT);
+                }
+
+                @Override
+                public StateStorage<Integer> desired(Integer partition) {
+                    return storage(partition, DESIRED);
+                }
+
+                @Override
+                public DualStateStorage<Integer> dual(Integer partition) {
+                    return duals != null ? School.this.dual(partition) : null;
+                }
+            };
+
+            this.livelinessStorage = new LivelinessStorage() {
+                @Override
+                public boolean scan(Member rootMember, Member otherMember, LivelinessStream stream) throws Exception {
+                    for (Map.Entry<Key, TimestampedState<Void>> e : rawLiveliness.entrySet()) {
+                        Key key = e.getKey();
+                        if ((rootMember == null || rootMember.equals(key.a)) && !stream.stream(key.a, key.isSelf, key.b, e.getValue().timestamp, 0)) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }
+
+                @Override
+                public boolean update(LivelinessUpdates updates) throws Exception {
+                    return updates.updates((rootMember, otherMember, timestamp) -> {
+                        rawLiveliness.put(new Key(LIVELINESS, rootMember, 0, otherMember), new TimestampedState<>(null, timestamp, 0));
+                        return true;
+                    });
+                }
+
+                @Override
+                public long get(Member rootMember, Member otherMember) throws Exception {
+                    TimestampedState<Void> state = rawLiveliness.get(new Key(LIVELINESS, rootMember, 0, otherMember));
+                    return state != null ? state.timestamp : -1;
+                }
+
+                @Override
+                public boolean watch(LivelinessWatcher watcher) throws Exception {
+                    return watchable; // a single member never sees anyone else's heartbeat
+                }
+
+                @Override
+                public boolean remove(LivelinessRemovals removals) throws Exception {
+                    if (!livelinessRemovable.get()) {
+                        return false; // as storage which cannot delete
+                    }
+                    return removals.removals((rootMember, ackMember) -> {
+                        if (ackMember != null) {
+                            rawLiveliness.remove(new Key(LIVELINESS, rootMember, 0, ackMember));
+                        } else {
+                            rawLiveliness.keySet().removeIf(key -> key.a.equals(rootMember));
+                        }
+                        return true;
+                    });
+                }
+            };
+
+            MemberRegistry memberRegistry = new MemberRegistry();
+            Liveliness liveliness = new Liveliness(aquariumStats, clock::get, livelinessStorage, memberRegistry,
+                member, count -> count > 0, deadAfterMillis, new AtomicLong(-1));
+            TransitionQuorum currentQuorum = (existing, nextTimestamp, nextState, readCurrent, readDesired, writeCurrent, writeDesired) -> {
+                writeCurrent.put(existing.getMember(), nextState, nextTimestamp);
+                return true;
+            };
+            TransitionQuorum desiredQuorum = (existing, nextTimestamp, nextState, readCurrent, readDesired, writeCurrent, writeDesired) -> {
+                writeDesired.put(existing.getMember(), nextState, nextTimestamp);
+                return true;
+            };
+            this.host = new AquariumHost<>(aquariumStats,
+                new OrderIdProviderImpl(new ConstantWriterIdProvider(1)),
+                stateStorage,
+                currentQuorum,
+                desiredQuorum,
+                liveliness,
+                memberRegistry,
+                Integer.class,
+                member);
+        }
+
+        Aquarium getOrCreate(int partition) throws Exception {
+            return host.getOrCreate(partition, rootMember -> departed.contains(rootMember) ? null : 0, count -> count > 0, () -> members, awaitLivelyEndState);
+        }
+
+        /**
+         * Storage instances over the same partition share rows and, when watchable, see each other's writes.
+         */
+        ContextualDualStateStorage dual(int partition) {
+            return duals.computeIfAbsent(partition, key -> new ContextualDualStateStorage(new OrderIdProviderImpl(new ConstantWriterIdProvider(1)),
+                partitionStates.computeIfAbsent(partition, key1 -> new ConcurrentSkipListMap<>()),
+                watchable ? partitionWatchable.computeIfAbsent(partition, key1 -> new CopyOnWriteArrayList<>()) : null));
+        }
+
+        ContextualStateStorage storage(int partition, byte context) {
+            return new ScanSinceStateStorage(storageVersion,
+                partitionStates.computeIfAbsent(partition, key -> new ConcurrentSkipListMap<>()),
+                context,
+                watchable ? partitionWatchable.computeIfAbsent(partition, key -> new CopyOnWriteArrayList<>()) : null);
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.jivesoftware.os.aquarium;
 
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.google.common.primitives.UnsignedBytes;
@@ -7,6 +8,7 @@ import com.jivesoftware.os.aquarium.interfaces.AtQuorum;
 import com.jivesoftware.os.aquarium.interfaces.AwaitLivelyEndState;
 import com.jivesoftware.os.aquarium.interfaces.CurrentTimeMillis;
 import com.jivesoftware.os.aquarium.interfaces.CurrentMembers;
+import com.jivesoftware.os.aquarium.interfaces.DualStateStorage;
 import com.jivesoftware.os.aquarium.interfaces.LivelinessStorage;
 import com.jivesoftware.os.aquarium.interfaces.MemberLifecycle;
 import com.jivesoftware.os.aquarium.interfaces.StateStorage;
@@ -14,19 +16,24 @@ import com.jivesoftware.os.aquarium.interfaces.TransitionQuorum;
 import com.jivesoftware.os.jive.utils.ordered.id.ConstantWriterIdProvider;
 import com.jivesoftware.os.jive.utils.ordered.id.OrderIdProvider;
 import com.jivesoftware.os.jive.utils.ordered.id.OrderIdProviderImpl;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 import java.util.NavigableMap;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
@@ -58,7 +65,7 @@ public class AquariumNGTest {
         AquariumNode[] nodes = new AquariumNode[aquariumNodeCount];
         int deadAfterMillis = 10_000;
         for (int i = 0; i < aquariumNodeCount; i++) {
-            createNode(i, rawLifecycles, rawLiveliness, rawState, atQuorum, currentMembers, deadAfterMillis, nodes);
+            createNode(i, rawLifecycles, rawLiveliness, rawState, null, null, atQuorum, currentMembers, deadAfterMillis, nodes);
         }
 
         ScheduledExecutorService service = Executors.newScheduledThreadPool(aquariumNodeCount);
@@ -225,54 +232,26 @@ public class AquariumNGTest {
     }
 
     private void createNode(int i, Map<Member, Integer> rawLifecycles, NavigableMap<Key, TimestampedState<Void>> rawLiveliness,
-        NavigableMap<Key, TimestampedState<State>> rawState, AtQuorum atQuorum, CurrentMembers currentMembers, int deadAfterMillis, AquariumNode[] nodes) {
+        NavigableMap<Key, TimestampedState<State>> rawState, List<ContextualStateStorage> watchable, AtomicLong storageVersion, AtQuorum atQuorum,
+        CurrentMembers currentMembers, int deadAfterMillis, AquariumNode[] nodes) {
         OrderIdProvider orderIdProvider = new OrderIdProviderImpl(new ConstantWriterIdProvider(i));
 
         Member member = new Member(intBytes(i));
 
         MemberLifecycle<Integer> memberLifecycle = member1 -> rawLifecycles.computeIfAbsent(member1, key -> 0);
 
-        LivelinessStorage livelinessStorage = new LivelinessStorage() {
-            @Override
-            public boolean scan(Member rootMember, Member otherMember, LivelinessStorage.LivelinessStream stream) throws Exception {
-                Member minA = (rootMember == null) ? MIN : rootMember;
-                Member maxA = (rootMember == null) ? MAX : rootMember;
-                Member minB = (otherMember == null) ? minA : otherMember;
-                SortedMap<Key, TimestampedState<Void>> subMap = rawLiveliness.subMap(new Key(LIVELINESS, minA, 0, minB), new Key(LIVELINESS, maxA, 0, MAX));
-                for (Map.Entry<Key, TimestampedState<Void>> e : subMap.entrySet()) {
-                    Key key = e.getKey();
-                    TimestampedState<Void> v = e.getValue();
-                    if (!stream.stream(key.a, key.isSelf, key.b, v.timestamp, v.version)) {
-                        return false;
-                    }
-                }
-                return true;
-            }
-
-            @Override
-            public boolean update(LivelinessStorage.LivelinessUpdates updates) throws Exception {
-                return updates.updates((rootMember, otherMember, timestamp) -> {
-                    rawLiveliness.compute(new Key(LIVELINESS, rootMember, 0, otherMember), (key, myState) -> {
-                        long version = orderIdProvider.nextId();
-                        if (myState != null && (myState.timestamp > timestamp || (myState.timestamp == timestamp && myState.version > version))) {
-                            return myState;
-                        } else {
-                            return new TimestampedState<>(null, timestamp, version);
-                        }
-                    });
-                    return true;
-                });
-            }
-
-            @Override
-            public long get(Member rootMember, Member otherMember) throws Exception {
-                TimestampedState<Void> timestampedState = rawLiveliness.get(new Key(LIVELINESS, rootMember, 0, otherMember));
-                return timestampedState != null ? timestampedState.timestamp : -1;
-            }
-        };
-
-        ContextualStateStorage currentStateStorage = new ContextualStateStorage(orderIdProvider, rawState, CURRENT);
-        ContextualStateStorage desiredStateStorage = new ContextualStateStorage(orderIdProvider, rawState, DESIRED);
+        LivelinessStorage livelinessStorage;
+        ContextualStateStorage currentStateStorage;
+        ContextualStateStorage desiredStateStorage;
+        if (storageVersion != null) {
+            livelinessStorage = new ScanSinceLivelinessStorage(storageVersion, rawLiveliness);
+            currentStateStorage = new ScanSinceStateStorage(storageVersion, rawState, CURRENT, watchable);
+            desiredStateStorage = new ScanSinceStateStorage(storageVersion, rawState, DESIRED, watchable);
+        } else {
+            livelinessStorage = new ContextualLivelinessStorage(orderIdProvider, rawLiveliness);
+            currentStateStorage = new ContextualStateStorage(orderIdProvider, rawState, CURRENT, watchable);
+            desiredStateStorage = new ContextualStateStorage(orderIdProvider, rawState, DESIRED, watchable);
+        }
 
         AtomicLong clockDrift = new AtomicLong(0);
         CurrentTimeMillis currentTimeMillis = () -> System.currentTimeMillis() + clockDrift.get();
@@ -312,6 +291,28 @@ public class AquariumNGTest {
 
     @Test
     public void testTapTheGlass() throws Exception {
+        tapTheGlass(null, null);
+    }
+
+    /**
+     * Same as {@link #testTapTheGlass} over storage which tells each node about the others' writes, so that waterlines are read from
+     * the in memory index.
+     */
+    @Test
+    public void testTapTheGlassWatched() throws Exception {
+        tapTheGlass(new CopyOnWriteArrayList<>(), null);
+    }
+
+    /**
+     * Same as {@link #testTapTheGlass} over storage which can stream the rows written since a version, so that after a first full pass
+     * acknowledgements only visit changed rows.
+     */
+    @Test
+    public void testTapTheGlassScanSince() throws Exception {
+        tapTheGlass(null, new AtomicLong());
+    }
+
+    private void tapTheGlass(List<ContextualStateStorage> watchable, AtomicLong storageVersion) throws Exception {
 
         NavigableMap<Key, TimestampedState<State>> rawState = new ConcurrentSkipListMap<>();
         NavigableMap<Key, TimestampedState<Void>> rawLiveliness = new ConcurrentSkipListMap<>();
@@ -327,7 +328,7 @@ public class AquariumNGTest {
         AquariumNode[] nodes = new AquariumNode[aquariumNodeCount];
         int deadAfterMillis = 10_000;
         for (int i = 0; i < aquariumNodeCount; i++) {
-            createNode(i, rawLifecycles, rawLiveliness, rawState, atQuorum, currentMembers, deadAfterMillis, nodes);
+            createNode(i, rawLifecycles, rawLiveliness, rawState, watchable, storageVersion, atQuorum, currentMembers, deadAfterMillis, nodes);
         }
 
         ScheduledExecutorService service = Executors.newScheduledThreadPool(aquariumNodeCount);
@@ -486,6 +487,20 @@ public class AquariumNGTest {
             Assert.assertTrue(nodes[0].aquarium.isLivelyState(nodes[i].member, i == 0 ? State.leader : State.follower));
         }
 
+        List<Member> members = Lists.newArrayList();
+        for (int i = 0; i < running; i++) {
+            members.add(nodes[i].member);
+        }
+        MemberStates memberStates = nodes[0].aquarium.livelyEndStates(members);
+        for (int i = 0; i < running; i++) {
+            Assert.assertEquals(memberStates.getMember(i), nodes[i].member);
+            Assert.assertTrue(memberStates.isLivelyEndState(i));
+            Assert.assertTrue(memberStates.isLivelyState(i, i == 0 ? State.leader : State.follower));
+            Assert.assertTrue(memberStates.getLivelyEndState(i).isOnline());
+        }
+        Assert.assertEquals(memberStates.getLeaderWaterline().getMember(), nodes[0].member);
+        Assert.assertEquals(nodes[0].aquarium.getStates(members).getState(0).getState(), State.leader);
+
         mode = "Force leader to demoted...";
         nodes[0].forceCurrentState(State.demoted);
         long currentTimestamp = nodes[0].aquarium.livelyEndState().getCurrentWaterline().getTimestamp();
@@ -506,6 +521,190 @@ public class AquariumNGTest {
 
     }
 
+    @Test
+    public void testRejectedAcknowledgementIsRetried() throws Exception {
+        NavigableMap<Key, TimestampedState<State>> rawState = new ConcurrentSkipListMap<>();
+        AtomicBoolean rejecting = new AtomicBoolean();
+        ContextualStateStorage storage = new ContextualStateStorage(new OrderIdProviderImpl(new ConstantWriterIdProvider(1)), rawState, CURRENT,
+            new CopyOnWriteArrayList<>()) {
+            @Override
+            public boolean update(StateUpdates<Integer> updates) throws Exception {
+                if (rejecting.get()) {
+                    updates.updates((rootMember, otherMember, lifecycle, state, timestamp) -> true);
+                    return false;
+                }
+                return super.update(updates);
+            }
+        };
+        Member member = new Member(intBytes(1));
+        Member other = new Member(intBytes(2));
+        MemberRegistry memberRegistry = new MemberRegistry();
+        WaterlineIndex<Integer> index = new WaterlineIndex<>(storage, memberRegistry);
+        ReadWaterline<Integer> readWaterline = new ReadWaterline<>(new LongAdder(), new LongAdder(), new LongAdder(), new LongAdder(),
+            storage, index, rootMember -> 0, count -> count > 1, () -> Sets.newHashSet(member, other), memberRegistry, Integer.class);
+        Assert.assertTrue(index.isEnabled());
+        storage.update(setState -> setState.set(other, other, 0, State.follower, 1L));
+
+        rejecting.set(true);
+        readWaterline.acknowledgeOther(member);
+        Assert.assertFalse(readWaterline.get(other).isAtQuorum());
+        Assert.assertNull(rawState.get(new Key(CURRENT, other, 0, member)));
+
+        rejecting.set(false);
+        readWaterline.acknowledgeOther(member);
+        Assert.assertNotNull(rawState.get(new Key(CURRENT, other, 0, member)), "the rejected acknowledgement is written again");
+        Assert.assertTrue(readWaterline.get(other).isAtQuorum());
+
+        // a rejected delta pass over storage which scans since a version is retried too
+        AtomicLong storageVersion = new AtomicLong();
+        NavigableMap<Key, TimestampedState<State>> rawSinceState = new ConcurrentSkipListMap<>();
+        NavigableMap<Key, TimestampedState<Void>> rawLiveliness = new ConcurrentSkipListMap<>();
+        StateStorage<Integer> sinceStorage = new ScanSinceStateStorage(storageVersion, rawSinceState, CURRENT, null) {
+            @Override
+            public boolean update(StateUpdates<Integer> updates) throws Exception {
+                if (rejecting.get()) {
+                    updates.updates((rootMember, otherMember, lifecycle, state, timestamp) -> true);
+                    return false;
+                }
+                return super.update(updates);
+            }
+        };
+        LivelinessStorage livelinessStorage = new ScanSinceLivelinessStorage(storageVersion, rawLiveliness) {
+            @Override
+            public boolean update(LivelinessUpdates updates) throws Exception {
+                if (rejecting.get()) {
+                    updates.updates((rootMember, otherMember, timestamp) -> true);
+                    return false;
+                }
+                return super.update(updates);
+            }
+        };
+        MemberRegistry sinceRegistry = new MemberRegistry();
+        ReadWaterline<Integer> sinceWaterline = new ReadWaterline<>(new LongAdder(), new LongAdder(), new LongAdder(), new LongAdder(),
+            sinceStorage, new WaterlineIndex<>(sinceStorage, sinceRegistry), rootMember -> 0, count -> count > 1,
+            () -> Sets.newHashSet(member, other), sinceRegistry, Integer.class);
+        Liveliness liveliness = new Liveliness(new AquariumStats(), System::currentTimeMillis, livelinessStorage, member, count -> count > 1, 10_000,
+            new AtomicLong(-1));
+        sinceStorage.update(setState -> setState.set(other, other, 0, State.follower, 1L));
+        livelinessStorage.update(setLiveliness -> setLiveliness.set(other, other, 1L));
+        sinceWaterline.acknowledgeOther(member);
+        liveliness.acknowledgeOther();
+
+        sinceStorage.update(setState -> setState.set(other, other, 0, State.follower, 2L));
+        livelinessStorage.update(setLiveliness -> setLiveliness.set(other, other, 2L));
+        rejecting.set(true);
+        sinceWaterline.acknowledgeOther(member);
+        liveliness.acknowledgeOther();
+        Assert.assertEquals(rawSinceState.get(new Key(CURRENT, other, 0, member)).timestamp, 1L);
+        Assert.assertEquals(rawLiveliness.get(new Key(LIVELINESS, other, 0, member)).timestamp, 1L);
+
+        rejecting.set(false);
+        sinceWaterline.acknowledgeOther(member);
+        liveliness.acknowledgeOther();
+        Assert.assertEquals(rawSinceState.get(new Key(CURRENT, other, 0, member)).timestamp, 2L, "the next delta pass writes it again");
+        Assert.assertEquals(rawLiveliness.get(new Key(LIVELINESS, other, 0, member)).timestamp, 2L, "the next delta pass writes it again");
+    }
+
+    @Test
+    public void testRejectedTransitionEndsTheTap() throws Exception {
+        NavigableMap<Key, TimestampedState<State>> rawState = new ConcurrentSkipListMap<>();
+        OrderIdProvider orderIdProvider = new OrderIdProviderImpl(new ConstantWriterIdProvider(1));
+        AtomicBoolean rejecting = new AtomicBoolean(true);
+        AtomicInteger rejected = new AtomicInteger();
+        ContextualStateStorage currentStorage = new ContextualStateStorage(orderIdProvider, rawState, CURRENT, null) {
+            @Override
+            public boolean update(StateUpdates<Integer> updates) throws Exception {
+                if (rejecting.get()) {
+                    rejected.incrementAndGet();
+                    updates.updates((rootMember, otherMember, lifecycle, state, timestamp) -> true);
+                    return false;
+                }
+                return super.update(updates);
+            }
+        };
+        ContextualStateStorage desiredStorage = new ContextualStateStorage(orderIdProvider, rawState, DESIRED, null);
+        Member member = new Member(intBytes(1));
+        desiredStorage.update(setState -> setState.set(member, member, 0, State.leader, 1L));
+        Liveliness liveliness = new Liveliness(new AquariumStats(), System::currentTimeMillis, new MatrixLivelinessStorage(new MemberRegistry()),
+            member, count -> count > 0, 10_000, new AtomicLong(-1));
+        TransitionQuorum currentQuorum = (existing, nextTimestamp, nextState, readCurrent, readDesired, writeCurrent, writeDesired) -> {
+            return writeCurrent.put(existing.getMember(), nextState, nextTimestamp);
+        };
+        TransitionQuorum desiredQuorum = (existing, nextTimestamp, nextState, readCurrent, readDesired, writeCurrent, writeDesired) -> {
+            return writeDesired.put(existing.getMember(), nextState, nextTimestamp);
+        };
+        Aquarium aquarium = new Aquarium(new AquariumStats(), orderIdProvider, currentStorage, desiredStorage, currentQuorum, desiredQuorum,
+            liveliness, rootMember -> 0, Integer.class, count -> count > 0, () -> Sets.newHashSet(member), member,
+            new AwaitLivelyEndState() {
+                @Override
+                public LivelyEndState awaitChange(Callable<LivelyEndState> awaiter, long timeoutMillis) throws Exception {
+                    return awaiter.call();
+                }
+
+                @Override
+                public void notifyChange(Callable<Boolean> change) throws Exception {
+                    change.call();
+                }
+            });
+        liveliness.feedTheFish();
+
+        Future<?> tap = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable);
+            thread.setDaemon(true);
+            return thread;
+        }).submit(() -> {
+            aquarium.tapTheGlass();
+            return null;
+        });
+        tap.get(10, TimeUnit.SECONDS);
+        Assert.assertEquals(rejected.get(), 1, "the tap stops at the first rejected commit");
+        Assert.assertNull(rawState.get(new Key(CURRENT, member, 0, member)));
+
+        rejecting.set(false);
+        aquarium.tapTheGlass();
+        Assert.assertNotNull(rawState.get(new Key(CURRENT, member, 0, member)), "the next tap makes the transition again");
+    }
+
+    @Test
+    public void testLostAcknowledgementsAreRepaired() throws Exception {
+        AtomicLong storageVersion = new AtomicLong();
+        NavigableMap<Key, TimestampedState<Void>> rawLiveliness = new ConcurrentSkipListMap<>();
+        NavigableMap<Key, TimestampedState<State>> rawState = new ConcurrentSkipListMap<>();
+        Member member = new Member(intBytes(1));
+        Member other = new Member(intBytes(2));
+        LivelinessStorage livelinessStorage = new ScanSinceLivelinessStorage(storageVersion, rawLiveliness);
+        StateStorage<Integer> stateStorage = new ScanSinceStateStorage(storageVersion, rawState, CURRENT, null);
+        Liveliness liveliness = new Liveliness(new AquariumStats(), System::currentTimeMillis, livelinessStorage, member, count -> count > 1, 10_000,
+            new AtomicLong(-1));
+        MemberRegistry memberRegistry = new MemberRegistry();
+        ReadWaterline<Integer> readWaterline = new ReadWaterline<>(new LongAdder(), new LongAdder(), new LongAdder(), new LongAdder(),
+            stateStorage, new WaterlineIndex<>(stateStorage, memberRegistry), rootMember -> 0, count -> count > 1, () -> Sets.newHashSet(member, other),
+            memberRegistry, Integer.class);
+
+        livelinessStorage.update(setLiveliness -> setLiveliness.set(other, other, 1L));
+        stateStorage.update(setState -> setState.set(other, other, 0, State.follower, 1L));
+        for (int i = 0; i < 2; i++) {
+            liveliness.acknowledgeOther();
+            readWaterline.acknowledgeOther(member);
+        }
+        Key livelinessAck = new Key(LIVELINESS, other, 0, member);
+        Key stateAck = new Key(CURRENT, other, 0, member);
+        Assert.assertNotNull(rawLiveliness.remove(livelinessAck));
+        Assert.assertNotNull(rawState.remove(stateAck));
+
+        liveliness.acknowledgeOther();
+        readWaterline.acknowledgeOther(member);
+        Assert.assertNull(rawLiveliness.get(livelinessAck), "a delta pass only acknowledges changed rows");
+        Assert.assertNull(rawState.get(stateAck), "a delta pass only acknowledges changed rows");
+        int passes = Math.max(Liveliness.DELTA_PASSES_PER_FULL_PASS, ReadWaterline.DELTA_PASSES_PER_FULL_PASS);
+        for (int i = 0; i < passes; i++) {
+            liveliness.acknowledgeOther();
+            readWaterline.acknowledgeOther(member);
+        }
+        Assert.assertNotNull(rawLiveliness.get(livelinessAck), "a periodic full pass repairs the lost acknowledgement");
+        Assert.assertNotNull(rawState.get(stateAck), "a periodic full pass repairs the lost acknowledgement");
+    }
+
     private AquariumNode awaitLeader(String mode, AquariumNode[] nodes, AtomicInteger ringSize) throws Exception {
 
         AquariumNode leader = null;
@@ -691,7 +890,7 @@ public class AquariumNGTest {
             }
         }
 
-        private void clear() {
+        private void clear() throws Exception {
             firstLivelinessTimestamp.set(-1);
             currentStateStorage.clear(member);
             desiredStateStorage.clear(member);
@@ -710,18 +909,121 @@ public class AquariumNGTest {
 
     }
 
-    private static class ContextualStateStorage implements StateStorage<Integer> {
+    static class ContextualLivelinessStorage implements LivelinessStorage {
 
         private final OrderIdProvider orderIdProvider;
-        private final NavigableMap<Key, TimestampedState<State>> stateStorage;
-        private final byte context;
+        final NavigableMap<Key, TimestampedState<Void>> rawLiveliness;
+
+        ContextualLivelinessStorage(OrderIdProvider orderIdProvider, NavigableMap<Key, TimestampedState<Void>> rawLiveliness) {
+            this.orderIdProvider = orderIdProvider;
+            this.rawLiveliness = rawLiveliness;
+        }
+
+        @Override
+        public boolean scan(Member rootMember, Member otherMember, LivelinessStorage.LivelinessStream stream) throws Exception {
+            Member minA = (rootMember == null) ? MIN : rootMember;
+            Member maxA = (rootMember == null) ? MAX : rootMember;
+            Member minB = (otherMember == null) ? minA : otherMember;
+            SortedMap<Key, TimestampedState<Void>> subMap = rawLiveliness.subMap(new Key(LIVELINESS, minA, 0, minB), new Key(LIVELINESS, maxA, 0, MAX));
+            for (Map.Entry<Key, TimestampedState<Void>> e : subMap.entrySet()) {
+                Key key = e.getKey();
+                TimestampedState<Void> v = e.getValue();
+                if (!stream.stream(key.a, key.isSelf, key.b, v.timestamp, v.version)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public boolean update(LivelinessStorage.LivelinessUpdates updates) throws Exception {
+            return updates.updates((rootMember, otherMember, timestamp) -> {
+                rawLiveliness.compute(new Key(LIVELINESS, rootMember, 0, otherMember), (key, myState) -> {
+                    long version = nextVersion();
+                    if (myState != null && (myState.timestamp > timestamp || (myState.timestamp == timestamp && myState.version > version))) {
+                        return myState;
+                    } else {
+                        return new TimestampedState<>(null, timestamp, version);
+                    }
+                });
+                return true;
+            });
+        }
+
+        @Override
+        public long get(Member rootMember, Member otherMember) throws Exception {
+            TimestampedState<Void> timestampedState = rawLiveliness.get(new Key(LIVELINESS, rootMember, 0, otherMember));
+            return timestampedState != null ? timestampedState.timestamp : -1;
+        }
+
+        long nextVersion() {
+            return orderIdProvider.nextId();
+        }
+    }
+
+    /**
+     * Versions every write from one counter shared by every node, so that a version high-water mark can be kept.
+     */
+    static class ScanSinceLivelinessStorage extends ContextualLivelinessStorage {
+
+        private final AtomicLong storageVersion;
+
+        ScanSinceLivelinessStorage(AtomicLong storageVersion, NavigableMap<Key, TimestampedState<Void>> rawLiveliness) {
+            super(null, rawLiveliness);
+            this.storageVersion = storageVersion;
+        }
+
+        @Override
+        public boolean update(LivelinessUpdates updates) throws Exception {
+            synchronized (rawLiveliness) {
+                return super.update(updates);
+            }
+        }
+
+        @Override
+        long nextVersion() {
+            return storageVersion.incrementAndGet();
+        }
+
+        @Override
+        public boolean supportsScanSince() {
+            return true;
+        }
+
+        @Override
+        public boolean scanSince(long version, LivelinessStream stream) throws Exception {
+            synchronized (rawLiveliness) {
+                for (Map.Entry<Key, TimestampedState<Void>> e : rawLiveliness.entrySet()) {
+                    Key key = e.getKey();
+                    TimestampedState<Void> v = e.getValue();
+                    if (v.version > version && !stream.stream(key.a, key.isSelf, key.b, v.timestamp, v.version)) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+    }
+
+    static class ContextualStateStorage implements StateStorage<Integer> {
+
+        private final OrderIdProvider orderIdProvider;
+        final NavigableMap<Key, TimestampedState<State>> stateStorage;
+        final byte context;
+        private final List<ContextualStateStorage> watchable;
+        private final List<StateWatcher<Integer>> watchers = new CopyOnWriteArrayList<>();
 
         public ContextualStateStorage(OrderIdProvider orderIdProvider,
             NavigableMap<Key, TimestampedState<State>> stateStorage,
-            byte context) {
+            byte context,
+            List<ContextualStateStorage> watchable) {
             this.orderIdProvider = orderIdProvider;
             this.stateStorage = stateStorage;
             this.context = context;
+            this.watchable = watchable;
+            if (watchable != null) {
+                watchable.add(this);
+            }
         }
 
         @Override
@@ -746,23 +1048,184 @@ public class AquariumNGTest {
         @Override
         public boolean update(StateUpdates<Integer> updates) throws Exception {
             return updates.updates((rootMember, otherMember, lifecycle, state, timestamp) -> {
-                stateStorage.compute(new Key(context, rootMember, lifecycle, otherMember), (key, myState) -> {
-                    long version = orderIdProvider.nextId();
-                    if (myState != null && (myState.timestamp > timestamp || (myState.timestamp == timestamp && myState.version > version))) {
-                        return myState;
-                    } else {
-                        return new TimestampedState<>(state, timestamp, version);
-                    }
+                put(rootMember, otherMember, lifecycle, state, timestamp);
+                changed(rootMember, otherMember, lifecycle, false);
+                return true;
+            });
+        }
+
+        @Override
+        public boolean updateWith(StateStorage<Integer> other, StateUpdates<Integer> updates, StateUpdates<Integer> otherUpdates) throws Exception {
+            if (!(other instanceof ContextualStateStorage) || ((ContextualStateStorage) other).stateStorage != stateStorage) {
+                return false;
+            }
+            ContextualStateStorage otherStorage = (ContextualStateStorage) other;
+            List<Key> changedKeys = new ArrayList<>();
+            synchronized (stateStorage) {
+                updates.updates((rootMember, otherMember, lifecycle, state, timestamp) -> {
+                    changedKeys.add(put(rootMember, otherMember, lifecycle, state, timestamp));
+                    return true;
                 });
+                otherUpdates.updates((rootMember, otherMember, lifecycle, state, timestamp) -> {
+                    changedKeys.add(otherStorage.put(rootMember, otherMember, lifecycle, state, timestamp));
+                    return true;
+                });
+            }
+            for (Key key : changedKeys) {
+                ContextualStateStorage storage = key.context == context ? this : otherStorage;
+                storage.changed(key.a, key.b, key.memberVersion, false);
+            }
+            return true;
+        }
+
+        @Override
+        public boolean remove(StateRemovals<Integer> removals) throws Exception {
+            return removals.removals((rootMember, lifecycle) -> {
+                synchronized (stateStorage) {
+                    stateStorage.subMap(new Key(context, rootMember, lifecycle, rootMember), new Key(context, rootMember, lifecycle, MAX)).clear();
+                }
+                changed(rootMember, null, lifecycle, false);
                 return true;
             });
         }
 
-        public void clear(Member rootMember) {
+        private Key put(Member rootMember, Member otherMember, Integer lifecycle, State state, long timestamp) {
+            Key key = new Key(context, rootMember, lifecycle, otherMember);
+            stateStorage.compute(key, (k, myState) -> {
+                long version = nextVersion();
+                if (myState != null && (myState.timestamp > timestamp || (myState.timestamp == timestamp && myState.version > version))) {
+                    return myState;
+                } else {
+                    return new TimestampedState<>(state, timestamp, version);
+                }
+            });
+            return key;
+        }
+
+        long nextVersion() {
+            return orderIdProvider.nextId();
+        }
+
+        @Override
+        public boolean watch(StateWatcher<Integer> watcher) throws Exception {
+            if (watchable == null) {
+                return false;
+            }
+            watchers.add(watcher);
+            return true;
+        }
+
+        public void clear(Member rootMember) throws Exception {
 
             SortedMap<Key, TimestampedState<State>> subMap = stateStorage.subMap(new Key(context, rootMember, Integer.MAX_VALUE, rootMember),
                 new Key(context, rootMember, Integer.MIN_VALUE, MAX));
             subMap.clear();
+            changed(rootMember, null, null, true);
+        }
+
+        private void changed(Member rootMember, Member otherMember, Integer lifecycle, boolean includeSelf) throws Exception {
+            if (watchable != null) {
+                for (ContextualStateStorage storage : watchable) {
+                    if (storage.context == context && (includeSelf || storage != this)) {
+                        for (StateWatcher<Integer> watcher : storage.watchers) {
+                            watcher.changed(rootMember, otherMember, lifecycle);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Versions every write from one counter shared by every node, so that a version high-water mark can be kept.
+     */
+    static class ScanSinceStateStorage extends ContextualStateStorage {
+
+        private final AtomicLong storageVersion;
+
+        ScanSinceStateStorage(AtomicLong storageVersion,
+            NavigableMap<Key, TimestampedState<State>> stateStorage,
+            byte context,
+            List<ContextualStateStorage> watchable) {
+            super(null, stateStorage, context, watchable);
+            this.storageVersion = storageVersion;
+        }
+
+        @Override
+        public boolean update(StateUpdates<Integer> updates) throws Exception {
+            synchronized (stateStorage) {
+                return super.update(updates);
+            }
+        }
+
+        @Override
+        long nextVersion() {
+            return storageVersion.incrementAndGet();
+        }
+
+        @Override
+        public boolean supportsScanSince() {
+            return true;
+        }
+
+        @Override
+        public boolean scanSince(long version, StateStream<Integer> stream) throws Exception {
+            synchronized (stateStorage) {
+                SortedMap<Key, TimestampedState<State>> subMap = stateStorage.subMap(new Key(context, MIN, Integer.MAX_VALUE, MIN),
+                    new Key(context, MAX, Integer.MIN_VALUE, MAX));
+                for (Map.Entry<Key, TimestampedState<State>> e : subMap.entrySet()) {
+                    Key key = e.getKey();
+                    TimestampedState<State> v = e.getValue();
+                    if (v.version > version && !stream.stream(key.a, key.isSelf, key.b, key.memberVersion, v.state, v.timestamp, v.version)) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Both contexts of one table, scanned together. Rows are only ever scanned in full so that acknowledgements use the combined scan.
+     */
+    static class ContextualDualStateStorage implements DualStateStorage<Integer> {
+
+        private final NavigableMap<Key, TimestampedState<State>> stateStorage;
+        private final ContextualStateStorage current;
+        private final ContextualStateStorage desired;
+        final AtomicLong scans = new AtomicLong();
+
+        ContextualDualStateStorage(OrderIdProvider orderIdProvider,
+            NavigableMap<Key, TimestampedState<State>> stateStorage,
+            List<ContextualStateStorage> watchable) {
+            this.stateStorage = stateStorage;
+            this.current = new ContextualStateStorage(orderIdProvider, stateStorage, CURRENT, watchable);
+            this.desired = new ContextualStateStorage(orderIdProvider, stateStorage, DESIRED, watchable);
+        }
+
+        @Override
+        public StateStorage<Integer> current() {
+            return current;
+        }
+
+        @Override
+        public StateStorage<Integer> desired() {
+            return desired;
+        }
+
+        @Override
+        public boolean scan(DualStateStream<Integer> stream) throws Exception {
+            scans.incrementAndGet();
+            SortedMap<Key, TimestampedState<State>> subMap = stateStorage.subMap(new Key(CURRENT, MIN, Integer.MAX_VALUE, MIN),
+                new Key(DESIRED, MAX, Integer.MIN_VALUE, MAX));
+            for (Map.Entry<Key, TimestampedState<State>> e : subMap.entrySet()) {
+                Key key = e.getKey();
+                TimestampedState<State> v = e.getValue();
+                if (!stream.stream(key.context == DESIRED, key.a, key.isSelf, key.b, key.memberVersion, v.state, v.timestamp, v.version)) {
+                    return false;
+                }
+            }
+            return true;
         }
     }
 
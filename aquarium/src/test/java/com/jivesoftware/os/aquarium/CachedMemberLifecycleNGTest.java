@@ -0,0 +1,68 @@
+package com.jivesoftware.os.aquarium;
+
+import com.jivesoftware.os.aquarium.interfaces.MemberLifecycle;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ *
+ */
+public class CachedMemberLifecycleNGTest {
+
+    private final Member member = new Member(AquariumNGTest.intBytes(1));
+
+    @Test
+    public void testScopedWithoutEpoch() throws Exception {
+        AtomicInteger lookups = new AtomicInteger();
+        AtomicInteger lifecycle = new AtomicInteger(7);
+        CachedMemberLifecycle<Integer> cached = new CachedMemberLifecycle<>(asMember -> {
+            lookups.incrementAndGet();
+            return lifecycle.get();
+        });
+
+        Assert.assertEquals(cached.get(member).intValue(), 7);
+        Assert.assertEquals(cached.get(member).intValue(), 7);
+        Assert.assertEquals(lookups.get(), 2, "nothing is cached outside a scope without an epoch");
+
+        cached.scoped(() -> {
+            Assert.assertEquals(cached.get(member).intValue(), 7);
+            lifecycle.set(8);
+            Assert.assertEquals(cached.get(member).intValue(), 7, "a scope sees one lifecycle per member");
+            return cached.scoped(() -> cached.get(member));
+        });
+        Assert.assertEquals(lookups.get(), 3);
+        Assert.assertEquals(cached.get(member).intValue(), 8);
+    }
+
+    @Test
+    public void testCachedUntilEpochMoves() throws Exception {
+        AtomicInteger lookups = new AtomicInteger();
+        AtomicInteger lifecycle = new AtomicInteger(7);
+        AtomicLong epoch = new AtomicLong(1);
+        CachedMemberLifecycle<Integer> cached = new CachedMemberLifecycle<>(new MemberLifecycle<Integer>() {
+            @Override
+            public Integer get(Member asMember) throws Exception {
+                lookups.incrementAndGet();
+                return lifecycle.get();
+            }
+
+            @Override
+            public long epoch() throws Exception {
+                return epoch.get();
+            }
+        });
+
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals(cached.get(member).intValue(), 7);
+        }
+        Assert.assertEquals(lookups.get(), 1);
+
+        lifecycle.set(8);
+        epoch.incrementAndGet();
+        Assert.assertEquals(cached.get(member).intValue(), 8);
+        Assert.assertEquals(cached.get(member).intValue(), 8);
+        Assert.assertEquals(lookups.get(), 2);
+    }
+}
@@ -0,0 +1,111 @@
+package com.jivesoftware.os.aquarium;
+
+import com.google.common.collect.Sets;
+import com.jivesoftware.os.aquarium.interfaces.CurrentMembers;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ *
+ */
+public class CurrentMembersSnapshotNGTest {
+
+    @Test
+    public void testCursor() throws Exception {
+        Set<Member> members = Sets.newHashSet(member(2), member(4), member(6));
+        CurrentMembersSnapshot snapshot = CurrentMembersSnapshot.of(null, () -> members, new MemberRegistry(), count -> count > 1);
+
+        CurrentMembersSnapshot.Cursor cursor = snapshot.cursor();
+        Assert.assertFalse(cursor.contains(member(1)));
+        Assert.assertTrue(cursor.contains(member(2)));
+        Assert.assertTrue(cursor.contains(member(2)));
+        Assert.assertFalse(cursor.contains(member(3)));
+        Assert.assertTrue(cursor.contains(member(6)));
+        Assert.assertTrue(cursor.contains(member(4)), "out of order members are still found");
+        Assert.assertFalse(cursor.contains(member(5)));
+        Assert.assertTrue(cursor.contains(member(6)));
+        Assert.assertFalse(cursor.contains(member(7)));
+        Assert.assertTrue(cursor.contains(member(2)));
+
+        members.add(member(8));
+        Assert.assertFalse(snapshot.contains(member(8)), "a snapshot does not see later changes");
+    }
+
+    @Test
+    public void testReusedUntilEpochMoves() throws Exception {
+        Set<Member> members = Sets.newHashSet(member(1), member(2), member(3));
+        AtomicLong epoch = new AtomicLong(1);
+        AtomicInteger reads = new AtomicInteger();
+        CurrentMembers currentMembers = new CurrentMembers() {
+            @Override
+            public Set<Member> getCurrent() throws Exception {
+                reads.incrementAndGet();
+                return members;
+            }
+
+            @Override
+            public long epoch() throws Exception {
+                return epoch.get();
+            }
+        };
+        AtomicInteger quorumCalls = new AtomicInteger();
+        MemberRegistry memberRegistry = new MemberRegistry();
+
+        CurrentMembersSnapshot snapshot = CurrentMembersSnapshot.of(null, currentMembers, memberRegistry, count -> {
+            quorumCalls.incrementAndGet();
+            return count > 1;
+        });
+        Assert.assertSame(CurrentMembersSnapshot.of(snapshot, currentMembers, memberRegistry, count -> count > 1), snapshot);
+        Assert.assertEquals(reads.get(), 1);
+
+        for (int i = 0; i < 10; i++) {
+            Assert.assertFalse(snapshot.isQuorum(1));
+            Assert.assertTrue(snapshot.isQuorum(2));
+        }
+        Assert.assertEquals(quorumCalls.get(), 2, "quorum is only asked once per count");
+        Assert.assertTrue(snapshot.isQuorum(5), "acks from members which are no longer current still count");
+
+        members.add(member(4));
+        epoch.incrementAndGet();
+        CurrentMembersSnapshot next = CurrentMembersSnapshot.of(snapshot, currentMembers, memberRegistry, count -> count > 1);
+        Assert.assertNotSame(next, snapshot);
+        Assert.assertTrue(next.contains(member(4)));
+        Assert.assertEquals(next.bits().cardinality(), 4);
+    }
+
+    @Test
+    public void testReusedWithinScopeWithoutEpoch() throws Exception {
+        Set<Member> members = Sets.newHashSet(member(1), member(2));
+        AtomicInteger reads = new AtomicInteger();
+        CurrentMembers currentMembers = () -> {
+            reads.incrementAndGet();
+            return members;
+        };
+        MemberRegistry memberRegistry = new MemberRegistry();
+
+        CurrentMembersSnapshot unscoped = CurrentMembersSnapshot.of(null, currentMembers, memberRegistry, count -> count > 1);
+        Assert.assertNotSame(CurrentMembersSnapshot.of(unscoped, currentMembers, memberRegistry, count -> count > 1), unscoped);
+        Assert.assertEquals(reads.get(), 2, "without an epoch or a scope every read snapshots again");
+
+        CurrentMembersSnapshot scoped = CurrentMembersSnapshot.scoped(() -> {
+            CurrentMembersSnapshot first = CurrentMembersSnapshot.of(unscoped, currentMembers, memberRegistry, count -> count > 1);
+            Assert.assertSame(CurrentMembersSnapshot.of(first, currentMembers, memberRegistry, count -> count > 1), first);
+            Assert.assertSame(CurrentMembersSnapshot.scoped(() -> CurrentMembersSnapshot.of(null, currentMembers, memberRegistry,
+                count -> count > 1)), first, "nested scopes share the outermost");
+            return first;
+        });
+        Assert.assertNotSame(scoped, unscoped);
+        Assert.assertEquals(reads.get(), 3);
+
+        members.add(member(3));
+        Assert.assertTrue(CurrentMembersSnapshot.of(scoped, currentMembers, memberRegistry, count -> count > 1).contains(member(3)),
+            "outside the scope the members are read again");
+    }
+
+    private static Member member(int i) {
+        return new Member(AquariumNGTest.intBytes(i));
+    }
+}
@@ -0,0 +1,125 @@
+package com.jivesoftware.os.aquarium;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ *
+ */
+public class MatrixStateStorageNGTest {
+
+    @Test
+    public void testRowsAndRemoval() throws Exception {
+        MatrixStateStorage<Integer> storage = new MatrixStateStorage<>(new MemberRegistry());
+        Member[] members = { member(1), member(2), member(3) };
+        storage.update(setState -> setState.set(members[1], members[0], 0, State.follower, 10L)
+            && setState.set(members[1], members[1], 0, State.follower, 10L)
+            && setState.set(members[0], members[0], 0, State.leader, 10L)
+            && setState.set(members[1], members[2], 1, State.follower, 5L)
+            && setState.set(members[1], members[1], 1, State.follower, 5L));
+        Assert.assertEquals(rows(storage, null, null, null), Arrays.asList("2*2 0 follower", "2:1 0 follower", "2*2 1 follower", "2:3 1 follower",
+            "1*1 0 leader"), "roots in id order, each lifecycle's self row first");
+        Assert.assertEquals(rows(storage, members[1], null, 1), Arrays.asList("2*2 1 follower", "2:3 1 follower"));
+        Assert.assertEquals(rows(storage, null, members[0], null), Arrays.asList("2:1 0 follower", "1*1 0 leader"));
+        Assert.assertTrue(rows(storage, null, member(4), null).isEmpty());
+
+        storage.update(setState -> setState.set(members[1], members[0], 0, State.leader, 5L));
+        Assert.assertEquals(rows(storage, members[1], members[0], 0), Arrays.asList("2:1 0 follower"), "an older timestamp is ignored");
+        Assert.assertEquals(storage.timestamp(members[1], members[0], 0), 10L);
+
+        Assert.assertTrue(storage.remove(removeState -> removeState.remove(members[1], 1)));
+        Assert.assertEquals(rows(storage, null, null, null), Arrays.asList("2*2 0 follower", "2:1 0 follower", "1*1 0 leader"));
+        Assert.assertEquals(storage.timestamp(members[1], members[2], 1), -1L);
+    }
+
+    @Test
+    public void testLiveliness() throws Exception {
+        MatrixLivelinessStorage storage = new MatrixLivelinessStorage(new MemberRegistry());
+        Member[] members = { member(1), member(2) };
+        storage.update(setLiveliness -> setLiveliness.set(members[0], members[0], 10L)
+            && setLiveliness.set(members[0], members[1], 11L)
+            && setLiveliness.set(members[1], members[1], 12L));
+        Assert.assertEquals(storage.get(members[0], members[1]), 11L);
+
+        List<String> rows = Lists.newArrayList();
+        storage.scan(null, null, (rootMember, isSelf, ackMember, timestamp, version) -> rows.add(
+            AquariumNGTest.bytesInt(rootMember.getMember()) + (isSelf ? "*" : ":") + AquariumNGTest.bytesInt(ackMember.getMember()) + " " + timestamp));
+        Assert.assertEquals(rows, Arrays.asList("1*1 10", "1:2 11", "2*2 12"));
+
+        storage.remove(removeLiveliness -> removeLiveliness.remove(members[0], members[1]) && removeLiveliness.remove(members[1], null));
+        Assert.assertEquals(storage.get(members[0], members[1]), -1L);
+        Assert.assertEquals(storage.get(members[1], members[1]), -1L);
+        Assert.assertEquals(storage.get(members[0], members[0]), 10L);
+    }
+
+    @Test
+    public void testScansNeverSeeTornRows() throws Exception {
+        MatrixStateStorage<Integer> storage = new MatrixStateStorage<>(new MemberRegistry());
+        Member[] members = new Member[32];
+        for (int i = 0; i < members.length; i++) {
+            members[i] = member(i + 1);
+        }
+
+        AtomicBoolean running = new AtomicBoolean(true);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> writer = executor.submit(() -> {
+                for (long timestamp = 1; running.get(); timestamp++) {
+                    long rowTimestamp = timestamp;
+                    State state = (timestamp % 2 == 0) ? State.leader : State.follower;
+                    storage.update(setState -> {
+                        for (Member member : members) {
+                            setState.set(members[(int) (rowTimestamp % members.length)], member, 0, state, rowTimestamp);
+                        }
+                        return true;
+                    });
+                }
+                return null;
+            });
+
+            for (int i = 0; i < 1_000; i++) {
+                storage.scan(null, null, null, (rootMember, isSelf, ackMember, lifecycle, state, timestamp, version) -> {
+                    Assert.assertEquals(state, (timestamp % 2 == 0) ? State.leader : State.follower, "state and timestamp of one row");
+                    return true;
+                });
+            }
+            running.set(false);
+            writer.get();
+        } finally {
+            running.set(false);
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testRingOverMatrices() throws Exception {
+        MemberRegistry memberRegistry = new MemberRegistry();
+        StorageTestUtil.Ring ring = new StorageTestUtil.Ring(Sets.newHashSet(member(1), member(2), member(3)),
+            memberRegistry,
+            new MatrixStateStorage<>(memberRegistry),
+            new MatrixStateStorage<>(memberRegistry),
+            new MatrixLivelinessStorage(memberRegistry));
+        Assert.assertTrue(ring.converge(100));
+    }
+
+    private static List<String> rows(MatrixStateStorage<Integer> storage, Member rootMember, Member ackMember, Integer lifecycle) throws Exception {
+        List<String> rows = Lists.newArrayList();
+        storage.scan(rootMember, ackMember, lifecycle, (root, isSelf, rowAckMember, rowLifecycle, state, timestamp, version) -> {
+            return rows.add(AquariumNGTest.bytesInt(root.getMember()) + (isSelf ? "*" : ":") + AquariumNGTest.bytesInt(rowAckMember.getMember())
+                + " " + rowLifecycle + " " + state);
+        });
+        return rows;
+    }
+
+    private static Member member(int i) {
+        return new Member(AquariumNGTest.intBytes(i));
+    }
+}
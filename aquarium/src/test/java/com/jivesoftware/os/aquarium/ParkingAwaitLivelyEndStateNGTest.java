@@ -0,0 +1,140 @@
+package com.jivesoftware.os.aquarium;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ *
+ */
+public class ParkingAwaitLivelyEndStateNGTest {
+
+    @Test
+    public void testWakesOnlySatisfiedWaiters() throws Exception {
+        ParkingAwaitLivelyEndState awaitLivelyEndState = new ParkingAwaitLivelyEndState();
+        AtomicReference<LivelyEndState> published = new AtomicReference<>();
+        AtomicInteger leaderCalls = new AtomicInteger();
+        AtomicInteger followerCalls = new AtomicInteger();
+
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            Future<LivelyEndState> leader = executor.submit(() -> awaitLivelyEndState.awaitChange(() -> {
+                leaderCalls.incrementAndGet();
+                LivelyEndState livelyEndState = published.get();
+                return livelyEndState != null && livelyEndState.getCurrentState() == State.leader ? livelyEndState : null;
+            }, 10_000));
+            Future<LivelyEndState> follower = executor.submit(() -> awaitLivelyEndState.awaitChange(() -> {
+                followerCalls.incrementAndGet();
+                LivelyEndState livelyEndState = published.get();
+                return livelyEndState != null && livelyEndState.getCurrentState() == State.follower ? livelyEndState : null;
+            }, 200));
+
+            while (leaderCalls.get() < 2 || followerCalls.get() < 2) {
+                Thread.sleep(1);
+            }
+            Thread.sleep(50);
+            Assert.assertEquals(leaderCalls.get(), 2, "parked waiters are not re-evaluated without a change");
+
+            LivelyEndState leaderState = new LivelyEndState(null, waterline(State.leader), waterline(State.leader), null);
+            awaitLivelyEndState.notifyChange(() -> {
+                published.set(leaderState);
+                return true;
+            });
+            Assert.assertSame(leader.get(), leaderState);
+            Assert.assertEquals(leaderCalls.get(), 3);
+
+            try {
+                follower.get();
+                Assert.fail("follower should have timed out");
+            } catch (Exception x) {
+                Assert.assertTrue(x.getCause() instanceof TimeoutException, x.toString());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testAsyncWaitersHoldNoThread() throws Exception {
+        ParkingAwaitLivelyEndState awaitLivelyEndState = new ParkingAwaitLivelyEndState();
+        AtomicReference<LivelyEndState> published = new AtomicReference<>();
+
+        CompletableFuture<LivelyEndState> leader = awaitLivelyEndState.awaitChangeAsync(() -> {
+            LivelyEndState livelyEndState = published.get();
+            return livelyEndState != null && livelyEndState.getCurrentState() == State.leader ? livelyEndState : null;
+        }, 10_000);
+        CompletableFuture<LivelyEndState> follower = awaitLivelyEndState.awaitChangeAsync(() -> {
+            LivelyEndState livelyEndState = published.get();
+            return livelyEndState != null && livelyEndState.getCurrentState() == State.follower ? livelyEndState : null;
+        }, 100);
+        Assert.assertFalse(leader.isDone());
+        Assert.assertFalse(follower.isDone());
+
+        LivelyEndState leaderState = new LivelyEndState(null, waterline(State.leader), waterline(State.leader), null);
+        awaitLivelyEndState.notifyChange(() -> {
+            published.set(leaderState);
+            return true;
+        });
+        Assert.assertTrue(leader.isDone(), "satisfied futures are completed by the notifying thread");
+        Assert.assertSame(leader.get(), leaderState);
+
+        try {
+            follower.get(10, TimeUnit.SECONDS);
+            Assert.fail("follower should have timed out");
+        } catch (ExecutionException x) {
+            Assert.assertTrue(x.getCause() instanceof TimeoutException, x.toString());
+        }
+
+        // already satisfied
+        Assert.assertSame(awaitLivelyEndState.awaitChangeAsync(published::get, 0).getNow(null), leaderState);
+    }
+
+    @Test
+    public void testNotifiesOnlyWaitersOfTheSource() throws Exception {
+        ParkingAwaitLivelyEndState awaitLivelyEndState = new ParkingAwaitLivelyEndState();
+        Object a = new Object();
+        Object b = new Object();
+        AtomicReference<LivelyEndState> publishedA = new AtomicReference<>();
+        AtomicInteger bCalls = new AtomicInteger();
+        AtomicInteger anyCalls = new AtomicInteger();
+
+        CompletableFuture<LivelyEndState> awaitingA = awaitLivelyEndState.awaitChangeAsync(a, publishedA::get, 10_000);
+        CompletableFuture<LivelyEndState> awaitingB = awaitLivelyEndState.awaitChangeAsync(b, () -> {
+            bCalls.incrementAndGet();
+            return null;
+        }, 10_000);
+        CompletableFuture<LivelyEndState> awaitingAny = awaitLivelyEndState.awaitChangeAsync(() -> {
+            anyCalls.incrementAndGet();
+            return null;
+        }, 10_000);
+        Assert.assertEquals(bCalls.get(), 2);
+        Assert.assertEquals(anyCalls.get(), 2);
+
+        LivelyEndState leaderState = new LivelyEndState(null, waterline(State.leader), waterline(State.leader), null);
+        awaitLivelyEndState.notifyChange(a, () -> {
+            publishedA.set(leaderState);
+            return true;
+        });
+        Assert.assertSame(awaitingA.getNow(null), leaderState);
+        Assert.assertEquals(bCalls.get(), 2, "another source's waiters are not evaluated");
+        Assert.assertEquals(anyCalls.get(), 3, "waiters without a source are evaluated on every change");
+
+        awaitLivelyEndState.notifyChange(() -> true);
+        Assert.assertEquals(bCalls.get(), 3);
+        Assert.assertEquals(anyCalls.get(), 4);
+        Assert.assertFalse(awaitingB.isDone());
+        Assert.assertFalse(awaitingAny.isDone());
+    }
+
+    private Waterline waterline(State state) {
+        return new Waterline(new Member(AquariumNGTest.intBytes(1)), state, 1L, 1L, true);
+    }
+}
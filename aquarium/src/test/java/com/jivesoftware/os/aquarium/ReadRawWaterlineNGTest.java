@@ -0,0 +1,223 @@
+package com.jivesoftware.os.aquarium;
+
+import com.google.common.collect.Sets;
+import com.jivesoftware.os.aquarium.AquariumNGTest.Key;
+import com.jivesoftware.os.aquarium.AquariumNGTest.TimestampedState;
+import com.jivesoftware.os.aquarium.interfaces.AquaBuffer;
+import com.jivesoftware.os.aquarium.interfaces.AtQuorum;
+import com.jivesoftware.os.aquarium.interfaces.LifecycleMarshaller;
+import com.jivesoftware.os.aquarium.interfaces.MemberLifecycle;
+import com.jivesoftware.os.aquarium.interfaces.RawStateStorage;
+import com.jivesoftware.os.aquarium.interfaces.StateStorage;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ *
+ */
+public class ReadRawWaterlineNGTest {
+
+    private static final Member MIN = new Member(AquariumNGTest.intBytes(0));
+    private static final Member MAX = new Member(AquariumNGTest.intBytes(Integer.MAX_VALUE));
+    private static final byte CONTEXT = 0;
+
+    @Test
+    public void testRawMatchesTyped() throws Exception {
+        Member[] members = new Member[5];
+        for (int i = 0; i < members.length; i++) {
+            members[i] = new Member(AquariumNGTest.intBytes(i + 1));
+        }
+        Set<Member> current = Sets.newHashSet(members[0], members[1], members[2], members[3]);
+        MemberLifecycle<Integer> memberLifecycle = member -> AquariumNGTest.bytesInt(member.getMember()) == 2 ? 1 : 0;
+        AtQuorum atQuorum = count -> count > current.size() / 2;
+
+        NavigableMap<Key, TimestampedState<State>> typedMap = new ConcurrentSkipListMap<>();
+        NavigableMap<Key, TimestampedState<State>> rawMap = new ConcurrentSkipListMap<>();
+        StateStorage<Integer> typedStorage = new TypedStateStorage(typedMap);
+        StateStorage<Integer> rawStorage = new RawStateStorageAdapter<>(new MapRawStateStorage(rawMap), new IntegerMarshaller());
+
+        populate(typedStorage, members);
+        populate(rawStorage, members);
+
+        ReadWaterline<Integer> typed = readWaterline(typedStorage, memberLifecycle, atQuorum, current);
+        ReadWaterline<Integer> raw = readWaterline(rawStorage, memberLifecycle, atQuorum, current);
+
+        assertSame(typed.snapshot(), raw.snapshot(), members);
+        for (Member member : members) {
+            assertSame(typed.get(member), raw.get(member));
+        }
+
+        for (Member member : members) {
+            typed.acknowledgeOther(member);
+            raw.acknowledgeOther(member);
+        }
+        Assert.assertEquals(rawMap.keySet().toString(), typedMap.keySet().toString());
+        for (Map.Entry<Key, TimestampedState<State>> entry : typedMap.entrySet()) {
+            TimestampedState<State> rawState = rawMap.get(entry.getKey());
+            Assert.assertEquals(rawState.state, entry.getValue().state);
+            Assert.assertEquals(rawState.timestamp, entry.getValue().timestamp);
+        }
+        assertSame(typed.snapshot(), raw.snapshot(), members);
+    }
+
+    private void populate(StateStorage<Integer> storage, Member[] members) throws Exception {
+        storage.update(setState -> {
+            setState.set(members[0], members[0], 0, State.follower, 10);
+            setState.set(members[0], members[1], 0, State.follower, 10);
+            setState.set(members[0], members[2], 0, State.follower, 9);
+            setState.set(members[1], members[1], 1, State.leader, 20);
+            setState.set(members[1], members[1], 0, State.follower, 5);
+            setState.set(members[1], members[4], 1, State.leader, 20);
+            setState.set(members[2], members[2], 0, State.nominated, 30);
+            setState.set(members[4], members[4], 0, State.leader, 40);
+            return true;
+        });
+    }
+
+    private ReadWaterline<Integer> readWaterline(StateStorage<Integer> stateStorage,
+        MemberLifecycle<Integer> memberLifecycle,
+        AtQuorum atQuorum,
+        Set<Member> current) {
+        return new ReadWaterline<>(new LongAdder(),
+            new LongAdder(),
+            new LongAdder(),
+            new LongAdder(),
+            stateStorage,
+            new WaterlineIndex<>(stateStorage, new MemberRegistry()),
+            memberLifecycle,
+            atQuorum,
+            () -> current,
+            new MemberRegistry(),
+            Integer.class);
+    }
+
+    private void assertSame(QuorumSnapshot expected, QuorumSnapshot actual, Member[] members) throws Exception {
+        Assert.assertEquals(actual.size(), expected.size());
+        for (Member member : members) {
+            assertSame(expected.get(member), actual.get(member));
+            StringBuilder expectedOthers = new StringBuilder();
+            StringBuilder actualOthers = new StringBuilder();
+            expected.getOthers(member, waterline -> expectedOthers.append(waterline).append(waterline.isAtQuorum()) != null);
+            actual.getOthers(member, waterline -> actualOthers.append(waterline).append(waterline.isAtQuorum()) != null);
+            Assert.assertEquals(actualOthers.toString(), expectedOthers.toString());
+        }
+    }
+
+    private void assertSame(Waterline expected, Waterline actual) {
+        if (expected == null) {
+            Assert.assertNull(actual);
+        } else {
+            Assert.assertNotNull(actual);
+            Assert.assertTrue(Waterline.checkEquals(expected, actual), expected + " vs " + actual);
+        }
+    }
+
+    private static TimestampedState<State> merge(AtomicLong storageVersion, TimestampedState<State> existing, State state, long timestamp) {
+        long version = storageVersion.incrementAndGet();
+        if (existing != null && (existing.timestamp > timestamp || (existing.timestamp == timestamp && existing.version > version))) {
+            return existing;
+        }
+        return new TimestampedState<>(state, timestamp, version);
+    }
+
+    private static class TypedStateStorage implements StateStorage<Integer> {
+
+        private final NavigableMap<Key, TimestampedState<State>> map;
+        private final AtomicLong storageVersion = new AtomicLong();
+
+        TypedStateStorage(NavigableMap<Key, TimestampedState<State>> map) {
+            this.map = map;
+        }
+
+        @Override
+        public boolean scan(Member rootMember, Member otherMember, Integer lifecycle, StateStream<Integer> stream) throws Exception {
+            Member minA = (rootMember == null) ? MIN : rootMember;
+            Member maxA = (rootMember == null) ? MAX : rootMember;
+            Member minB = (otherMember == null) ? minA : otherMember;
+            int minLifecycle = (lifecycle != null) ? lifecycle : Integer.MAX_VALUE; // reversed
+            int maxLifecycle = (lifecycle != null) ? lifecycle : Integer.MIN_VALUE; // reversed
+            for (Map.Entry<Key, TimestampedState<State>> e : map.subMap(new Key(CONTEXT, minA, minLifecycle, minB),
+                new Key(CONTEXT, maxA, maxLifecycle, MAX)).entrySet()) {
+                Key key = e.getKey();
+                TimestampedState<State> v = e.getValue();
+                if (!stream.stream(key.a, key.isSelf, key.b, key.memberVersion, v.state, v.timestamp, v.version)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public boolean update(StateUpdates<Integer> updates) throws Exception {
+            return updates.updates((rootMember, otherMember, lifecycle, state, timestamp) -> {
+                map.compute(new Key(CONTEXT, rootMember, lifecycle, otherMember), (key, existing) -> merge(storageVersion, existing, state, timestamp));
+                return true;
+            });
+        }
+    }
+
+    private static class MapRawStateStorage implements RawStateStorage {
+
+        private final NavigableMap<Key, TimestampedState<State>> map;
+        private final AtomicLong storageVersion = new AtomicLong();
+
+        MapRawStateStorage(NavigableMap<Key, TimestampedState<State>> map) {
+            this.map = map;
+        }
+
+        @Override
+        public boolean scan(AquaBuffer rootMember, AquaBuffer otherMember, AquaBuffer lifecycle, RawStateStream stream) throws Exception {
+            Member minA = (rootMember == null) ? MIN : rootMember.toMember();
+            Member maxA = (rootMember == null) ? MAX : minA;
+            Member minB = (otherMember == null) ? minA : otherMember.toMember();
+            int minLifecycle = (lifecycle != null) ? AquariumNGTest.bytesInt(lifecycle.copy()) : Integer.MAX_VALUE; // reversed
+            int maxLifecycle = (lifecycle != null) ? minLifecycle : Integer.MIN_VALUE; // reversed
+
+            // one set of flyweights for the whole scan, as a real store would slice its pages
+            AquaBuffer root = new AquaBuffer();
+            AquaBuffer ack = new AquaBuffer();
+            AquaBuffer rowLifecycle = new AquaBuffer();
+            byte[] lifecycleBytes = new byte[4];
+            for (Map.Entry<Key, TimestampedState<State>> e : map.subMap(new Key(CONTEXT, minA, minLifecycle, minB),
+                new Key(CONTEXT, maxA, maxLifecycle, MAX)).entrySet()) {
+                Key key = e.getKey();
+                TimestampedState<State> v = e.getValue();
+                root.force(key.a.getMember(), 0, key.a.getMember().length);
+                ack.force(key.b.getMember(), 0, key.b.getMember().length);
+                rowLifecycle.force(AquariumNGTest.intBytes(key.memberVersion, lifecycleBytes, 0), 0, 4);
+                if (!stream.stream(root, key.isSelf, ack, rowLifecycle, v.state.getSerializedForm(), v.timestamp, v.version)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public boolean update(RawStateUpdates updates) throws Exception {
+            return updates.updates((rootMember, otherMember, lifecycle, state, timestamp) -> {
+                Key key = new Key(CONTEXT, rootMember.toMember(), AquariumNGTest.bytesInt(lifecycle.copy()), otherMember.toMember());
+                map.compute(key, (k, existing) -> merge(storageVersion, existing, State.fromSerializedForm(state), timestamp));
+                return true;
+            });
+        }
+    }
+
+    private static class IntegerMarshaller implements LifecycleMarshaller<Integer> {
+
+        @Override
+        public byte[] toBytes(Integer lifecycle) {
+            return AquariumNGTest.intBytes(lifecycle);
+        }
+
+        @Override
+        public Integer fromBytes(AquaBuffer buffer) {
+            return AquariumNGTest.bytesInt(buffer.copy());
+        }
+    }
+}
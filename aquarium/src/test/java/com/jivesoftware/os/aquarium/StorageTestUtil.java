@@ -0,0 +1,143 @@
+package com.jivesoftware.os.aquarium;
+
+import com.google.common.collect.Lists;
+import com.google.common.primitives.Ints;
+import com.jivesoftware.os.aquarium.interfaces.AquaBuffer;
+import com.jivesoftware.os.aquarium.interfaces.AwaitLivelyEndState;
+import com.jivesoftware.os.aquarium.interfaces.LifecycleMarshaller;
+import com.jivesoftware.os.aquarium.interfaces.LivelinessStorage;
+import com.jivesoftware.os.aquarium.interfaces.StateStorage;
+import com.jivesoftware.os.aquarium.interfaces.TransitionQuorum;
+import com.jivesoftware.os.jive.utils.ordered.id.ConstantWriterIdProvider;
+import com.jivesoftware.os.jive.utils.ordered.id.OrderIdProviderImpl;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Helpers shared by the tests of the storage implementations, which use int members and lifecycles.
+ */
+public class StorageTestUtil {
+
+    public static final LifecycleMarshaller<Integer> LIFECYCLE_MARSHALLER = new LifecycleMarshaller<Integer>() {
+        @Override
+        public byte[] toBytes(Integer lifecycle) {
+            return Ints.toByteArray(lifecycle);
+        }
+
+        @Override
+        public Integer fromBytes(AquaBuffer buffer) {
+            return Ints.fromByteArray(buffer.copy());
+        }
+    };
+
+    /**
+     * @return the scanned rows as "root:isSelf:ack:lifecycle:state:timestamp"
+     */
+    public static List<String> scan(StateStorage<Integer> storage, Member rootMember, Integer lifecycle) throws Exception {
+        List<String> rows = Lists.newArrayList();
+        storage.scan(rootMember, null, lifecycle, (root, isSelf, ack, rowLifecycle, state, timestamp, version) -> {
+            rows.add(Ints.fromByteArray(root.getMember()) + ":" + isSelf + ":" + Ints.fromByteArray(ack.getMember())
+                + ":" + rowLifecycle + ":" + state + ":" + timestamp);
+            return true;
+        });
+        return rows;
+    }
+
+    private StorageTestUtil() {
+    }
+
+    /**
+     * One aquarium per member over shared storages, each writing its transitions without waiting for a quorum.
+     */
+    public static class Ring {
+
+        private final List<Aquarium> aquariums = Lists.newArrayList();
+        private final List<Liveliness> livelinesses = Lists.newArrayList();
+
+        public Ring(Set<Member> members,
+            MemberRegistry memberRegistry,
+            StateStorage<Integer> currentStorage,
+            StateStorage<Integer> desiredStorage,
+            LivelinessStorage livelinessStorage) {
+            for (Member member : members) {
+                AquariumStats aquariumStats = new AquariumStats();
+                Liveliness liveliness = new Liveliness(aquariumStats, System::currentTimeMillis, livelinessStorage,
+                    memberRegistry, member, count -> count > 1, 10_000, new AtomicLong(-1));
+                TransitionQuorum currentQuorum = (existing, nextTimestamp, nextState, readCurrent, readDesired, writeCurrent, writeDesired) -> {
+                    writeCurrent.put(existing.getMember(), nextState, nextTimestamp);
+                    return true;
+                };
+                TransitionQuorum desiredQuorum = (existing, nextTimestamp, nextState, readCurrent, readDesired, writeCurrent, writeDesired) -> {
+                    writeDesired.put(existing.getMember(), nextState, nextTimestamp);
+                    return true;
+                };
+                aquariums.add(new Aquarium(aquariumStats,
+                    new OrderIdProviderImpl(new ConstantWriterIdProvider(Ints.fromByteArray(member.getMember()))),
+                    currentStorage,
+                    desiredStorage,
+                    currentQuorum,
+                    desiredQuorum,
+                    liveliness,
+                    rootMember -> 0,
+                    Integer.class,
+                    count -> count > 1,
+                    () -> members,
+                    memberRegistry,
+                    member,
+                    new AwaitLivelyEndState() {
+                        @Override
+                        public LivelyEndState awaitChange(Callable<LivelyEndState> awaiter, long timeoutMillis) throws Exception {
+                            return awaiter.call();
+                        }
+
+                        @Override
+                        public void notifyChange(Callable<Boolean> change) throws Exception {
+                            change.call();
+                        }
+                    }));
+                livelinesses.add(liveliness);
+            }
+        }
+
+        /**
+         * Ticks every member until each is online and exactly one leads.
+         *
+         * @return false if the ring did not converge within the given number of ticks
+         */
+        public boolean converge(int maxTicks) throws Exception {
+            for (int i = 0; i < maxTicks && !converged(); i++) {
+                acknowledge(true);
+            }
+            return converged();
+        }
+
+        /**
+         * Feeds every member's fish and acknowledges the others, then taps the glass if asked to.
+         */
+        public void acknowledge(boolean tap) throws Exception {
+            for (int i = 0; i < aquariums.size(); i++) {
+                livelinesses.get(i).feedTheFish();
+                aquariums.get(i).acknowledgeOther();
+                if (tap) {
+                    aquariums.get(i).tapTheGlass();
+                }
+            }
+        }
+
+        private boolean converged() throws Exception {
+            int leaders = 0;
+            for (Aquarium aquarium : aquariums) {
+                LivelyEndState livelyEndState = aquarium.livelyEndState();
+                if (!livelyEndState.isOnline()) {
+                    return false;
+                }
+                if (livelyEndState.getCurrentState() == State.leader) {
+                    leaders++;
+                }
+            }
+            return leaders == 1;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.jivesoftware.os.aquarium;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ *
+ */
+public class WriteBehindLivelinessStorageNGTest {
+
+    private final Member member = new Member(AquariumNGTest.intBytes(1));
+    private final Member other = new Member(AquariumNGTest.intBytes(2));
+
+    @Test
+    public void testCoalescesUntilInterval() throws Exception {
+        AtomicLong clock = new AtomicLong(1_000);
+        CountingLivelinessStorage delegate = new CountingLivelinessStorage();
+        WriteBehindLivelinessStorage storage = new WriteBehindLivelinessStorage(delegate, new MemberRegistry(), clock::get, 100, 1_000);
+
+        for (long timestamp = 1; timestamp <= 50; timestamp++) {
+            long heartbeat = timestamp;
+            storage.update(setLiveliness -> setLiveliness.set(member, member, heartbeat) && setLiveliness.set(other, member, heartbeat - 1));
+            clock.incrementAndGet();
+        }
+        Assert.assertEquals(delegate.updates.get(), 0);
+        Assert.assertEquals(storage.get(member, member), 50L, "pending writes are visible to get");
+        Assert.assertEquals(delegate.get(member, member), -1L);
+        Assert.assertEquals(storage.flushLagMillis(), 50L);
+
+        clock.addAndGet(50);
+        storage.update(setLiveliness -> setLiveliness.set(member, member, 40L));
+        Assert.assertEquals(delegate.updates.get(), 1, "one batched update per interval");
+        Assert.assertEquals(delegate.get(member, member), 50L, "only the latest timestamp is written");
+        Assert.assertEquals(delegate.get(other, member), 49L);
+        Assert.assertEquals(storage.flushLagMillis(), 0L);
+        Assert.assertEquals(storage.maxWriteLagMillis(), 100L);
+    }
+
+    @Test
+    public void testFlushesWhenFull() throws Exception {
+        CountingLivelinessStorage delegate = new CountingLivelinessStorage();
+        WriteBehindLivelinessStorage storage = new WriteBehindLivelinessStorage(delegate, new MemberRegistry(), () -> 1_000L, 60_000, 3);
+        for (int i = 1; i <= 3; i++) {
+            Member ackMember = new Member(AquariumNGTest.intBytes(i));
+            storage.update(setLiveliness -> setLiveliness.set(member, ackMember, 10L));
+        }
+        Assert.assertEquals(delegate.updates.get(), 1);
+        Assert.assertEquals(delegate.get(member, new Member(AquariumNGTest.intBytes(3))), 10L);
+    }
+
+    @Test
+    public void testFailedFlushIsPendingAgain() throws Exception {
+        CountingLivelinessStorage delegate = new CountingLivelinessStorage();
+        WriteBehindLivelinessStorage storage = new WriteBehindLivelinessStorage(delegate, new MemberRegistry(), () -> 1_000L, 60_000, 1_000);
+        storage.update(setLiveliness -> setLiveliness.set(member, member, 10L));
+        delegate.failing = true;
+        try {
+            storage.flush();
+            Assert.fail();
+        } catch (IllegalStateException x) {
+            // expected
+        }
+        delegate.failing = false;
+        storage.update(setLiveliness -> setLiveliness.set(member, other, 11L));
+        storage.flush();
+        Assert.assertEquals(delegate.get(member, member), 10L);
+        Assert.assertEquals(delegate.get(member, other), 11L);
+    }
+
+    @Test
+    public void testFlushingWritesStayVisible() throws Exception {
+        CountingLivelinessStorage delegate = new CountingLivelinessStorage();
+        WriteBehindLivelinessStorage storage = new WriteBehindLivelinessStorage(delegate, new MemberRegistry(), () -> 1_000L, 60_000, 1_000);
+        storage.update(setLiveliness -> setLiveliness.set(member, member, 10L));
+        long[] duringFlush = { -1 };
+        delegate.beforeUpdate = () -> duringFlush[0] = storage.get(member, member);
+        storage.flush();
+        Assert.assertEquals(duringFlush[0], 10L, "a write is visible to get while it is being flushed");
+        Assert.assertEquals(storage.get(member, member), 10L);
+
+        storage.update(setLiveliness -> setLiveliness.set(member, member, 11L));
+        delegate.beforeUpdate = () -> {
+            duringFlush[0] = storage.get(member, member);
+            throw new IllegalStateException("failing");
+        };
+        try {
+            storage.flush();
+            Assert.fail();
+        } catch (IllegalStateException x) {
+            // expected
+        }
+        Assert.assertEquals(duringFlush[0], 11L);
+        Assert.assertEquals(storage.get(member, member), 11L, "a failed flush is pending again");
+    }
+
+    @Test
+    public void testRemoveDropsPendingWrites() throws Exception {
+        CountingLivelinessStorage delegate = new CountingLivelinessStorage();
+        WriteBehindLivelinessStorage storage = new WriteBehindLivelinessStorage(delegate, new MemberRegistry(), () -> 1_000L, 60_000, 1_000);
+        storage.update(setLiveliness -> setLiveliness.set(other, other, 10L) && setLiveliness.set(member, other, 10L)
+            && setLiveliness.set(member, member, 10L));
+        storage.remove(removeLiveliness -> removeLiveliness.remove(other, null) && removeLiveliness.remove(member, other));
+        storage.flush();
+        Assert.assertEquals(delegate.get(other, other), -1L);
+        Assert.assertEquals(delegate.get(member, other), -1L);
+        Assert.assertEquals(delegate.get(member, member), 10L);
+    }
+
+    @Test
+    public void testLivelinessAccountsForLag() throws Exception {
+        AtomicLong clock = new AtomicLong(1_000);
+        WriteBehindLivelinessStorage storage = new WriteBehindLivelinessStorage(new CountingLivelinessStorage(), new MemberRegistry(), clock::get,
+            100, 1_000);
+        Liveliness liveliness = new Liveliness(new AquariumStats(), clock::get, storage, new MemberRegistry(), member, count -> count > 0, 1_000,
+            new AtomicLong(-1));
+        liveliness.feedTheFish();
+        Assert.assertFalse(liveliness.isAlive(member), "our heartbeat has not been flushed");
+        clock.addAndGet(100);
+        liveliness.feedTheFish();
+        Assert.assertTrue(liveliness.isAlive(member));
+        clock.addAndGet(1_100);
+        Assert.assertTrue(liveliness.isAlive(member), "dead after is extended by twice the flush interval");
+        clock.addAndGet(101);
+        Assert.assertFalse(liveliness.isAlive(member));
+    }
+
+    private static class CountingLivelinessStorage extends MatrixLivelinessStorage {
+
+        private final AtomicInteger updates = new AtomicInteger();
+        private volatile boolean failing;
+        private volatile Callable<?> beforeUpdate;
+
+        private CountingLivelinessStorage() {
+            super(new MemberRegistry());
+        }
+
+        @Override
+        public boolean update(LivelinessUpdates updates) throws Exception {
+            if (failing) {
+                throw new IllegalStateException("failing");
+            }
+            if (beforeUpdate != null) {
+                beforeUpdate.call();
+            }
+            this.updates.incrementAndGet();
+            return super.update(updates);
+        }
+    }
+}